@@ -0,0 +1,101 @@
+package fuelgo;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
+
+// Compares per-order and batched dispatch on one synthetic peak: the same
+// orders (random bunks around the city) arrive at a fixed rate against the
+// same fleet, and each strategy reports the mean driver-to-bunk distance, how
+// many drivers it used, and the paid-to-assigned latency.
+//   location-blind: least loaded driver, positions unknown (the old behaviour)
+//   nearest:        per-order nearest driver with spare capacity
+//   batch greedy / batch exact: BatchDispatcher windows
+// Usage: java -cp benchmarks/target/benchmarks.jar fuelgo.BatchDispatchLoadTest [drivers] [orders] [ordersPerSec] [windowMillis] [loadPenaltyKm]
+class BatchDispatchLoadTest
+{
+    public static void main(String[] args) throws Exception
+    {
+        int driverCount = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        int orderCount = args.length > 1 ? Integer.parseInt(args[1]) : 4_000;
+        int rate = args.length > 2 ? Integer.parseInt(args[2]) : 2_000;
+        long window = args.length > 3 ? Long.parseLong(args[3]) : 200;
+        double penalty = args.length > 4 ? Double.parseDouble(args[4]) : BatchDispatcher.DEFAULT_LOAD_PENALTY_KM;
+
+        Quiet.mute();
+        List<String> lines = new ArrayList<>();
+        lines.add(run("location-blind", driverCount, orderCount, rate, false, 0, 0, penalty));
+        lines.add(run("nearest", driverCount, orderCount, rate, true, 0, 0, penalty));
+        lines.add(run("batch greedy " + window + "ms", driverCount, orderCount, rate, true, window, 0, penalty));
+        // Exact matching needs small windows: keep about 50 orders per window
+        long exactWindow = Math.max(1, 50_000L / rate);
+        lines.add(run("batch exact " + exactWindow + "ms", driverCount, orderCount, rate, true, exactWindow, Integer.MAX_VALUE, penalty));
+        Quiet.restore();
+
+        System.out.printf("%d drivers (max load %d), %d orders at %d/s, load penalty %.1f km%n", driverCount, DispatchEngine.DEFAULT_MAX_LOAD, orderCount, rate, penalty);
+        for (String line : lines) System.out.println(line);
+        System.exit(0);
+    }
+
+    private static String run(String name, int driverCount, int orderCount, int rate, boolean located, long window, int exactLimit, double penalty) throws Exception
+    {
+        Random random = new Random(42);
+        DeliveryManager manager = new DeliveryManager(new DispatchEngine(), new DeliveryScheduler(2, 3_600_000, Integer.MAX_VALUE));
+        List<GeoPoint> bunks = new ArrayList<>();
+        for (int i = 0; i < 300; i++) bunks.add(ServiceArea.CENTRE.offset(random.nextGaussian() * 8, random.nextGaussian() * 8));
+        for (int i = 0; i < driverCount; i++)
+        {
+            DeliveryDriver d = manager.registerDriver("Driver " + i, String.valueOf(6000000000L + i));
+            GeoPoint at = ServiceArea.CENTRE.offset(random.nextGaussian() * 8, random.nextGaussian() * 8);
+            // Blind dispatch keeps positions out of the spatial index but still knows them for scoring
+            if (located) manager.updateDriverLocation(d, at);
+            else d.setLocation(at);
+        }
+        BatchDispatcher batcher = window > 0
+                ? new BatchDispatcher(manager, window, exactLimit, BatchDispatcher.DEFAULT_CANDIDATES, penalty)
+                : null;
+
+        Customer cust = new Customer("Bench", "9999999999");
+        Fuel fuel = new Diesel(95);
+        BillingEngine billing = BillingEngine.standard();
+        long[] latency = new long[orderCount];
+        double[] pickupKm = new double[orderCount];
+        CountDownLatch done = new CountDownLatch(orderCount);
+        long intervalNanos = 1_000_000_000L / rate;
+        long start = System.nanoTime();
+        for (int i = 0; i < orderCount; i++)
+        {
+            long due = start + i * intervalNanos;
+            while (System.nanoTime() < due) LockSupport.parkNanos(due - System.nanoTime());
+            GeoPoint bunkAt = bunks.get(random.nextInt(bunks.size()));
+            Order order = new Order("O" + i, cust, fuel, 10, new Bunk("Bunk", bunkAt), bunkAt.offset(random.nextGaussian() * 2, random.nextGaussian() * 2), "Street", billing);
+            order.updateStatus(OrderStatus.PAID);
+            int n = i;
+            long t0 = System.nanoTime();
+            CompletionStage<DeliveryDriver> assigned = batcher != null ? batcher.submit(order) : CompletableFuture.completedFuture(manager.assignDriver(order));
+            assigned.whenComplete((driver, e) ->
+            {
+                latency[n] = System.nanoTime() - t0;
+                pickupKm[n] = driver == null ? Double.NaN : driver.getLocation().distanceKm(bunkAt);
+                done.countDown();
+            });
+        }
+        done.await();
+        if (batcher != null) batcher.shutdown();
+        manager.getDeliveryScheduler().shutdownNow();
+
+        double total = 0;
+        int assigned = 0;
+        for (double km : pickupKm)
+        {
+            if (Double.isNaN(km)) continue;
+            total += km;
+            assigned++;
+        }
+        int used = 0;
+        for (DeliveryDriver d : manager.getDriverRegistry().all()) if (d.getLoad() > 0) used++;
+        Arrays.sort(latency);
+        return String.format("%-20s assigned=%d mean pickup=%.2f km total=%.0f km drivers used=%d latency p50=%.2fms p99=%.2fms",
+                name, assigned, total / Math.max(1, assigned), total, used, latency[orderCount / 2] / 1e6, latency[(int) (orderCount * 0.99)] / 1e6);
+    }
+}
@@ -0,0 +1,68 @@
+package fuelgo;
+
+import java.lang.management.*;
+import java.text.DecimalFormat;
+import java.util.*;
+
+// Billing throughput and allocation per order: BillingEngine + StringBuilder
+// rendering against the old double arithmetic + DecimalFormat summary.
+// Usage: java -cp benchmarks/target/benchmarks.jar fuelgo.BillingLoadTest [orders]
+class BillingLoadTest
+{
+    public static void main(String[] args)
+    {
+        int orders = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        BillingEngine billing = BillingEngine.standard();
+        Fuel petrol = new Petrol95(110);
+        Fuel diesel = new Diesel(95);
+        DecimalFormat df = new DecimalFormat("RS#,###.00");
+        StringBuilder sb = new StringBuilder(256);
+
+        for (int round = 1; round <= 5; round++)
+        {
+            long sink = 0;
+            long bytes0 = allocatedBytes();
+            long t0 = System.nanoTime();
+            for (int i = 0; i < orders; i++)
+            {
+                Fuel fuel = (i & 1) == 0 ? petrol : diesel;
+                Bill bill = billing.price(fuel, 1 + i % 500, "HP Petroleum", (i % 100) / 10.0);
+                sb.setLength(0);
+                Money.appendRupees(sb, bill.total);
+                sink += sb.length() + bill.total;
+            }
+            long engineNanos = System.nanoTime() - t0;
+            long engineBytes = allocatedBytes() - bytes0;
+
+            bytes0 = allocatedBytes();
+            t0 = System.nanoTime();
+            for (int i = 0; i < orders; i++)
+            {
+                Fuel fuel = (i & 1) == 0 ? petrol : diesel;
+                double liters = 1 + i % 500;
+                double dist = (i % 100) / 10.0;
+                double fuelCost = fuel.calculateCost(liters);
+                double deliveryCharge = 30 + (dist * 2);
+                double gst = 0.15 * (fuelCost + deliveryCharge);
+                double total = fuelCost + deliveryCharge + gst;
+                sink += df.format(total).length();
+            }
+            long oldNanos = System.nanoTime() - t0;
+            long oldBytes = allocatedBytes() - bytes0;
+
+            System.out.printf("round %d: engine %.0f bills/s, %.1f bytes/bill | double+DecimalFormat %.0f bills/s, %.1f bytes/bill (sink %d)%n",
+                    round, orders / (engineNanos / 1e9), (double) engineBytes / orders,
+                    orders / (oldNanos / 1e9), (double) oldBytes / orders, sink);
+        }
+    }
+
+    private static long allocatedBytes()
+    {
+        ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        if (mx instanceof com.sun.management.ThreadMXBean)
+        {
+            return ((com.sun.management.ThreadMXBean) mx).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
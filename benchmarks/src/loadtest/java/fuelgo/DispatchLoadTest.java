@@ -0,0 +1,80 @@
+package fuelgo;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// Throughput / latency benchmark for DispatchEngine.
+// Usage: java -cp benchmarks/target/benchmarks.jar fuelgo.DispatchLoadTest [drivers] [orders] [threads]
+class DispatchLoadTest
+{
+    public static void main(String[] args) throws Exception
+    {
+        int driverCount = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int orderCount = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        for (int round = 1; round <= 5; round++)
+        {
+            runRound(round, driverCount, orderCount, threads);
+        }
+    }
+
+    private static void runRound(int round, int driverCount, int orderCount, int threads) throws Exception
+    {
+        // Capacity equals the number of pending orders so every order finds a driver
+        int maxLoad = (orderCount + driverCount - 1) / driverCount;
+        DispatchEngine engine = new DispatchEngine(maxLoad);
+        for (int i = 0; i < driverCount; i++)
+        {
+            DeliveryDriver d = new DeliveryDriver("Driver " + i, String.valueOf(6000000000L + i));
+            engine.addDriver(d);
+        }
+
+        Customer cust = new Customer("Bench", "9999999999");
+        Fuel fuel = new Petrol95(110);
+        Order[] orders = new Order[orderCount];
+        for (int i = 0; i < orderCount; i++)
+        {
+            orders[i] = new Order("O" + i, cust, fuel, 10, "Bharat Petroleum", 2.5, "Bench Street");
+            orders[i].updateStatus(OrderStatus.PAID);
+        }
+
+        long[] latencies = new long[orderCount];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger unassigned = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++)
+        {
+            futures.add(pool.submit(() ->
+            {
+                start.await();
+                int i;
+                while ((i = next.getAndIncrement()) < orderCount)
+                {
+                    long t0 = System.nanoTime();
+                    DeliveryDriver d = engine.assign();
+                    if (d != null) d.acceptOrder(orders[i]);
+                    else unassigned.incrementAndGet();
+                    latencies[i] = System.nanoTime() - t0;
+                }
+                return null;
+            }));
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Future<?> f : futures) f.get();
+        long elapsed = System.nanoTime() - begin;
+        pool.shutdown();
+
+        Arrays.sort(latencies);
+        System.out.printf("round %d: %d drivers, %d orders, %d threads -> %.0f assignments/s, unassigned=%d, p50=%dns p99=%dns p99.9=%dns max=%dns%n",
+                round, driverCount, orderCount, threads,
+                orderCount / (elapsed / 1e9), unassigned.get(),
+                latencies[orderCount / 2], latencies[(int) (orderCount * 0.99)],
+                latencies[(int) (orderCount * 0.999)], latencies[orderCount - 1]);
+    }
+}
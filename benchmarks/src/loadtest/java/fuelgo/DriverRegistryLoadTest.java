@@ -0,0 +1,115 @@
+package fuelgo;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// Lookup / registration benchmark for DriverRegistry against the old linear scan.
+// Usage: java -cp benchmarks/target/benchmarks.jar fuelgo.DriverRegistryLoadTest [drivers] [lookups] [threads]
+class DriverRegistryLoadTest
+{
+    public static void main(String[] args) throws Exception
+    {
+        int driverCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 5_000_000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        String[] phones = new String[driverCount];
+        for (int i = 0; i < driverCount; i++)
+        {
+            phones[i] = String.valueOf(6000000000L + i * 7L);
+        }
+
+        for (int round = 1; round <= 5; round++)
+        {
+            DriverRegistry registry = new DriverRegistry();
+            long regNanos = register(registry, phones, threads);
+            long lookupNanos = lookup(registry, phones, lookups, threads);
+            System.out.printf("round %d: registered %d drivers in %.1f ms (%d threads), %d lookups -> %.0f lookups/s%n",
+                    round, registry.size(), regNanos / 1e6, threads, lookups, lookups / (lookupNanos / 1e9));
+        }
+
+        // Baseline: the ArrayList scan DeliveryManager used before the registry
+        List<DeliveryDriver> list = new ArrayList<>();
+        for (String phone : phones) list.add(new DeliveryDriver("Driver", phone));
+        int scans = 2_000;
+        Random rand = new Random(7);
+        long found = 0;
+        long t0 = System.nanoTime();
+        for (int i = 0; i < scans; i++)
+        {
+            String phone = phones[rand.nextInt(driverCount)];
+            for (DeliveryDriver d : list)
+            {
+                if (d.getPhone().equals(phone))
+                {
+                    found++;
+                    break;
+                }
+            }
+        }
+        long scanNanos = System.nanoTime() - t0;
+        System.out.printf("linear scan baseline: %d lookups -> %.0f lookups/s (found %d)%n",
+                scans, scans / (scanNanos / 1e9), found);
+    }
+
+    // Every phone is registered twice from racing threads; exactly one must win
+    private static long register(DriverRegistry registry, String[] phones, int threads) throws Exception
+    {
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        long t0 = System.nanoTime();
+        for (int t = 0; t < threads; t++)
+        {
+            futures.add(pool.submit(() ->
+            {
+                int i;
+                while ((i = next.getAndIncrement()) < phones.length * 2)
+                {
+                    registry.registerIfAbsent(new DeliveryDriver("Driver", phones[i % phones.length]));
+                }
+                return null;
+            }));
+        }
+        for (Future<?> f : futures) f.get();
+        long elapsed = System.nanoTime() - t0;
+        pool.shutdown();
+        if (registry.size() != phones.length)
+        {
+            throw new IllegalStateException("expected " + phones.length + " drivers, registry has " + registry.size());
+        }
+        return elapsed;
+    }
+
+    private static long lookup(DriverRegistry registry, String[] phones, int lookups, int threads) throws Exception
+    {
+        int perThread = lookups / threads;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Long>> futures = new ArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < threads; t++)
+        {
+            int seed = t;
+            futures.add(pool.submit(() ->
+            {
+                Random rand = new Random(seed);
+                long hits = 0;
+                start.await();
+                for (int i = 0; i < perThread; i++)
+                {
+                    if (registry.findByPhone(phones[rand.nextInt(phones.length)]) != null) hits++;
+                }
+                return hits;
+            }));
+        }
+        long t0 = System.nanoTime();
+        start.countDown();
+        long hits = 0;
+        for (Future<Long> f : futures) hits += f.get();
+        long elapsed = System.nanoTime() - t0;
+        pool.shutdown();
+        if (hits != (long) perThread * threads) throw new IllegalStateException("missing drivers: " + hits);
+        return elapsed;
+    }
+}
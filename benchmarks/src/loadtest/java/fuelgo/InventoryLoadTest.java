@@ -0,0 +1,123 @@
+package fuelgo;
+
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// Oversell check for FuelInventory through OrderService.createOrder: many threads
+// race orders against one small tank until it runs dry, cancelling some orders and
+// delivering others as they go. Every round must account for each millilitre:
+// orders still holding fuel plus delivered fuel never exceed the tank, and the
+// tank's available + reserved + sold always adds back up to what was stocked.
+// Usage: java -cp benchmarks/target/benchmarks.jar fuelgo.InventoryLoadTest [threads] [tankLiters] [rounds]
+class InventoryLoadTest
+{
+    private static final String BUNK = "Load Test Bunk";
+
+    public static void main(String[] args) throws Exception
+    {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        double tankLiters = args.length > 1 ? Double.parseDouble(args[1]) : 10_000;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+        // Order status changes print to the console; the report goes to the real stdout
+        PrintStream out = System.out;
+        Quiet.mute();
+        DeliveryManager manager = new DeliveryManager(new DispatchEngine(), new DeliveryScheduler(1, 200, 1_000_000));
+        for (int round = 1; round <= rounds; round++)
+        {
+            OrderService service = new OrderService(manager, null, new WalletLedger(), null);
+            service.addBunk(BUNK, ServiceArea.CENTRE);
+            FuelTank tank = service.getInventory().restock(BUNK, "Diesel", tankLiters);
+            long stockedMl = FuelInventory.toMillilitres(tankLiters);
+
+            LongAdder openMl = new LongAdder();
+            LongAdder deliveredMl = new LongAdder();
+            LongAdder cancelledMl = new LongAdder();
+            AtomicInteger placed = new AtomicInteger();
+            AtomicInteger refused = new AtomicInteger();
+            List<Order> open = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch start = new CountDownLatch(1);
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            List<Future<?>> futures = new ArrayList<>();
+            long t0 = System.nanoTime();
+            for (int t = 0; t < threads; t++)
+            {
+                int seed = round * 1_000 + t;
+                futures.add(pool.submit(() ->
+                {
+                    Random rand = new Random(seed);
+                    Customer cust = new Customer("Load" + seed, String.valueOf(7000000000L + seed));
+                    start.await();
+                    // A thread stops once the tank has turned it away a few times in a row
+                    int misses = 0;
+                    while (misses < 20)
+                    {
+                        double liters = 1 + rand.nextInt(200) + rand.nextInt(1000) / 1000.0;
+                        Order order;
+                        try
+                        {
+                            order = service.createOrder(cust, "Diesel", liters, BUNK, "Street " + seed);
+                        }
+                        catch (IllegalStateException e)
+                        {
+                            refused.incrementAndGet();
+                            misses++;
+                            continue;
+                        }
+                        misses = 0;
+                        placed.incrementAndGet();
+                        long ml = FuelInventory.toMillilitres(liters);
+                        switch (rand.nextInt(3))
+                        {
+                            case 0:
+                                service.cancel(order);
+                                cancelledMl.add(ml);
+                                break;
+                            case 1:
+                                order.updateStatus(OrderStatus.PAID);
+                                order.updateStatus(OrderStatus.ASSIGNED);
+                                order.updateStatus(OrderStatus.ON_THE_WAY);
+                                order.updateStatus(OrderStatus.DELIVERED);
+                                deliveredMl.add(ml);
+                                break;
+                            default:
+                                openMl.add(ml);
+                                open.add(order);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> f : futures) f.get();
+            long elapsed = System.nanoTime() - t0;
+            pool.shutdown();
+
+            long available = Math.round(tank.getAvailableLiters() * 1000);
+            long reserved = Math.round(tank.getReservedLiters() * 1000);
+            long sold = Math.round(tank.getSoldLiters() * 1000);
+            out.printf("round %d: %d threads on a %.0f L tank -> %d orders placed (%.0f orders/s), %d refused, "
+                            + "open=%.1fL delivered=%.1fL cancelled=%.1fL left=%.1fL%n",
+                    round, threads, tankLiters, placed.get(), placed.get() / (elapsed / 1e9), refused.get(),
+                    openMl.sum() / 1000.0, deliveredMl.sum() / 1000.0, cancelledMl.sum() / 1000.0, available / 1000.0);
+            if (openMl.sum() + deliveredMl.sum() > stockedMl) throw new IllegalStateException("oversold: " + tank);
+            if (available + reserved + sold != stockedMl) throw new IllegalStateException("stock does not add up to " + tankLiters + " L: " + tank);
+            if (reserved != openMl.sum() || sold != deliveredMl.sum()) throw new IllegalStateException("tank disagrees with the orders placed: " + tank);
+            if (service.getInventory().getHeldOrders() != open.size()) throw new IllegalStateException("held orders " + service.getInventory().getHeldOrders() + " != open orders " + open.size());
+
+            // Cancelling the rest must put every open litre back on sale
+            for (Order order : open) service.cancel(order);
+            if (Math.round(tank.getAvailableLiters() * 1000) + sold != stockedMl || tank.getReservedLiters() != 0)
+            {
+                throw new IllegalStateException("cancelled orders did not hand their fuel back: " + tank);
+            }
+            service.shutdown();
+        }
+        manager.shutdown(5, TimeUnit.SECONDS);
+        Quiet.restore();
+        System.out.println("no round oversold");
+        System.exit(0);
+    }
+}
@@ -0,0 +1,68 @@
+package fuelgo;
+
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Append throughput and recovery time for OrderJournal.
+// Usage: java -cp benchmarks/target/benchmarks.jar fuelgo.JournalLoadTest [orders] [threads] [journal file]
+// Each order writes five events (created, payment, three status changes).
+class JournalLoadTest
+{
+    public static void main(String[] args) throws Exception
+    {
+        int orderCount = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        Path path = args.length > 2 ? Paths.get(args[2]) : Files.createTempFile("fuelgo-bench", ".journal");
+        Files.deleteIfExists(path);
+
+        Customer cust = new Customer("Bench", "9999999999");
+        Fuel fuel = new Diesel(95);
+        DeliveryDriver driver = new DeliveryDriver("Bench Driver", "8888888888");
+
+        OrderJournal journal = new OrderJournal(path, 0, 5);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        int perThread = orderCount / threads;
+        long t0 = System.nanoTime();
+        for (int t = 0; t < threads; t++)
+        {
+            int base = t * perThread;
+            futures.add(pool.submit(() ->
+            {
+                for (int i = base; i < base + perThread; i++)
+                {
+                    Order o = new Order("O" + i, cust, fuel, 20, "HP Petroleum", 4.2, "Bench Street " + i);
+                    journal.orderCreated(o);
+                    o.addStatusListener(journal);
+                    journal.payment(o, "PhonePe", o.getTotal());
+                    o.updateStatus(OrderStatus.PAID);
+                    journal.driverAssigned(o, driver);
+                    o.updateStatus(OrderStatus.ASSIGNED);
+                    o.updateStatus(OrderStatus.ON_THE_WAY);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> f : futures) f.get();
+        journal.flush();
+        long writeNanos = System.nanoTime() - t0;
+        journal.close();
+        pool.shutdown();
+        long events = journal.getDurableCount();
+        System.out.printf("append: %d events from %d threads in %.0f ms -> %.0f durable events/s, %d MB%n",
+                events, threads, writeNanos / 1e6, events / (writeNanos / 1e9), Files.size(path) >> 20);
+
+        for (int round = 1; round <= 3; round++)
+        {
+            long r0 = System.nanoTime();
+            JournalRecovery recovery = new JournalRecovery();
+            OrderJournal.replay(path, recovery);
+            long replayNanos = System.nanoTime() - r0;
+            System.out.printf("recover round %d: %d events, %d orders in %.0f ms -> %.0f events/s%n",
+                    round, recovery.getEventCount(), recovery.getOrders().size(),
+                    replayNanos / 1e6, recovery.getEventCount() / (replayNanos / 1e9));
+        }
+        Files.deleteIfExists(path);
+    }
+}
@@ -0,0 +1,176 @@
+package fuelgo;
+
+import java.io.PrintStream;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Recovery check for OrderJournal: runs a mix of orders through OrderService with a
+// journal (left unpaid, cancelled, paid and delivered, paid and still on the road,
+// paid and waiting for a driver, some at surge prices), then replays the journal the
+// way FUELgoApp does at startup. Every order must come back with the same customer,
+// fuel, liters, bunk, address, locations and bill; finished and unpaid orders with
+// the same status, interrupted trips with the same driver, and paid orders must all
+// be delivered once the recovered deliveries run. The order history rebuilt from
+// the journal must match the one kept while the orders were placed.
+// Trips run on the simulator's virtual clock, so a run takes a few seconds.
+// Usage: java -cp benchmarks/target/benchmarks.jar fuelgo.JournalRecoveryLoadTest [orders] [drivers] [journal file]
+class JournalRecoveryLoadTest
+{
+    public static void main(String[] args) throws Exception
+    {
+        int orderCount = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int driverCount = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        Path path = args.length > 2 ? Paths.get(args[2]) : Files.createTempFile("fuelgo-recovery", ".journal");
+        Files.deleteIfExists(path);
+
+        PrintStream out = System.out;
+        Quiet.mute();
+        OrderSimulator.VirtualTimer timer = new OrderSimulator.VirtualTimer();
+        DeliveryManager manager = new DeliveryManager(new DispatchEngine(), new DeliveryScheduler(timer, order -> 60_000, DeliveryScheduler.DEFAULT_MAX_IN_FLIGHT));
+        OrderJournal journal = new OrderJournal(path, 0, 5);
+        manager.setJournal(journal);
+        for (int i = 0; i < driverCount; i++) manager.registerDriver("Driver " + i, String.valueOf(6000000000L + i));
+        WalletLedger ledger = new WalletLedger();
+        OrderService service = new OrderService(manager, null, ledger, journal);
+        for (String bunk : new String[] { "Bharat Petroleum", "HP Petroleum" })
+        {
+            service.getInventory().restock(bunk, "Diesel", 70.0 * orderCount);
+            service.getInventory().restock(bunk, "Petrol95", 70.0 * orderCount);
+        }
+        // Once every driver is busy new orders are taken at a surge price, so recovered bills must not be re-priced
+        service.setAdmissionControl(new AdmissionControl(manager, AdmissionPolicy.SURGE, AdmissionControl.DEFAULT_MAX_BACKLOG,
+                AdmissionControl.UNLIMITED, AdmissionControl.DEFAULT_SURGE_MULTIPLIER));
+
+        Random rand = new Random(42);
+        List<Order> placed = new ArrayList<>();
+        long payments = 0;
+        long t0 = System.nanoTime();
+        for (int i = 0; i < orderCount; i++)
+        {
+            Customer cust = service.customer("Customer " + i % 1_000, String.valueOf(7000000000L + i % 1_000));
+            GeoPoint at = ServiceArea.CENTRE.offset(rand.nextDouble() * 8 - 4, rand.nextDouble() * 8 - 4);
+            String fuel = rand.nextBoolean() ? "Diesel" : "Petrol95";
+            Order order;
+            try
+            {
+                order = service.createOrder(cust, fuel, 5 + rand.nextInt(60) + rand.nextInt(10) / 10.0, null, "Street " + i, at);
+            }
+            catch (IllegalStateException e)
+            {
+                continue;
+            }
+            placed.add(order);
+            switch (i % 5)
+            {
+                case 0:
+                    break;
+                case 1:
+                    service.cancel(order);
+                    break;
+                default:
+                    ledger.credit(cust.getPhone(), order.getTotalPaise());
+                    if (service.payAndDispatch(order, new FuelGoWallet(ledger, cust.getPhone())).toCompletableFuture().join().isApproved()) payments++;
+            }
+            // Trips finish in bursts; the ones still out at the end are interrupted by the "crash"
+            if (i % 500 == 499 && i < orderCount - 1_000) timer.runAll();
+        }
+        journal.flush();
+        long elapsed = System.nanoTime() - t0;
+
+        Map<String, String> expected = new HashMap<>();
+        Map<String, OrderStatus> statuses = new HashMap<>();
+        Map<String, String> drivers = new HashMap<>();
+        Map<String, String> records = new HashMap<>();
+        for (Order order : placed)
+        {
+            expected.put(order.getOrderId(), describe(order));
+            statuses.put(order.getOrderId(), order.getStatus());
+            if (order.getDriver() != null) drivers.put(order.getOrderId(), order.getDriver().getPhone());
+            records.put(order.getOrderId(), describe(service.getHistory().find(order.getOrderId())));
+        }
+        journal.close();
+        service.shutdown();
+
+        // Restart: replay into a fresh manager on a fresh clock, as FUELgoApp.openJournal does
+        long r0 = System.nanoTime();
+        JournalRecovery recovery = new JournalRecovery();
+        long validBytes = OrderJournal.replay(path, recovery);
+        OrderSimulator.VirtualTimer restartTimer = new OrderSimulator.VirtualTimer();
+        DeliveryManager restarted = new DeliveryManager(new DispatchEngine(), new DeliveryScheduler(restartTimer, order -> 60_000, DeliveryScheduler.DEFAULT_MAX_IN_FLIGHT));
+        OrderJournal reopened = new OrderJournal(path, validBytes, 5);
+        recovery.restore(restarted, reopened);
+        OrderHistory history = new OrderHistory();
+        history.rebuild(path);
+        long recoveryNanos = System.nanoTime() - r0;
+
+        int mismatches = 0;
+        Map<OrderStatus, Integer> before = new EnumMap<>(OrderStatus.class);
+        List<Order> owed = new ArrayList<>();
+        Map<String, Order> recovered = new HashMap<>();
+        for (Order order : recovery.getOrders()) recovered.put(order.getOrderId(), order);
+        for (Order original : placed)
+        {
+            String id = original.getOrderId();
+            OrderStatus was = statuses.get(id);
+            before.merge(was, 1, Integer::sum);
+            Order order = recovered.get(id);
+            if (order == null || !expected.get(id).equals(describe(order)))
+            {
+                mismatches++;
+                continue;
+            }
+            if (!records.get(id).equals(describe(history.find(id)))) mismatches++;
+            OrderStatus now = order.getStatus();
+            boolean interrupted = was == OrderStatus.ASSIGNED || was == OrderStatus.ON_THE_WAY;
+            if (interrupted)
+            {
+                // Back on the road with the driver who had it
+                if (order.getDriver() == null || !order.getDriver().getPhone().equals(drivers.get(id))) mismatches++;
+            }
+            else if (was != OrderStatus.PAID && now != was) mismatches++;
+            if (was == OrderStatus.PAID || interrupted) owed.add(order);
+        }
+        if (recovered.size() != placed.size()) mismatches++;
+        if (recovery.getPaymentCount() != payments || recovery.getRefundCount() != 0) mismatches++;
+
+        // Every paid order still owed a delivery gets one after the restart
+        restartTimer.runAll();
+        int undelivered = 0;
+        for (Order order : owed)
+        {
+            if (order.getStatus() != OrderStatus.DELIVERED) undelivered++;
+        }
+        reopened.close();
+        manager.shutdown(5, TimeUnit.SECONDS);
+        restarted.shutdown(5, TimeUnit.SECONDS);
+        Quiet.restore();
+
+        out.printf("%d orders (%.0f orders/s with the journal) -> %s%n", placed.size(), placed.size() / (elapsed / 1e9), before);
+        out.printf("recovered %d orders from %d events and rebuilt their history in %.0f ms: %d mismatches, %d of %d owed deliveries not made%n",
+                recovery.getOrders().size(), recovery.getEventCount(), recoveryNanos / 1e6, mismatches, undelivered, owed.size());
+        Files.deleteIfExists(path);
+        if (mismatches != 0 || undelivered != 0) throw new IllegalStateException("recovery did not rebuild the orders it journaled");
+        System.exit(0);
+    }
+
+    private static String describe(Order o)
+    {
+        Bill bill = o.getBill();
+        return o.getOrderId() + '|' + o.getCustomer().getName() + '|' + o.getCustomer().getPhone() + '|' + o.getFuel().getType() + '|'
+                + o.getFuel().getPricePerLiter() + '|' + o.getLiters() + '|' + o.getBunkName() + '|' + o.getDistance() + '|' + o.getDeliveryAddr() + '|'
+                + bill.fuelCost + '|' + bill.deliveryCharge + '|' + bill.tax + '|' + bill.taxLabel + '|' + bill.total + '|'
+                + describe(o.getPickup()) + '|' + describe(o.getDropoff());
+    }
+
+    private static String describe(GeoPoint p)
+    {
+        return p == null ? "-" : p.getLat() + "," + p.getLon();
+    }
+
+    private static String describe(OrderRecord r)
+    {
+        return r == null ? "missing" : r.getOrderId() + '|' + r.getCustomerPhone() + '|' + r.getFuelType() + '|' + r.getLiters() + '|' + r.getBunk() + '|'
+                + r.getAddress() + '|' + r.getTotalPaise() + '|' + r.getCreatedAt() + '|' + r.getStatus();
+    }
+}
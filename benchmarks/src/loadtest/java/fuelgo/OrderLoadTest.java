@@ -0,0 +1,130 @@
+package fuelgo;
+
+import java.net.URI;
+import java.net.http.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// Local load test for the HTTP order API: starts OrderService + OrderHttpServer
+// in-process and drives many concurrent customers through create -> pay -> track.
+// Every request carries an Idempotency-Key, and every tenth payment is sent twice
+// at once as a client retry would; each order must still be charged only once.
+// Usage: java -cp benchmarks/target/benchmarks.jar fuelgo.OrderLoadTest [customers] [concurrency] [drivers]
+class OrderLoadTest
+{
+    public static void main(String[] args) throws Exception
+    {
+        int customers = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+        int driverCount = args.length > 2 ? Integer.parseInt(args[2]) : 5_000;
+
+        Quiet.mute();
+        DeliveryManager manager = new DeliveryManager(new DispatchEngine(10), new DeliveryScheduler(2, 200, 1_000_000));
+        for (int i = 0; i < driverCount; i++) manager.registerDriver("Driver " + i, String.valueOf(6000000000L + i));
+        PaymentPipeline pipeline = PaymentPipeline.simulated(20, 0.01, 0);
+        OrderService service = new OrderService(manager, pipeline, new WalletLedger(), null);
+        // Every customer orders from the same tank: enough for all of them
+        service.getInventory().restock("HP Petroleum", "Diesel", 55.0 * customers);
+        OrderHttpServer server = new OrderHttpServer(service, 0, 2 * Runtime.getRuntime().availableProcessors());
+        server.start();
+        String base = "http://localhost:" + server.getPort() + "/orders";
+
+        HttpClient client = HttpClient.newBuilder()
+                .executor(Executors.newFixedThreadPool(4))
+                .connectTimeout(java.time.Duration.ofSeconds(10))
+                .build();
+        Semaphore inFlight = new Semaphore(concurrency);
+        long[] createNanos = new long[customers];
+        long[] payNanos = new long[customers];
+        AtomicInteger paid = new AtomicInteger();
+        AtomicInteger declined = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        AtomicInteger retriesAnswered = new AtomicInteger();
+        AtomicReference<String> lastId = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(customers);
+
+        long t0 = System.nanoTime();
+        for (int i = 0; i < customers; i++)
+        {
+            inFlight.acquire();
+            int n = i;
+            String phone = String.valueOf(7000000000L + i);
+            String form = "name=Load" + i + "&phone=" + phone + "&bunk=HP+Petroleum&fuel=Diesel&liters=" + (5 + i % 50) + "&address=Street+" + i;
+            long c0 = System.nanoTime();
+            client.sendAsync(post(base, form, "create-" + n), HttpResponse.BodyHandlers.ofString())
+                    .thenCompose(created ->
+                    {
+                        createNanos[n] = System.nanoTime() - c0;
+                        if (created.statusCode() != 201) throw new IllegalStateException(created.body());
+                        String id = field(created.body(), "id");
+                        if (n == customers - 1) lastId.set(id);
+                        HttpRequest pay = post(base + "/" + id + "/pay", "method=phonepe&account=load" + n + "@ybl", "pay-" + n);
+                        if (n % 10 == 0)
+                        {
+                            client.sendAsync(pay, HttpResponse.BodyHandlers.ofString()).thenAccept(r ->
+                            {
+                                if (r.statusCode() == 200 || r.statusCode() == 402) retriesAnswered.incrementAndGet();
+                            });
+                        }
+                        long p0 = System.nanoTime();
+                        return client.sendAsync(pay, HttpResponse.BodyHandlers.ofString())
+                                .thenApply(r ->
+                                {
+                                    payNanos[n] = System.nanoTime() - p0;
+                                    return r;
+                                });
+                    })
+                    .whenComplete((r, e) ->
+                    {
+                        if (e != null) errors.incrementAndGet();
+                        else if (r.statusCode() == 200) paid.incrementAndGet();
+                        else if (r.statusCode() == 402) declined.incrementAndGet();
+                        else errors.incrementAndGet();
+                        inFlight.release();
+                        done.countDown();
+                    });
+        }
+        done.await();
+        long elapsed = System.nanoTime() - t0;
+
+        // Spot-check tracking on the last order
+        HttpResponse<String> tracked = client.send(HttpRequest.newBuilder(URI.create(base + "/" + lastId.get())).GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+
+        server.stop(0);
+        service.shutdown();
+        manager.shutdown(5, TimeUnit.SECONDS);
+        pipeline.shutdown();
+        Quiet.restore();
+
+        Arrays.sort(createNanos);
+        Arrays.sort(payNanos);
+        System.out.printf("%d customers, %d concurrent, %d drivers: %.0f orders/s end to end, paid=%d declined=%d errors=%d%n",
+                customers, concurrency, driverCount, customers / (elapsed / 1e9), paid.get(), declined.get(), errors.get());
+        System.out.printf("create p50=%.1fms p99=%.1fms | pay p50=%.1fms p99=%.1fms%n",
+                createNanos[customers / 2] / 1e6, createNanos[(int) (customers * 0.99)] / 1e6,
+                payNanos[customers / 2] / 1e6, payNanos[(int) (customers * 0.99)] / 1e6);
+        System.out.println("track " + lastId.get() + ": " + tracked.statusCode() + " " + tracked.body());
+        System.out.println("payments: " + pipeline.metrics() + " (" + retriesAnswered.get() + " retried pays answered from the first attempt)");
+        System.out.println("deliveries: " + manager.getDeliveryScheduler().metrics());
+        System.exit(0);
+    }
+
+    private static HttpRequest post(String url, String form, String idempotencyKey)
+    {
+        return HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .header("Idempotency-Key", idempotencyKey)
+                .POST(HttpRequest.BodyPublishers.ofString(form))
+                .build();
+    }
+
+    // Just enough JSON reading for the flat fields this test needs
+    private static String field(String json, String name)
+    {
+        String key = "\"" + name + "\":\"";
+        int start = json.indexOf(key) + key.length();
+        return json.substring(start, json.indexOf('"', start));
+    }
+}
@@ -0,0 +1,441 @@
+package fuelgo;
+
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Deterministic simulation of the whole order lifecycle on a virtual clock.
+// Synthetic customers order from the nearest of many bunks, pay through a
+// simulated gateway and are delivered by a synthetic fleet, all through the real
+// OrderService, DeliveryManager, DeliveryScheduler and EtaEngine. Every event
+// runs on one thread in virtual-time order, so the same seed gives the same
+// report, and days of orders take seconds of wall time. Admission control sheds,
+// defers or surge-prices orders once the fleet is saturated (reject, defer or surge).
+// Dispatch is split into zone shards whose orders are assigned, and whose queues
+// drained, on the virtual timer.
+// Usage: java -Xmx3g -cp benchmarks/target/benchmarks.jar fuelgo.OrderSimulator [orders] [ordersPerMinute] [drivers] [bunks] [seed] [policy] [maxBacklog] [shards]
+class OrderSimulator
+{
+    // Virtual time starts at midnight UTC so the ETA engine sees whole days
+    private static final long EPOCH_MILLIS = Instant.parse("2025-01-06T00:00:00Z").toEpochMilli();
+    private static final long SAMPLE_MILLIS = 60_000;
+    private static final double DECLINE_RATE = 0.02;
+    private static final double CITY_KM = 12;
+    private static final String[] FUELS = { "Petrol95", "Diesel" };
+
+    private final int orderCount;
+    private final double ordersPerMinute;
+    private final VirtualTimer timer = new VirtualTimer();
+    // One stream per kind of decision, so changing one leaves the others as they were
+    private final Random arrivals, payments, trips;
+    private final OrderService service;
+    private final DeliveryManager manager;
+    private final DeliveryScheduler scheduler;
+    private final AdmissionControl admission;
+
+    private int arrived, rejected, shed, declined, delivered, cancelled, open;
+    private long peakWaiting, waitingSum, samples;
+    // Virtual milliseconds
+    private final LatencyHistogram toPaid = new LatencyHistogram();
+    private final LatencyHistogram toDriver = new LatencyHistogram();
+    private final LatencyHistogram onTheRoad = new LatencyHistogram();
+    private final LatencyHistogram endToEnd = new LatencyHistogram();
+    private final LatencyHistogram etaError = new LatencyHistogram();
+    private final LatencyHistogram waitingDepth = new LatencyHistogram();
+
+    OrderSimulator(int orderCount, double ordersPerMinute, int driverCount, int bunkCount, long seed, AdmissionPolicy policy, int maxBacklog, int shards)
+    {
+        this.orderCount = orderCount;
+        this.ordersPerMinute = ordersPerMinute;
+        Random setup = new Random(seed);
+        this.arrivals = new Random(seed + 1);
+        this.payments = new Random(seed + 2);
+        this.trips = new Random(seed + 3);
+
+        scheduler = new DeliveryScheduler(timer, this::tripMillis, Integer.MAX_VALUE);
+        manager = new DeliveryManager(shards, DispatchEngine::new, scheduler, shard -> timer);
+        // The simulated gateway stands in for the payment pipeline
+        service = new OrderService(manager, null, new WalletLedger(), null, FuelCatalog.defaults(), new IdGenerator(0), new EtaEngine(timer.clock(EPOCH_MILLIS)));
+        admission = new AdmissionControl(manager, policy, maxBacklog, AdmissionControl.UNLIMITED, AdmissionControl.DEFAULT_SURGE_MULTIPLIER);
+        service.setAdmissionControl(admission);
+        double litersPerBunk = 60.0 * orderCount / (bunkCount + 2) * 2;
+        for (int i = 0; i < bunkCount; i++)
+        {
+            String name = "Bunk " + (i + 1);
+            service.addBunk(name, randomPoint(setup, CITY_KM * 0.8));
+        }
+        for (int i = 0; i < bunkCount; i++)
+        {
+            for (String fuel : FUELS) service.getInventory().restock("Bunk " + (i + 1), fuel, litersPerBunk);
+        }
+        for (String bunk : new String[] { "Bharat Petroleum", "HP Petroleum" })
+        {
+            for (String fuel : FUELS) service.getInventory().restock(bunk, fuel, litersPerBunk);
+        }
+        for (int i = 0; i < driverCount; i++)
+        {
+            DeliveryDriver driver = manager.registerDriver("Driver " + i, String.valueOf(6000000000L + i));
+            manager.updateDriverLocation(driver, randomPoint(setup, CITY_KM));
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        int orders = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        double perMinute = args.length > 1 ? Double.parseDouble(args[1]) : 200;
+        int drivers = args.length > 2 ? Integer.parseInt(args[2]) : 2_000;
+        int bunks = args.length > 3 ? Integer.parseInt(args[3]) : 40;
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 42;
+        AdmissionPolicy policy = AdmissionPolicy.of(args.length > 5 ? args[5] : "defer");
+        int maxBacklog = args.length > 6 ? Integer.parseInt(args[6]) : AdmissionControl.DEFAULT_MAX_BACKLOG;
+        int shards = args.length > 7 ? Integer.parseInt(args[7]) : 8;
+
+        Quiet.mute();
+        OrderSimulator sim = new OrderSimulator(orders, perMinute, drivers, bunks, seed, policy, maxBacklog, shards);
+        long t0 = System.nanoTime();
+        sim.run();
+        long elapsed = System.nanoTime() - t0;
+        Quiet.restore();
+        sim.report(drivers, bunks, seed, elapsed);
+        System.exit(0);
+    }
+
+    void run()
+    {
+        timer.schedule(this::arrive, nextArrival(), TimeUnit.MILLISECONDS);
+        timer.schedule(this::sample, SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+        timer.runAll();
+    }
+
+    // Uniform over a disc of radius km around the service area centre
+    private static GeoPoint randomPoint(Random random, double km)
+    {
+        double r = km * Math.sqrt(random.nextDouble());
+        double angle = random.nextDouble() * 2 * Math.PI;
+        return ServiceArea.CENTRE.offset(r * Math.cos(angle), r * Math.sin(angle));
+    }
+
+    // Poisson arrivals at ordersPerMinute
+    private long nextArrival()
+    {
+        return Math.max(1, Math.round(-Math.log(1 - arrivals.nextDouble()) * 60_000 / ordersPerMinute));
+    }
+
+    // Lognormal around a median, as service times tend to be
+    private static long lognormal(Random random, double medianMillis, double sigma)
+    {
+        return Math.max(1, Math.round(medianMillis * Math.exp(sigma * random.nextGaussian())));
+    }
+
+    // Three minutes at the door plus 2.2 minutes a km, give or take traffic
+    private long tripMillis(Order order)
+    {
+        return lognormal(trips, (3 + 2.2 * order.getTravelKm()) * 60_000, 0.25);
+    }
+
+    private void arrive()
+    {
+        int n = arrived++;
+        if (arrived < orderCount) timer.schedule(this::arrive, nextArrival(), TimeUnit.MILLISECONDS);
+
+        Customer customer = service.customer("Customer " + n % 100_000, String.valueOf(7000000000L + n % 100_000));
+        String fuel = FUELS[arrivals.nextInt(FUELS.length)];
+        double liters = 5 + arrivals.nextInt(56);
+        GeoPoint location = randomPoint(arrivals, CITY_KM);
+        Order order;
+        try
+        {
+            order = service.createOrder(customer, fuel, liters, null, "Street " + n, location);
+        }
+        catch (OverloadedException e)
+        {
+            shed++;
+            return;
+        }
+        catch (IllegalArgumentException | IllegalStateException e)
+        {
+            rejected++;
+            return;
+        }
+        open++;
+        Tracked tracked = new Tracked(order, timer.now());
+        order.addStatusListener(tracked);
+
+        // The customer pays a few seconds later; the gateway answers after its own latency
+        boolean approve = payments.nextDouble() >= DECLINE_RATE;
+        long payAt = lognormal(payments, 20_000, 0.6) + lognormal(payments, 1_500, 0.5);
+        CompletableFuture<PaymentResult> answer = new CompletableFuture<>();
+        timer.schedule(() -> answer.complete(new PaymentResult(approve ? PaymentState.APPROVED : PaymentState.DECLINED, "SimGateway",
+                order.getOrderId(), order.getTotal(), 1, approve ? "Approved" : "Declined")), payAt, TimeUnit.MILLISECONDS);
+        // A paid order that finds every driver busy waits in the manager's queue
+        service.payAndDispatch(order, amount -> answer).thenAccept(result ->
+        {
+            if (!result.isApproved()) order.cancel();
+        });
+    }
+
+    private void sample()
+    {
+        long waiting = manager.getWaiting();
+        peakWaiting = Math.max(peakWaiting, waiting);
+        waitingSum += waiting;
+        samples++;
+        waitingDepth.record(waiting);
+        if (arrived < orderCount || open > 0) timer.schedule(this::sample, SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // Times one order through its statuses
+    private final class Tracked implements OrderStatusListener
+    {
+        private final long createdAt;
+        private final double etaMinutes;
+        private long paidAt, departedAt;
+
+        Tracked(Order order, long createdAt)
+        {
+            this.createdAt = createdAt;
+            this.etaMinutes = order.getEta().getMinutes();
+        }
+
+        public void onStatusChange(Order order, OrderStatus from, OrderStatus to)
+        {
+            long now = timer.now();
+            switch (to)
+            {
+                case PAID:
+                    if (paidAt == 0) toPaid.record(now - createdAt);
+                    paidAt = now;
+                    break;
+                case ON_THE_WAY:
+                    toDriver.record(now - paidAt);
+                    departedAt = now;
+                    break;
+                case DELIVERED:
+                    onTheRoad.record(now - departedAt);
+                    endToEnd.record(now - createdAt);
+                    etaError.record(Math.round(Math.abs(etaMinutes * 60_000 - (now - createdAt))));
+                    delivered++;
+                    open--;
+                    break;
+                case CANCELLED:
+                    if (from == OrderStatus.PENDING) declined++;
+                    else cancelled++;
+                    open--;
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    void report(int drivers, int bunks, long seed, long elapsedNanos)
+    {
+        double virtualHours = timer.now() / 3_600_000.0;
+        System.out.printf("%d orders at %.0f/min, %d drivers, %d bunks, seed %d: %.1f virtual hours in %.1f s (%.0f orders/s, %d events)%n",
+                orderCount, ordersPerMinute, drivers, bunks + 2, seed, virtualHours, elapsedNanos / 1e9,
+                orderCount / (elapsedNanos / 1e9), timer.getExecuted());
+        System.out.printf("delivered=%d declined=%d cancelled=%d rejected=%d shed=%d open=%d%n", delivered, declined, cancelled, rejected, shed, open);
+        System.out.println("admission: " + admission.metrics());
+        System.out.printf("waiting for a driver: mean=%.1f p99=%d peak=%d (sampled each virtual minute)%n",
+                samples == 0 ? 0.0 : (double) waitingSum / samples, waitingDepth.snapshot().percentile(0.99), peakWaiting);
+        System.out.println("deliveries: " + scheduler.metrics());
+        System.out.println("drivers per shard at the end: " + Arrays.toString(manager.getShardDrivers()));
+        line("created -> paid", toPaid);
+        line("paid -> on the way", toDriver);
+        line("on the way -> delivered", onTheRoad);
+        line("created -> delivered", endToEnd);
+        line("ETA error at order time", etaError);
+        System.out.printf("ETA engine learned from %d trips%n", service.getEtaEngine().getTrips());
+    }
+
+    private static void line(String name, LatencyHistogram histogram)
+    {
+        LatencyHistogram.Snapshot s = histogram.snapshot();
+        System.out.printf("%-24s p50=%s p90=%s p99=%s max=%s%n", name, minutes(s.percentile(0.5)), minutes(s.percentile(0.9)),
+                minutes(s.percentile(0.99)), minutes(s.getMax()));
+    }
+
+    private static String minutes(long millis)
+    {
+        return String.format("%.1fmin", millis / 60_000.0);
+    }
+
+    // Single-threaded scheduled executor on virtual time: scheduled tasks run in
+    // time order (ties in submission order) when runAll advances the clock to them
+    static final class VirtualTimer extends AbstractExecutorService implements ScheduledExecutorService
+    {
+        private final PriorityQueue<Task<?>> queue = new PriorityQueue<>();
+        private long now;
+        private long sequence;
+        private long executed;
+        private boolean shutdown;
+
+        private final class Task<V> extends FutureTask<V> implements ScheduledFuture<V>
+        {
+            private long at;
+            private final long seq;
+            // 0 runs once; above 0 repeats at a fixed rate, below 0 with a fixed delay
+            private final long period;
+
+            Task(Callable<V> callable, long at, long period)
+            {
+                super(callable);
+                this.at = at;
+                this.seq = sequence++;
+                this.period = period;
+            }
+
+            public long getDelay(TimeUnit unit)
+            {
+                return unit.convert(at - now, TimeUnit.MILLISECONDS);
+            }
+
+            public int compareTo(Delayed other)
+            {
+                Task<?> o = (Task<?>) other;
+                int c = Long.compare(at, o.at);
+                return c != 0 ? c : Long.compare(seq, o.seq);
+            }
+
+            public void run()
+            {
+                if (period == 0)
+                {
+                    super.run();
+                    return;
+                }
+                if (runAndReset() && !shutdown)
+                {
+                    at = period > 0 ? at + period : now - period;
+                    queue.add(this);
+                }
+            }
+
+            public boolean cancel(boolean mayInterrupt)
+            {
+                queue.remove(this);
+                return super.cancel(mayInterrupt);
+            }
+        }
+
+        // Virtual milliseconds since the start
+        long now()
+        {
+            return now;
+        }
+
+        long getExecuted()
+        {
+            return executed;
+        }
+
+        // Reads the virtual time as wall-clock time from epochMillis on, in UTC
+        Clock clock(long epochMillis)
+        {
+            return clock(epochMillis, ZoneOffset.UTC);
+        }
+
+        // Same virtual instant in every zone; the zone only changes how it is read
+        Clock clock(long epochMillis, ZoneId zone)
+        {
+            return new Clock()
+            {
+                public ZoneId getZone()
+                {
+                    return zone;
+                }
+
+                public Clock withZone(ZoneId other)
+                {
+                    return clock(epochMillis, other);
+                }
+
+                public long millis()
+                {
+                    return epochMillis + now;
+                }
+
+                public Instant instant()
+                {
+                    return Instant.ofEpochMilli(millis());
+                }
+            };
+        }
+
+        // Runs every task, including the ones they schedule, until none are left
+        void runAll()
+        {
+            Task<?> task;
+            while ((task = queue.poll()) != null)
+            {
+                now = Math.max(now, task.at);
+                task.run();
+                executed++;
+            }
+        }
+
+        private <V> Task<V> add(Callable<V> callable, long delayMillis, long period)
+        {
+            if (shutdown) throw new RejectedExecutionException("Virtual timer is shut down");
+            Task<V> task = new Task<>(callable, now + Math.max(0, delayMillis), period);
+            queue.add(task);
+            return task;
+        }
+
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit)
+        {
+            return add(Executors.callable(command), unit.toMillis(delay), 0);
+        }
+
+        public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit)
+        {
+            return add(callable, unit.toMillis(delay), 0);
+        }
+
+        public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit)
+        {
+            if (period <= 0) throw new IllegalArgumentException("period must be positive");
+            return add(Executors.callable(command), unit.toMillis(initialDelay), Math.max(1, unit.toMillis(period)));
+        }
+
+        public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit)
+        {
+            if (delay <= 0) throw new IllegalArgumentException("delay must be positive");
+            return add(Executors.callable(command), unit.toMillis(initialDelay), -Math.max(1, unit.toMillis(delay)));
+        }
+
+        public void execute(Runnable command)
+        {
+            schedule(command, 0, TimeUnit.MILLISECONDS);
+        }
+
+        public void shutdown()
+        {
+            shutdown = true;
+        }
+
+        public List<Runnable> shutdownNow()
+        {
+            shutdown = true;
+            List<Runnable> pending = new ArrayList<>(queue);
+            queue.clear();
+            return pending;
+        }
+
+        public boolean isShutdown()
+        {
+            return shutdown;
+        }
+
+        public boolean isTerminated()
+        {
+            return shutdown && queue.isEmpty();
+        }
+
+        // Nothing runs on its own, so there is nothing to wait for
+        public boolean awaitTermination(long timeout, TimeUnit unit)
+        {
+            return queue.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package fuelgo;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// Throughput / latency of PaymentPipeline against simulated gateways.
+// Usage: java -cp benchmarks/target/benchmarks.jar fuelgo.PaymentLoadTest [payments] [latencyMillis] [declineRate] [outageRate]
+class PaymentLoadTest
+{
+    public static void main(String[] args) throws Exception
+    {
+        int payments = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        long latency = args.length > 1 ? Long.parseLong(args[1]) : 20;
+        double declineRate = args.length > 2 ? Double.parseDouble(args[2]) : 0.02;
+        double outageRate = args.length > 3 ? Double.parseDouble(args[3]) : 0.01;
+
+        for (int round = 1; round <= 3; round++)
+        {
+            PaymentPipeline pipeline = PaymentPipeline.simulated(latency, declineRate, outageRate);
+            Payment[] methods = {
+                new PhonePeQuiet("bench@ybl", pipeline),
+                new PaytmQuiet("bench@paytm", pipeline),
+            };
+            long[] latencies = new long[payments];
+            CountDownLatch done = new CountDownLatch(payments);
+            AtomicInteger approved = new AtomicInteger();
+            long t0 = System.nanoTime();
+            for (int i = 0; i < payments; i++)
+            {
+                int n = i;
+                long start = System.nanoTime();
+                methods[i % methods.length].pay(100 + i % 900).whenComplete((r, e) ->
+                {
+                    latencies[n] = System.nanoTime() - start;
+                    if (r != null && r.isApproved()) approved.incrementAndGet();
+                    done.countDown();
+                });
+            }
+            done.await();
+            long elapsed = System.nanoTime() - t0;
+            Arrays.sort(latencies);
+            System.out.printf("round %d: %d payments, gateway latency %d ms -> %.0f payments/s, approved=%d, p50=%.1fms p99=%.1fms max=%.1fms%n  %s%n",
+                    round, payments, latency, payments / (elapsed / 1e9), approved.get(),
+                    latencies[payments / 2] / 1e6, latencies[(int) (payments * 0.99)] / 1e6, latencies[payments - 1] / 1e6,
+                    pipeline.metrics());
+            pipeline.shutdown();
+        }
+    }
+
+    // Same provider routing as PhonePe / Paytm, without the per-payment console line
+    static class PhonePeQuiet implements Payment
+    {
+        private final String upiId;
+        private final PaymentPipeline pipeline;
+        PhonePeQuiet(String upiId, PaymentPipeline pipeline)
+        {
+            this.upiId = upiId;
+            this.pipeline = pipeline;
+        }
+        public CompletionStage<PaymentResult> pay(double amount)
+        {
+            return pipeline.submit("PhonePe", upiId, amount);
+        }
+    }
+
+    static class PaytmQuiet implements Payment
+    {
+        private final String upiId;
+        private final PaymentPipeline pipeline;
+        PaytmQuiet(String upiId, PaymentPipeline pipeline)
+        {
+            this.upiId = upiId;
+            this.pipeline = pipeline;
+        }
+        public CompletionStage<PaymentResult> pay(double amount)
+        {
+            return pipeline.submit("Paytm", upiId, amount);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package fuelgo;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// Contention benchmark for WalletLedger: many threads topping up and paying from
+// a small set of hot wallets. Verifies that no update is lost and no balance goes
+// negative, and compares with the old unsynchronized double balance.
+// Usage: java -cp benchmarks/target/benchmarks.jar fuelgo.WalletLoadTest [threads] [accounts] [opsPerThread]
+class WalletLoadTest
+{
+    public static void main(String[] args) throws Exception
+    {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int accounts = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int opsPerThread = args.length > 2 ? Integer.parseInt(args[2]) : 200_000;
+
+        String[] phones = new String[accounts];
+        for (int i = 0; i < accounts; i++) phones[i] = String.valueOf(9000000000L + i);
+
+        for (int round = 1; round <= 3; round++)
+        {
+            WalletLedger ledger = new WalletLedger();
+            LongAdder[] expected = new LongAdder[accounts];
+            for (int i = 0; i < accounts; i++) expected[i] = new LongAdder();
+            LongAdder declined = new LongAdder();
+
+            long elapsed = run(threads, (seed) ->
+            {
+                Random rand = new Random(seed);
+                for (int i = 0; i < opsPerThread; i++)
+                {
+                    int a = rand.nextInt(accounts);
+                    long paise = 100 + rand.nextInt(50_000);
+                    if (rand.nextBoolean())
+                    {
+                        ledger.credit(phones[a], paise);
+                        expected[a].add(paise);
+                    }
+                    else if (ledger.debit(phones[a], paise) >= 0)
+                    {
+                        expected[a].add(-paise);
+                    }
+                    else
+                    {
+                        declined.increment();
+                    }
+                }
+            });
+
+            long ops = (long) threads * opsPerThread;
+            int mismatches = 0;
+            for (int i = 0; i < accounts; i++)
+            {
+                long balance = ledger.balance(phones[i]);
+                if (balance != expected[i].sum() || balance < 0) mismatches++;
+            }
+            System.out.printf("round %d: ledger %d threads x %d ops on %d wallets -> %.0f ops/s, declined=%d, balance mismatches=%d%n",
+                    round, threads, opsPerThread, accounts, ops / (elapsed / 1e9), declined.sum(), mismatches);
+            if (mismatches != 0) throw new IllegalStateException("ledger lost updates");
+        }
+
+        // Baseline: the old single shared double, with the racy check-then-debit
+        double[] balance = new double[1];
+        DoubleAdder credited = new DoubleAdder();
+        DoubleAdder debited = new DoubleAdder();
+        long elapsed = run(threads, (seed) ->
+        {
+            Random rand = new Random(seed);
+            for (int i = 0; i < opsPerThread; i++)
+            {
+                double amt = 1 + rand.nextInt(500);
+                if (rand.nextBoolean())
+                {
+                    balance[0] += amt;
+                    credited.add(amt);
+                }
+                else if (balance[0] >= amt)
+                {
+                    balance[0] -= amt;
+                    debited.add(amt);
+                }
+            }
+        });
+        System.out.printf("baseline unsynchronized double: %.0f ops/s, balance=%.2f, expected=%.2f (lost %.2f)%n",
+                (long) threads * opsPerThread / (elapsed / 1e9), balance[0], credited.sum() - debited.sum(),
+                credited.sum() - debited.sum() - balance[0]);
+    }
+
+    interface Worker
+    {
+        void run(long seed) throws Exception;
+    }
+
+    private static long run(int threads, Worker worker) throws Exception
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++)
+        {
+            long seed = t;
+            futures.add(pool.submit(() ->
+            {
+                start.await();
+                worker.run(seed);
+                return null;
+            }));
+        }
+        long t0 = System.nanoTime();
+        start.countDown();
+        for (Future<?> f : futures) f.get();
+        long elapsed = System.nanoTime() - t0;
+        pool.shutdown();
+        return elapsed;
+    }
+}
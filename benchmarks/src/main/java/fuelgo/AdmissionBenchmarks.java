@@ -0,0 +1,107 @@
+package fuelgo;
+
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+// Admission control on order intake: an order placed and cancelled with and
+// without admission control while drivers are free, and a new order shed while
+// all three default drivers are at their load cap. Shedding has to stay cheap
+// because it is what the service spends its time on during a spike.
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Benchmark)
+public class AdmissionBenchmarks
+{
+    private Customer customer;
+    private DeliveryManager freeFleet;
+    private DeliveryManager busyFleet;
+    private OrderService open;
+    private OrderService admitted;
+    private OrderService saturated;
+
+    @Setup
+    public void setup()
+    {
+        Quiet.mute();
+        customer = new Customer("Bench", "9999999999");
+        freeFleet = new DeliveryManager();
+        // Trips last an hour, so the drivers stay full for the whole run
+        busyFleet = new DeliveryManager(new DispatchEngine(), new DeliveryScheduler(1, 3_600_000, DeliveryScheduler.DEFAULT_MAX_IN_FLIGHT));
+        OrderService filler = new OrderService(busyFleet, null, new WalletLedger(), null);
+        for (int i = 0; i < 3 * DispatchEngine.DEFAULT_MAX_LOAD; i++)
+        {
+            Order order = filler.createOrder(customer, "Diesel", 42.5, "HP Petroleum", "12 Bench Street");
+            order.updateStatus(OrderStatus.PAID);
+            busyFleet.assignDriver(order);
+        }
+        if (!busyFleet.isSaturated()) throw new IllegalStateException("Fleet should be at capacity");
+    }
+
+    // Every order a service places stays in it, so each iteration starts with fresh ones
+    @Setup(Level.Iteration)
+    public void newServices()
+    {
+        open = new OrderService(freeFleet, null, new WalletLedger(), null);
+        admitted = new OrderService(freeFleet, null, new WalletLedger(), null);
+        admitted.setAdmissionControl(new AdmissionControl(freeFleet, AdmissionPolicy.DEFER));
+        saturated = new OrderService(busyFleet, null, new WalletLedger(), null);
+        saturated.setAdmissionControl(new AdmissionControl(busyFleet, AdmissionPolicy.REJECT));
+    }
+
+    @TearDown(Level.Iteration)
+    public void stopServices()
+    {
+        open.shutdown();
+        admitted.shutdown();
+        saturated.shutdown();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        freeFleet.shutdown(5, TimeUnit.SECONDS);
+        busyFleet.getDeliveryScheduler().shutdownNow();
+        Quiet.restore();
+    }
+
+    // Cancelling hands the liters and the admission places back
+    @Benchmark
+    public Order placeAndCancel()
+    {
+        Order order = open.createOrder(customer, "Diesel", 42.5, "HP Petroleum", "12 Bench Street");
+        order.cancel();
+        return order;
+    }
+
+    @Benchmark
+    public Order placeAndCancelAdmitted()
+    {
+        Order order = admitted.createOrder(customer, "Diesel", 42.5, "HP Petroleum", "12 Bench Street");
+        order.cancel();
+        return order;
+    }
+
+    @Benchmark
+    public OverloadedException shed()
+    {
+        try
+        {
+            saturated.createOrder(customer, "Diesel", 42.5, "HP Petroleum", "12 Bench Street");
+        }
+        catch (OverloadedException e)
+        {
+            return e;
+        }
+        throw new IllegalStateException("Order was admitted by a saturated fleet");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public OverloadedException shedContended()
+    {
+        return shed();
+    }
+}
@@ -0,0 +1,95 @@
+package fuelgo;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+// Price lookups against a catalog of thousands of bunks, alone and while a
+// writer keeps publishing price changes, plus the startup load of a price file.
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CatalogBenchmarks
+{
+    private static final String[] FUELS = { "Petrol95", "Diesel" };
+
+    // Bunks with their own prices; the rest use the defaults
+    @Param({ "5000" })
+    public int bunks;
+
+    private FuelCatalog catalog;
+    private Path priceFile;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        StringBuilder file = new StringBuilder("# bunk,fuelType,price\n*,Petrol95,110\n*,Diesel,95\n");
+        for (int i = 0; i < bunks; i++)
+        {
+            for (String fuel : FUELS) file.append("Bunk ").append(i).append(',').append(fuel).append(',').append(90 + i % 30).append(".50\n");
+        }
+        priceFile = Files.createTempFile("fuelgo-prices", ".csv");
+        Files.write(priceFile, file.toString().getBytes(StandardCharsets.UTF_8));
+        catalog = new FuelCatalog();
+        catalog.load(priceFile);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException
+    {
+        Files.deleteIfExists(priceFile);
+    }
+
+    // Half the lookups hit a bunk's own price, half fall back to the default
+    private FuelPrice lookup()
+    {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return catalog.price("Bunk " + random.nextInt(2 * bunks), FUELS[random.nextInt(2)]);
+    }
+
+    @Benchmark
+    public FuelPrice price()
+    {
+        return lookup();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public FuelPrice priceContended()
+    {
+        return lookup();
+    }
+
+    // Three threads price orders while one republishes a bunk's price
+    @Benchmark
+    @Group("repricing")
+    @GroupThreads(3)
+    public FuelPrice priceWhileRepricing()
+    {
+        return lookup();
+    }
+
+    @Benchmark
+    @Group("repricing")
+    @GroupThreads(1)
+    public long republish()
+    {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return catalog.setPrice("Bunk " + random.nextInt(bunks), FUELS[random.nextInt(2)], 90 + random.nextInt(30));
+    }
+
+    // Whole price file into a fresh catalog, as at startup
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int loadPriceFile() throws IOException
+    {
+        return new FuelCatalog().load(priceFile);
+    }
+}
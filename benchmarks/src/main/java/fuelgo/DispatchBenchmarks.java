@@ -0,0 +1,75 @@
+package fuelgo;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import org.openjdk.jmh.annotations.*;
+
+// DeliveryManager.assignDriver end to end on a 10k driver fleet. Deliveries are
+// scheduled with no trip time, so drivers free up as fast as the timer runs them.
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DispatchBenchmarks
+{
+    @Param({ "10000" })
+    public int drivers;
+
+    private DeliveryManager manager;
+    private DispatchEngine engine;
+    private Customer customer;
+    private Fuel fuel;
+    private final AtomicLong ids = new AtomicLong();
+
+    @Setup
+    public void setup()
+    {
+        Quiet.mute();
+        engine = new DispatchEngine(Integer.MAX_VALUE);
+        manager = new DeliveryManager(engine, new DeliveryScheduler(2, 0, Integer.MAX_VALUE));
+        for (int i = 0; i < drivers; i++)
+        {
+            manager.registerDriver("Driver " + i, String.valueOf(6000000000L + i));
+        }
+        customer = new Customer("Bench", "9999999999");
+        fuel = new Diesel(95);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        manager.shutdown(10, TimeUnit.SECONDS);
+        Quiet.restore();
+    }
+
+    @Benchmark
+    public DeliveryDriver assignDriver()
+    {
+        return assign();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public DeliveryDriver assignDriverContended()
+    {
+        return assign();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public DeliveryDriver engineAssignReleaseContended()
+    {
+        DeliveryDriver d = engine.assign();
+        engine.release(d);
+        return d;
+    }
+
+    private DeliveryDriver assign()
+    {
+        Order order = new Order("O" + ids.incrementAndGet(), customer, fuel, 20, "HP Petroleum", 4.2, "Bench Street");
+        order.updateStatus(OrderStatus.PAID);
+        return manager.assignDriver(order);
+    }
+}
@@ -0,0 +1,75 @@
+package fuelgo;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+// EtaEngine after learning from 100k deliveries across both bunks, every
+// distance band and the whole day: the estimate made on each order creation
+// and status change, and recording a finished trip, alone and with several
+// threads (trips from one bunk and band land on the same cells).
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EtaBenchmarks
+{
+    private static final String[] BUNKS = { "Bharat Petroleum", "HP Petroleum" };
+
+    private EtaEngine engine;
+    private Order[] orders;
+
+    @Setup
+    public void setup()
+    {
+        engine = new EtaEngine();
+        Random random = new Random(42);
+        long start = System.currentTimeMillis() - 30L * 86_400_000;
+        for (int i = 0; i < 100_000; i++)
+        {
+            String bunk = BUNKS[i & 1];
+            long at = start + random.nextInt(30 * 86_400) * 1000L;
+            double km = random.nextDouble() * 30;
+            engine.recordWait(bunk, at, 120_000 + random.nextInt(600_000));
+            engine.recordTrip(bunk, km, at, (long) (300_000 + km * 90_000 + random.nextInt(300_000)));
+        }
+        Customer customer = new Customer("Bench", "9999999999");
+        Fuel diesel = new Diesel(95);
+        orders = new Order[64];
+        for (int i = 0; i < orders.length; i++)
+        {
+            orders[i] = new Order("O" + i, customer, diesel, 42.5, BUNKS[i & 1], i % 25, "12 Bench Street");
+            engine.track(orders[i]);
+            if (i % 2 == 0) orders[i].updateStatus(OrderStatus.PAID);
+        }
+    }
+
+    @Benchmark
+    public Eta estimate()
+    {
+        return engine.estimate(orders[ThreadLocalRandom.current().nextInt(orders.length)]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Eta estimateContended()
+    {
+        return estimate();
+    }
+
+    @Benchmark
+    public void recordTrip()
+    {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        engine.recordTrip(BUNKS[random.nextInt(2)], random.nextDouble() * 30, System.currentTimeMillis(), 600_000 + random.nextInt(600_000));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordTripContended()
+    {
+        engine.recordTrip("HP Petroleum", 4.2, System.currentTimeMillis(), 600_000 + ThreadLocalRandom.current().nextInt(600_000));
+    }
+}
@@ -0,0 +1,121 @@
+package fuelgo;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+// Spatial lookups over a city-sized fleet: thousands of bunks and tens of
+// thousands of drivers spread around the service area. The grid index is
+// compared with the linear scan it replaces, and driver moves run alongside.
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GeoBenchmarks
+{
+    @Param({ "5000" })
+    public int bunks;
+
+    @Param({ "20000" })
+    public int drivers;
+
+    private GeoIndex<Bunk> bunkIndex;
+    private List<Bunk> bunkList;
+    private GeoIndex<Integer> driverIndex;
+    private GeoPoint[] driverPositions;
+
+    @Setup
+    public void setup()
+    {
+        Random random = new Random(42);
+        bunkIndex = new GeoIndex<>();
+        bunkList = new ArrayList<>(bunks);
+        for (int i = 0; i < bunks; i++)
+        {
+            Bunk bunk = new Bunk("Bunk " + i, randomPoint(random));
+            bunkIndex.put(bunk, bunk.getLocation());
+            bunkList.add(bunk);
+        }
+        driverIndex = new GeoIndex<>();
+        driverPositions = new GeoPoint[drivers];
+        for (int i = 0; i < drivers; i++)
+        {
+            driverPositions[i] = randomPoint(random);
+            driverIndex.put(i, driverPositions[i]);
+        }
+    }
+
+    // Normally distributed around the centre, about 10 km spread
+    private static GeoPoint randomPoint(Random random)
+    {
+        return ServiceArea.CENTRE.offset(random.nextGaussian() * 10, random.nextGaussian() * 10);
+    }
+
+    private static GeoPoint query()
+    {
+        return randomPoint(ThreadLocalRandom.current());
+    }
+
+    @Benchmark
+    public List<Bunk> nearestBunkGrid()
+    {
+        return bunkIndex.nearest(query(), 1, ServiceArea.MAX_DELIVERY_KM, b -> true);
+    }
+
+    @Benchmark
+    public Bunk nearestBunkLinear()
+    {
+        GeoPoint from = query();
+        Bunk best = null;
+        double bestKm = Double.MAX_VALUE;
+        for (Bunk b : bunkList)
+        {
+            double km = from.distanceKm(b.getLocation());
+            if (km < bestKm)
+            {
+                bestKm = km;
+                best = b;
+            }
+        }
+        return best;
+    }
+
+    @Benchmark
+    public List<Integer> nearestEightDrivers()
+    {
+        return driverIndex.nearest(query(), 8, ServiceArea.MAX_DELIVERY_KM, d -> true);
+    }
+
+    @Benchmark
+    public List<Integer> driversWithinTwoKm()
+    {
+        return driverIndex.withinRadius(query(), 2, d -> true);
+    }
+
+    // A driver reports a position a few hundred metres from the last one
+    @Benchmark
+    public void moveDriver()
+    {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int driver = random.nextInt(drivers);
+        GeoPoint next = driverPositions[driver].offset(random.nextGaussian() * 0.3, random.nextGaussian() * 0.3);
+        driverPositions[driver] = next;
+        driverIndex.put(driver, next);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public List<Integer> nearestEightDriversContended()
+    {
+        return nearestEightDrivers();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void moveDriverContended()
+    {
+        moveDriver();
+    }
+}
@@ -0,0 +1,88 @@
+package fuelgo;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+// Order history queries over two million orders from 200k customers spread
+// across 30 days: a customer's latest page, an older page from a cursor, and
+// the newest orders within a time window, alone and with readers in parallel.
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Benchmark)
+public class HistoryBenchmarks
+{
+    private static final long DAY_MILLIS = 86_400_000L;
+
+    @Param({ "2000000" })
+    public int orders;
+
+    @Param({ "200000" })
+    public int customers;
+
+    private OrderHistory history;
+    private long firstMillis;
+    private long lastMillis;
+
+    @Setup
+    public void setup()
+    {
+        history = new OrderHistory();
+        Random random = new Random(42);
+        firstMillis = System.currentTimeMillis() - 30 * DAY_MILLIS;
+        long step = 30 * DAY_MILLIS / orders;
+        for (int i = 0; i < orders; i++)
+        {
+            String phone = phone(random.nextInt(customers));
+            String fuel = i % 3 == 0 ? "Petrol95" : "Diesel";
+            String bunk = i % 2 == 0 ? "HP Petroleum" : "Bharat Petroleum";
+            Bill bill = BillingEngine.standard().price(Fuel.of(fuel, 95), 5 + i % 50, bunk, 4.2);
+            history.orderCreated(firstMillis + i * step, "O" + (i + 1), "Customer", phone, fuel, 95,
+                    5 + i % 50, bunk, 4.2, "Street " + phone.substring(5), bill, null, null);
+        }
+        lastMillis = firstMillis + orders * step;
+    }
+
+    private static String phone(int customer)
+    {
+        return String.valueOf(7000000000L + customer);
+    }
+
+    @Benchmark
+    public HistoryPage customerLatestPage()
+    {
+        return history.customerPage(phone(ThreadLocalRandom.current().nextInt(customers)), null, 20);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public HistoryPage customerLatestPageContended()
+    {
+        return customerLatestPage();
+    }
+
+    // Somewhere back in the customer's history
+    @Benchmark
+    public HistoryPage customerOlderPage()
+    {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return history.customerPage(phone(random.nextInt(customers)), Integer.toString(random.nextInt(orders)), 20);
+    }
+
+    @Benchmark
+    public HistoryPage recentPage()
+    {
+        return history.recentPage(null, 50);
+    }
+
+    // The newest orders of a random hour
+    @Benchmark
+    public HistoryPage hourWindowPage()
+    {
+        long from = firstMillis + (long) (ThreadLocalRandom.current().nextDouble() * (lastMillis - firstMillis - 3_600_000L));
+        return history.timePage(from, from + 3_600_000L, null, 50);
+    }
+}
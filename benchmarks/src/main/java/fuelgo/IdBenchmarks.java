@@ -0,0 +1,65 @@
+package fuelgo;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import org.openjdk.jmh.annotations.*;
+
+// Order id generation: the Snowflake generator against the plain shared
+// counter it replaced, alone and with several request threads drawing ids,
+// plus the idempotency lookup a client retry pays for.
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IdBenchmarks
+{
+    private IdGenerator generator;
+    private AtomicLong counter;
+    private IdempotencyStore<String> store;
+    private CompletableFuture<String> done;
+
+    @Setup
+    public void setup()
+    {
+        generator = new IdGenerator(7);
+        counter = new AtomicLong();
+        store = new IdempotencyStore<>(TimeUnit.HOURS.toMillis(1));
+        done = CompletableFuture.completedFuture("O1");
+        for (int i = 0; i < 100_000; i++) store.execute("key-" + i, "request", () -> done);
+    }
+
+    @Benchmark
+    public long snowflake()
+    {
+        return generator.next();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long snowflakeContended()
+    {
+        return generator.next();
+    }
+
+    @Benchmark
+    public long counter()
+    {
+        return counter.incrementAndGet();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long counterContended()
+    {
+        return counter.incrementAndGet();
+    }
+
+    // A retry answered from the key's first result
+    @Benchmark
+    public CompletableFuture<String> idempotentReplay()
+    {
+        return store.execute("key-" + ThreadLocalRandom.current().nextInt(100_000), "request", () -> done);
+    }
+}
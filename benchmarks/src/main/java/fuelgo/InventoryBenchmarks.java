@@ -0,0 +1,109 @@
+package fuelgo;
+
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+// Many threads reserving from the same bunk's tank. The compare-and-set tank
+// is measured against the same accounting behind one lock, and the full
+// reserve -> cancel path through FuelInventory shows the per-order cost.
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InventoryBenchmarks
+{
+    private FuelTank tank;
+    private LockedTank lockedTank;
+    private FuelInventory inventory;
+    private Customer customer;
+    private Fuel diesel;
+
+    // The accounting FuelTank replaced: one monitor per tank
+    static final class LockedTank
+    {
+        private long available;
+        private long reserved;
+
+        synchronized boolean reserve(long ml)
+        {
+            if (available < ml) return false;
+            available -= ml;
+            reserved += ml;
+            return true;
+        }
+
+        synchronized void release(long ml)
+        {
+            reserved -= ml;
+            available += ml;
+        }
+    }
+
+    @Setup
+    public void setup()
+    {
+        inventory = new FuelInventory();
+        // Far more than the run can draw, so no reservation is refused
+        tank = inventory.restock("HP Petroleum", "Diesel", 1e12);
+        lockedTank = new LockedTank();
+        lockedTank.available = 1_000_000_000_000_000L;
+        customer = new Customer("Bench", "9999999999");
+        diesel = new Diesel(95);
+    }
+
+    private static long liters()
+    {
+        return 5_000 + ThreadLocalRandom.current().nextInt(50) * 1_000;
+    }
+
+    @Benchmark
+    public boolean reserveRelease()
+    {
+        long ml = liters();
+        boolean ok = tank.reserve(ml);
+        if (ok) tank.release(ml);
+        return ok;
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean reserveReleaseContended()
+    {
+        return reserveRelease();
+    }
+
+    @Benchmark
+    public boolean lockedReserveRelease()
+    {
+        long ml = liters();
+        boolean ok = lockedTank.reserve(ml);
+        if (ok) lockedTank.release(ml);
+        return ok;
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean lockedReserveReleaseContended()
+    {
+        return lockedReserveRelease();
+    }
+
+    // An order reserving at the bunk and then being cancelled
+    @Benchmark
+    public boolean orderReserveCancel()
+    {
+        Order order = new Order("O1", customer, diesel, liters() / 1000.0, "HP Petroleum", 4.2, "12 Bench Street");
+        boolean ok = inventory.reserve(order);
+        order.cancel();
+        return ok;
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean orderReserveCancelContended()
+    {
+        return orderReserveCancel();
+    }
+}
@@ -0,0 +1,164 @@
+package fuelgo;
+
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+// Cost of the metrics layer: the raw histogram and counter updates, an order's
+// whole lifecycle (billing, then Pending -> Delivered), an order placed and
+// cancelled through OrderService, and an order's full path through the
+// services (placed, paid from the wallet, dispatched and delivered on a virtual
+// clock, no journal I/O), each with metrics on and, in a separate fork,
+// switched off with -Dfuelgo.metrics=false. The gap between the paired scores
+// is the overhead an order pays.
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Benchmark)
+public class MetricsBenchmarks
+{
+    private LatencyHistogram histogram;
+    private Metrics.Counter counter;
+    private Customer customer;
+    private Fuel diesel;
+    private DeliveryManager manager;
+    private PaymentPipeline pipeline;
+    private OrderService service;
+    private OrderSimulator.VirtualTimer timer;
+    private OrderService pathService;
+    private WalletLedger ledger;
+
+    @Setup
+    public void setup()
+    {
+        Quiet.mute();
+        manager = new DeliveryManager();
+        pipeline = PaymentPipeline.simulated(20, 0, 0);
+        histogram = new LatencyHistogram();
+        counter = Metrics.counter("bench_total", "Benchmark counter");
+        customer = new Customer("Bench", "9999999999");
+        diesel = new Diesel(95);
+    }
+
+    // The service keeps every order it placed, so each iteration starts with a fresh one
+    @Setup(Level.Iteration)
+    public void newService()
+    {
+        service = new OrderService(manager, pipeline, new WalletLedger(), null);
+        // Trips run on the virtual clock, so a delivery finishes on the benchmark thread
+        timer = new OrderSimulator.VirtualTimer();
+        ledger = new WalletLedger();
+        pathService = new OrderService(new DeliveryManager(new DispatchEngine(), new DeliveryScheduler(timer, order -> 60_000, DeliveryScheduler.DEFAULT_MAX_IN_FLIGHT)),
+                null, ledger, null);
+        pathService.getInventory().restock("HP Petroleum", "Diesel", 1e9);
+    }
+
+    @TearDown(Level.Iteration)
+    public void stopService()
+    {
+        service.shutdown();
+        pathService.shutdown();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException
+    {
+        manager.shutdown(5, TimeUnit.SECONDS);
+        pipeline.shutdown();
+        Quiet.restore();
+    }
+
+    @Benchmark
+    public void histogramRecord()
+    {
+        histogram.record(1_000 + ThreadLocalRandom.current().nextInt(1_000_000));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void histogramRecordContended()
+    {
+        histogramRecord();
+    }
+
+    @Benchmark
+    public void counterIncrement()
+    {
+        counter.increment();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void counterIncrementContended()
+    {
+        counter.increment();
+    }
+
+    @Benchmark
+    public Order orderLifecycle()
+    {
+        Order order = new Order("O1", customer, diesel, 42.5, "HP Petroleum", 4.2, "12 Bench Street");
+        order.updateStatus(OrderStatus.PAID);
+        order.updateStatus(OrderStatus.ASSIGNED);
+        order.updateStatus(OrderStatus.ON_THE_WAY);
+        order.updateStatus(OrderStatus.DELIVERED);
+        return order;
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = { "-Xmx3g", "-Dfuelgo.metrics=false" })
+    public Order orderLifecycleMetricsOff()
+    {
+        return orderLifecycle();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Order orderLifecycleContended()
+    {
+        return orderLifecycle();
+    }
+
+    @Benchmark
+    @Threads(4)
+    @Fork(value = 1, jvmArgsAppend = { "-Xmx3g", "-Dfuelgo.metrics=false" })
+    public Order orderLifecycleContendedMetricsOff()
+    {
+        return orderLifecycle();
+    }
+
+    // Cancelling hands the liters back, so the tank never runs dry
+    @Benchmark
+    public Order placeAndCancel()
+    {
+        Order order = service.createOrder(customer, "Diesel", 42.5, "HP Petroleum", "12 Bench Street");
+        order.cancel();
+        return order;
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = { "-Xmx3g", "-Dfuelgo.metrics=false" })
+    public Order placeAndCancelMetricsOff()
+    {
+        return placeAndCancel();
+    }
+
+    @Benchmark
+    public Order orderPath()
+    {
+        Order order = pathService.createOrder(customer, "Diesel", 42.5, "HP Petroleum", "12 Bench Street");
+        ledger.credit(customer.getPhone(), order.getTotalPaise());
+        pathService.payAndDispatch(order, new FuelGoWallet(ledger, customer.getPhone()));
+        timer.runAll();
+        if (order.getStatus() != OrderStatus.DELIVERED) throw new IllegalStateException("Order " + order.getOrderId() + " is " + order.getStatus());
+        return order;
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = { "-Xmx3g", "-Dfuelgo.metrics=false" })
+    public Order orderPathMetricsOff()
+    {
+        return orderPath();
+    }
+}
@@ -0,0 +1,60 @@
+package fuelgo;
+
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+// Order construction (billing included), Fuel.calculateCost and Order.summary
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OrderBenchmarks
+{
+    private Customer customer;
+    private Fuel petrol;
+    private Fuel diesel;
+    private Order order;
+
+    @Setup
+    public void setup()
+    {
+        customer = new Customer("Bench", "9999999999");
+        petrol = new Petrol95(110);
+        diesel = new Diesel(95);
+        order = new Order("O1", customer, petrol, 42.5, "Bharat Petroleum", 2.5, "12 Bench Street");
+    }
+
+    @Benchmark
+    public Order createOrder()
+    {
+        return new Order("O1", customer, diesel, 42.5, "HP Petroleum", 4.2, "12 Bench Street");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Order createOrderContended()
+    {
+        return new Order("O1", customer, diesel, 42.5, "HP Petroleum", 4.2, "12 Bench Street");
+    }
+
+    @Benchmark
+    public double calculateCost()
+    {
+        return petrol.calculateCost(42.5);
+    }
+
+    @Benchmark
+    public String summary()
+    {
+        return order.summary();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String summaryContended()
+    {
+        return order.summary();
+    }
+}
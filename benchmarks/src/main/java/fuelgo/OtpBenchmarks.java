@@ -0,0 +1,82 @@
+package fuelgo;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+// OTP issue/verify throughput. verifyOtp is one console round; issueAndVerify runs
+// the service over a population of phones large enough to keep tens of thousands
+// of codes live at once, with an in-memory SMS inbox standing in for the handset.
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OtpBenchmarks
+{
+    private static final int PHONES = 50_000;
+
+    private final ConcurrentHashMap<String, String> inbox = new ConcurrentHashMap<>();
+    private OTPService service;
+    private String[] phones;
+
+    @Setup
+    public void setup()
+    {
+        Quiet.mute();
+        service = new OTPService(inbox::put, OTPService.DEFAULT_DIGITS, OTPService.DEFAULT_TTL_MILLIS,
+                OTPService.DEFAULT_MAX_ATTEMPTS, Integer.MAX_VALUE, OTPService.DEFAULT_RATE_WINDOW_MILLIS);
+        phones = new String[PHONES];
+        for (int i = 0; i < PHONES; i++)
+        {
+            phones[i] = String.valueOf(8000000000L + i);
+            service.issue(phones[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        service.shutdown();
+        Quiet.restore();
+    }
+
+    @Benchmark
+    public OtpStatus issueAndVerify()
+    {
+        String phone = phones[ThreadLocalRandom.current().nextInt(PHONES)];
+        service.issue(phone);
+        return service.verify(phone, Integer.parseInt(inbox.get(phone)));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public OtpStatus issueAndVerifyContended()
+    {
+        return issueAndVerify();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public OtpStatus wrongCodeContended()
+    {
+        return service.verify(phones[ThreadLocalRandom.current().nextInt(PHONES)], 0);
+    }
+
+    @Benchmark
+    public boolean verifyOtp()
+    {
+        // A wrong code followed by "Exit" keeps the loop to one full attempt. The console
+        // service rate limits the single phone after ten codes, so steady state measures
+        // the rejected-issue path rather than code generation.
+        return OTPService.verifyOTP("9999999999", new Scanner("1234\n2\n"));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean verifyOtpContended()
+    {
+        return OTPService.verifyOTP("9999999999", new Scanner("1234\n2\n"));
+    }
+}
@@ -0,0 +1,28 @@
+package fuelgo;
+
+import java.io.*;
+
+// The app reports deliveries and payments on stdout; benchmarks mute that so
+// they measure the hot path rather than the console
+class Quiet
+{
+    private static PrintStream original;
+
+    static synchronized void mute()
+    {
+        if (original == null)
+        {
+            original = System.out;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        }
+    }
+
+    static synchronized void restore()
+    {
+        if (original != null)
+        {
+            System.setOut(original);
+            original = null;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package fuelgo;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+// RoutePlanner.plan for one trip: stops scattered within a few km of the bunk,
+// as a loaded bowser would see them. A fresh stop set is drawn per invocation.
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RouteBenchmarks
+{
+    @Param({ "10", "50", "100" })
+    public int stops;
+
+    private final GeoPoint bunk = ServiceArea.CENTRE;
+    private GeoPoint[][] stopSets;
+    private int next;
+
+    @Setup
+    public void setup()
+    {
+        Random random = new Random(7);
+        stopSets = new GeoPoint[64][stops];
+        for (GeoPoint[] set : stopSets)
+        {
+            for (int i = 0; i < stops; i++) set[i] = bunk.offset(random.nextGaussian() * 3, random.nextGaussian() * 3);
+        }
+    }
+
+    @Benchmark
+    public int[] plan()
+    {
+        GeoPoint[] set = stopSets[next++ & 63];
+        return RoutePlanner.plan(bunk, set);
+    }
+}
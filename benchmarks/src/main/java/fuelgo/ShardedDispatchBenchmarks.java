@@ -0,0 +1,103 @@
+package fuelgo;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import org.openjdk.jmh.annotations.*;
+
+// DeliveryManager.assignDriver with dispatch split into zone shards: 2000 drivers
+// spread over the city take orders from 64 bunks, with one shard and with eight.
+// Deliveries are scheduled with no trip time, so drivers free up as fast as the
+// timer runs them. The contended variants show how the shards spread the
+// dispatch queues' updates across threads; dispatchOnShard goes through the
+// order's home shard executor as paid orders do.
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShardedDispatchBenchmarks
+{
+    private static final double CITY_KM = 12;
+
+    @Param({ "1", "8" })
+    public int shards;
+
+    @Param({ "2000" })
+    public int drivers;
+
+    private DeliveryManager manager;
+    private Customer customer;
+    private Fuel fuel;
+    private Bunk[] bunks;
+    private GeoPoint[] dropoffs;
+    private final AtomicLong ids = new AtomicLong();
+
+    @Setup
+    public void setup()
+    {
+        Quiet.mute();
+        manager = new DeliveryManager(shards, () -> new DispatchEngine(Integer.MAX_VALUE), new DeliveryScheduler(2, 0, Integer.MAX_VALUE), null);
+        Random random = new Random(42);
+        for (int i = 0; i < drivers; i++)
+        {
+            DeliveryDriver driver = manager.registerDriver("Driver " + i, String.valueOf(6000000000L + i));
+            manager.updateDriverLocation(driver, randomPoint(random, CITY_KM));
+        }
+        bunks = new Bunk[64];
+        for (int i = 0; i < bunks.length; i++) bunks[i] = new Bunk("Bunk " + i, randomPoint(random, CITY_KM * 0.8));
+        dropoffs = new GeoPoint[1024];
+        for (int i = 0; i < dropoffs.length; i++) dropoffs[i] = randomPoint(random, CITY_KM);
+        customer = new Customer("Bench", "9999999999");
+        fuel = new Diesel(95);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        manager.shutdown(10, TimeUnit.SECONDS);
+        Quiet.restore();
+    }
+
+    private static GeoPoint randomPoint(Random random, double km)
+    {
+        double r = km * Math.sqrt(random.nextDouble());
+        double angle = random.nextDouble() * 2 * Math.PI;
+        return ServiceArea.CENTRE.offset(r * Math.cos(angle), r * Math.sin(angle));
+    }
+
+    @Benchmark
+    public DeliveryDriver assignDriver()
+    {
+        return assign();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public DeliveryDriver assignDriverContended()
+    {
+        return assign();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public DeliveryDriver dispatchOnShard()
+    {
+        return manager.dispatch(paidOrder()).toCompletableFuture().join();
+    }
+
+    private DeliveryDriver assign()
+    {
+        return manager.assignDriver(paidOrder());
+    }
+
+    private Order paidOrder()
+    {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Order order = new Order("O" + ids.incrementAndGet(), customer, fuel, 20, bunks[random.nextInt(bunks.length)],
+                dropoffs[random.nextInt(dropoffs.length)], "Bench Street", BillingEngine.standard());
+        order.updateStatus(OrderStatus.PAID);
+        return order;
+    }
+}
@@ -0,0 +1,64 @@
+package fuelgo;
+
+import java.util.concurrent.*;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Menu and order-form validation: String.matches (compiles the regex every call)
+// vs a precompiled Pattern vs the hand-written InputValidator
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ValidationBenchmarks
+{
+    private static final Pattern CHOICE = Pattern.compile("[1-3]");
+    private static final Pattern PHONE = Pattern.compile("\\d{10}");
+    private static final Pattern DECIMAL = Pattern.compile("-?\\d*\\.?\\d+");
+
+    // A typical order form: menu choice, phone number, liters
+    private String choice = "2";
+    private String phone = "9876543210";
+    private String liters = "12.5";
+
+    @Benchmark
+    public void stringMatches(Blackhole bh)
+    {
+        bh.consume(choice.matches("[1-3]") ? Integer.parseInt(choice) : -1);
+        bh.consume(phone.matches("\\d{10}"));
+        bh.consume(liters.matches("-?\\d*\\.?\\d+") ? Double.parseDouble(liters) : Double.NaN);
+    }
+
+    @Benchmark
+    public void precompiledPattern(Blackhole bh)
+    {
+        bh.consume(CHOICE.matcher(choice).matches() ? Integer.parseInt(choice) : -1);
+        bh.consume(PHONE.matcher(phone).matches());
+        bh.consume(DECIMAL.matcher(liters).matches() ? Double.parseDouble(liters) : Double.NaN);
+    }
+
+    @Benchmark
+    public void inputValidator(Blackhole bh)
+    {
+        bh.consume(InputValidator.choice(choice, 3));
+        bh.consume(InputValidator.isPhone(phone));
+        bh.consume(InputValidator.decimal(liters));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void stringMatchesContended(Blackhole bh)
+    {
+        stringMatches(bh);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void inputValidatorContended(Blackhole bh)
+    {
+        inputValidator(bh);
+    }
+}
@@ -0,0 +1,71 @@
+package fuelgo;
+
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+// FuelGoWallet.pay on a customer's own wallet and on one wallet shared by all threads
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WalletBenchmarks
+{
+    @State(Scope.Benchmark)
+    public static class SharedWallet
+    {
+        WalletLedger ledger;
+        FuelGoWallet wallet;
+
+        @Setup
+        public void setup()
+        {
+            Quiet.mute();
+            ledger = new WalletLedger();
+            wallet = new FuelGoWallet(ledger, "9999999999");
+        }
+
+        @TearDown
+        public void tearDown()
+        {
+            Quiet.restore();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class OwnWallet
+    {
+        FuelGoWallet wallet;
+        String phone;
+
+        @Setup
+        public void setup(SharedWallet shared)
+        {
+            phone = String.valueOf(9000000000L + Thread.currentThread().getId());
+            wallet = new FuelGoWallet(shared.ledger, phone);
+        }
+    }
+
+    @Benchmark
+    public PaymentResult walletPay(SharedWallet shared, OwnWallet own)
+    {
+        shared.ledger.credit(own.phone, 59041);
+        return own.wallet.pay(590.41).toCompletableFuture().join();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public PaymentResult walletPayOwnContended(SharedWallet shared, OwnWallet own)
+    {
+        shared.ledger.credit(own.phone, 59041);
+        return own.wallet.pay(590.41).toCompletableFuture().join();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public PaymentResult walletPaySharedContended(SharedWallet shared)
+    {
+        shared.ledger.credit("9999999999", 59041);
+        return shared.wallet.pay(590.41).toCompletableFuture().join();
+    }
+}
@@ -1,5 +1,27 @@
-import java.text.DecimalFormat;
+package fuelgo;
+
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.*;
+import java.time.Clock;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.DoubleSupplier;
+import java.util.function.IntFunction;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.zip.CRC32;
 
 // Color codes for console
 class Colors 
@@ -15,6 +37,367 @@ class Colors
     public static final String BLINK = "\u001b[5m";
 }
 
+// Latency histogram in the style of HdrHistogram: values up to 127 ns are
+// counted exactly and larger ones in log-linear buckets 1/64 wide (under 1.6%
+// error), up to about 73 minutes. Recording is one atomic increment in a fixed
+// array, with no lock or allocation; threads are spread over a few stripes so
+// busy stages do not all hit the same bucket. As in HdrHistogram the count,
+// sum and max are read back from the buckets rather than kept on the side.
+// A histogram on a hot path may time only one call in sampleEvery; its count
+// and sum are scaled back up, and the percentiles are those of the sample.
+final class LatencyHistogram 
+{
+    private static final int SUB_BITS = 7;
+    private static final int HALF = 1 << (SUB_BITS - 1);
+    private static final long MAX_VALUE = (1L << 42) - 1;
+    private static final int BUCKETS = index(MAX_VALUE) + 1;
+    private static final int STRIPES = 4;
+
+    private final AtomicLongArray[] counts = new AtomicLongArray[STRIPES];
+    private final int sampleEvery;
+
+    LatencyHistogram() 
+    {
+        this(1);
+    }
+
+    // sampleEvery is a power of two
+    LatencyHistogram(int sampleEvery) 
+    {
+        if (Integer.bitCount(sampleEvery) != 1) throw new IllegalArgumentException("sampleEvery must be a power of two");
+        this.sampleEvery = sampleEvery;
+        for (int i = 0; i < STRIPES; i++) counts[i] = new AtomicLongArray(BUCKETS);
+    }
+
+    // Timer start for recordSince: 0 (nothing recorded) when metrics are off or this call is not sampled
+    public long start() 
+    {
+        return Metrics.sampled(sampleEvery) ? System.nanoTime() : 0;
+    }
+
+    public void record(long nanos) 
+    {
+        long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+        counts[(int) Thread.currentThread().getId() & (STRIPES - 1)].getAndIncrement(index(value));
+    }
+
+    // Time since a start() or Metrics.start() reading; nothing for a 0 start
+    public void recordSince(long startNanos) 
+    {
+        if (startNanos != 0) record(System.nanoTime() - startNanos);
+    }
+
+    private static int index(long value) 
+    {
+        if (value < 2 * HALF) return (int) value;
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return shift * HALF + (int) (value >>> shift);
+    }
+
+    // Largest value that falls in the bucket, as HdrHistogram reports percentiles
+    private static long highestIn(int index) 
+    {
+        if (index < 2 * HALF) return index;
+        int shift = index / HALF - 1;
+        return ((long) (index - shift * HALF + 1) << shift) - 1;
+    }
+
+    private static long lowestIn(int index) 
+    {
+        if (index < 2 * HALF) return index;
+        int shift = index / HALF - 1;
+        return (long) (index - shift * HALF) << shift;
+    }
+
+    // Number of values recorded (estimated when sampled), without copying the buckets
+    public long getCount() 
+    {
+        long count = 0;
+        for (AtomicLongArray stripe : counts) 
+        {
+            for (int i = 0; i < BUCKETS; i++) count += stripe.get(i);
+        }
+        return count * sampleEvery;
+    }
+
+    public Snapshot snapshot() 
+    {
+        long[] merged = new long[BUCKETS];
+        long count = 0, sum = 0, max = 0;
+        for (AtomicLongArray stripe : counts) 
+        {
+            for (int i = 0; i < BUCKETS; i++) merged[i] += stripe.get(i);
+        }
+        for (int i = 0; i < BUCKETS; i++) 
+        {
+            if (merged[i] == 0) continue;
+            count += merged[i];
+            sum += merged[i] * ((lowestIn(i) + highestIn(i)) / 2);
+            max = highestIn(i);
+        }
+        return new Snapshot(merged, count, sum, max, sampleEvery);
+    }
+
+    // Counts at one moment; percentiles are in nanoseconds
+    static final class Snapshot 
+    {
+        private final long[] buckets;
+        private final long count, sum, max;
+        private final int sampleEvery;
+
+        Snapshot(long[] buckets, long count, long sum, long max, int sampleEvery) 
+        {
+            this.buckets = buckets;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+            this.sampleEvery = sampleEvery;
+        }
+
+        public long percentile(double q) 
+        {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(q * count));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) 
+            {
+                seen += buckets[i];
+                if (seen >= rank) return highestIn(i);
+            }
+            return max;
+        }
+
+        public long getCount() 
+        { 
+	return count * sampleEvery; 
+        }
+        public long getSum() 
+        { 
+	return sum * sampleEvery; 
+        }
+        public long getMax() 
+        { 
+	return max; 
+        }
+        public double getMean() 
+        { 
+	return count == 0 ? 0 : (double) sum / count; 
+        }
+    }
+}
+
+// Process-wide metrics by name: counters, latency histograms and gauges,
+// exported as a text snapshot or in the Prometheus text format. Instrumented
+// code looks its metrics up once into static finals, so recording is a
+// LongAdder or histogram update. -Dfuelgo.metrics=false turns recording off;
+// ENABLED is a constant, so the JIT drops the timing calls entirely.
+final class Metrics 
+{
+    static final boolean ENABLED = !"false".equals(System.getProperty("fuelgo.metrics"));
+    // Timings taken on every order's path (creation, dispatch, wallet payment,
+    // status changes) sample one in this many; their counters stay exact
+    static final int HOT_PATH_SAMPLE_EVERY = 8;
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+    private static final long CLOCK_TICK_MILLIS = 10;
+    private static volatile long coarseNanos = System.nanoTime();
+
+    // A System.nanoTime read costs tens of nanoseconds; order statuses last
+    // seconds, so their timing reads this field, refreshed every tick instead
+    static 
+    {
+        if (ENABLED) 
+        {
+            ScheduledExecutorService clock = Executors.newSingleThreadScheduledExecutor(r -> 
+            {
+                Thread t = new Thread(r, "fuelgo-metrics-clock");
+                t.setDaemon(true);
+                return t;
+            });
+            clock.scheduleAtFixedRate(() -> coarseNanos = System.nanoTime(), CLOCK_TICK_MILLIS, CLOCK_TICK_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Monotonic count; increments are dropped when metrics are off
+    static final class Counter 
+    {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() 
+        {
+            if (ENABLED) value.increment();
+        }
+
+        public void add(long n) 
+        {
+            if (ENABLED) value.add(n);
+        }
+
+        public long get() 
+        {
+            return value.sum();
+        }
+    }
+
+    private static final class Series 
+    {
+        final String name, labels, help, type;
+        final Object metric;
+
+        Series(String name, String labels, String help, String type, Object metric) 
+        {
+            this.name = name;
+            this.labels = labels;
+            this.help = help;
+            this.type = type;
+            this.metric = metric;
+        }
+    }
+
+    // Sorted by name and labels so each family exports together
+    private static final ConcurrentSkipListMap<String, Series> SERIES = new ConcurrentSkipListMap<>();
+
+    private Metrics() 
+    {
+    }
+
+    // labels are name/value pairs: counter("fuelgo_payments_total", "...", "method", "PhonePe")
+    public static Counter counter(String name, String help, String... labels) 
+    {
+        return (Counter) register(name, help, "counter", labels, new Counter()).metric;
+    }
+
+    // Nanosecond latencies, exported in seconds as a summary with quantiles
+    public static LatencyHistogram histogram(String name, String help, String... labels) 
+    {
+        return histogram(name, help, 1, labels);
+    }
+
+    // A histogram that times one call in sampleEvery (a power of two)
+    public static LatencyHistogram histogram(String name, String help, int sampleEvery, String... labels) 
+    {
+        return (LatencyHistogram) register(name, help, "summary", labels, new LatencyHistogram(sampleEvery)).metric;
+    }
+
+    // A count kept elsewhere, read at export time
+    public static void counter(String name, String help, LongSupplier value, String... labels) 
+    {
+        String key = labels(labels);
+        SERIES.put(name + key, new Series(name, key, help, "counter", value));
+    }
+
+    // Read at export time; registering the same series again replaces the supplier
+    public static void gauge(String name, String help, DoubleSupplier value, String... labels) 
+    {
+        String key = labels(labels);
+        SERIES.put(name + key, new Series(name, key, help, "gauge", value));
+    }
+
+    private static Series register(String name, String help, String type, String[] labels, Object metric) 
+    {
+        String key = labels(labels);
+        Series series = SERIES.computeIfAbsent(name + key, k -> new Series(name, key, help, type, metric));
+        if (!series.type.equals(type)) throw new IllegalArgumentException(name + " is already a " + series.type);
+        return series;
+    }
+
+    private static String labels(String[] labels) 
+    {
+        if (labels.length == 0) return "";
+        if (labels.length % 2 != 0) throw new IllegalArgumentException("Labels come in name/value pairs");
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < labels.length; i += 2) 
+        {
+            if (i > 0) sb.append(',');
+            sb.append(labels[i]).append("=\"").append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        }
+        return sb.append('}').toString();
+    }
+
+    // Timer start for LatencyHistogram.recordSince; 0 when metrics are off
+    public static long start() 
+    {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    // True for about one call in every (a power of two); always false when metrics are off
+    static boolean sampled(int every) 
+    {
+        return ENABLED && (every == 1 || (ThreadLocalRandom.current().nextInt() & (every - 1)) == 0);
+    }
+
+    // System.nanoTime as of the last clock tick, for timing things that take far longer than a tick
+    public static long coarseNanos() 
+    {
+        return coarseNanos;
+    }
+
+    // Prometheus text exposition format, version 0.0.4
+    public static String prometheus() 
+    {
+        StringBuilder sb = new StringBuilder(8192);
+        String family = null;
+        for (Series s : SERIES.values()) 
+        {
+            if (!s.name.equals(family)) 
+            {
+                family = s.name;
+                sb.append("# HELP ").append(s.name).append(' ').append(s.help).append('\n');
+                sb.append("# TYPE ").append(s.name).append(' ').append(s.type).append('\n');
+            }
+            if (s.metric instanceof Counter) 
+            {
+                sb.append(s.name).append(s.labels).append(' ').append(((Counter) s.metric).get()).append('\n');
+            } 
+            else if (s.metric instanceof LongSupplier) 
+            {
+                sb.append(s.name).append(s.labels).append(' ').append(((LongSupplier) s.metric).getAsLong()).append('\n');
+            } 
+            else if (s.metric instanceof DoubleSupplier) 
+            {
+                sb.append(s.name).append(s.labels).append(' ').append(((DoubleSupplier) s.metric).getAsDouble()).append('\n');
+            } 
+            else 
+            {
+                LatencyHistogram.Snapshot h = ((LatencyHistogram) s.metric).snapshot();
+                for (double q : QUANTILES) 
+                {
+                    sb.append(s.name).append(withLabel(s.labels, "quantile", Double.toString(q))).append(' ').append(h.percentile(q) / 1e9).append('\n');
+                }
+                sb.append(s.name).append("_sum").append(s.labels).append(' ').append(h.getSum() / 1e9).append('\n');
+                sb.append(s.name).append("_count").append(s.labels).append(' ').append(h.getCount()).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String withLabel(String labels, String name, String value) 
+    {
+        String label = name + "=\"" + value + "\"";
+        return labels.isEmpty() ? "{" + label + "}" : labels.substring(0, labels.length() - 1) + "," + label + "}";
+    }
+
+    // One line per series, latencies in milliseconds, for the console and logs
+    public static String snapshot() 
+    {
+        StringBuilder sb = new StringBuilder(4096);
+        for (Series s : SERIES.values()) 
+        {
+            sb.append(s.name).append(s.labels).append(' ');
+            if (s.metric instanceof Counter) sb.append(((Counter) s.metric).get());
+            else if (s.metric instanceof LongSupplier) sb.append(((LongSupplier) s.metric).getAsLong());
+            else if (s.metric instanceof DoubleSupplier) sb.append(String.format("%.2f", ((DoubleSupplier) s.metric).getAsDouble()));
+            else 
+            {
+                LatencyHistogram.Snapshot h = ((LatencyHistogram) s.metric).snapshot();
+                sb.append(String.format("count=%d mean=%.3fms p50=%.3fms p99=%.3fms p99.9=%.3fms max=%.3fms", h.getCount(), h.getMean() / 1e6,
+                        h.percentile(0.5) / 1e6, h.percentile(0.99) / 1e6, h.percentile(0.999) / 1e6, h.getMax() / 1e6));
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
+
 // Base User
 abstract class User 
 {
@@ -51,12 +434,23 @@ abstract class User
 class Customer extends User 
 {
     private String address;
+    private volatile GeoPoint location;
 
     public Customer(String name, String phone) 
     {
         super(name, phone);
     }
 
+    // Last known delivery position; null until the customer shares one
+    public GeoPoint getLocation() 
+    { 
+	return location; 
+    }
+    public void setLocation(GeoPoint location) 
+    { 
+	this.location = location; 
+    }
+
     public void setAddress(String addr) 
     {  
 	this.address = addr;  
@@ -70,36 +464,67 @@ class Customer extends User
 // Delivery Driver
 class DeliveryDriver extends User 
 {
+    public static final double DEFAULT_TANK_LITERS = 2000;
+
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
+    private final long id;
     private List<Order> assignedOrders;
-    private Order lastDeliveredOrder;
+    private volatile Order lastDeliveredOrder;
+    private volatile GeoPoint location;
+    private volatile double tankLiters = DEFAULT_TANK_LITERS;
+    // Current entry of this driver in the DispatchEngine queue
+    final AtomicReference<DispatchSlot> dispatchSlot = new AtomicReference<>();
+    // DeliveryManager zone shard the driver is dispatched from
+    volatile DispatchShard shard;
 
     public DeliveryDriver(String name, String phone) 
     {
         super(name, phone);
-        this.assignedOrders = new ArrayList<>();
+        this.id = NEXT_ID.incrementAndGet();
+        this.assignedOrders = new CopyOnWriteArrayList<>();
         this.lastDeliveredOrder = null;
     }
 
-    public void acceptOrder(Order o) 
+    // Only paid orders can be accepted; false if someone else got there first
+    public boolean acceptOrder(Order o) 
     {
-        o.updateStatus("Delivery on the Way");
+        if (!o.transition(OrderStatus.PAID, OrderStatus.ASSIGNED)) return false;
+        o.setDriver(this);
         assignedOrders.add(o);
+        return true;
     }
 
+    // Called by DeliveryScheduler once the trip time has elapsed; never blocks
     public void deliver(Order o) 
     {
-        try 
- 	{
-            Thread.sleep(10000); // 10-second delay
-            o.updateStatus("Delivered");
-            System.out.println(Colors.GREEN + "Order " + o.summary() + " has been delivered." + Colors.RESET);
-            lastDeliveredOrder = o;
+        if (!o.transition(OrderStatus.ON_THE_WAY, OrderStatus.DELIVERED)) 
+        {
+            // Cancelled while on the way: nothing to hand over
             assignedOrders.remove(o);
+            return;
         }
-	catch (InterruptedException e) 
-	{
-            System.out.println(Colors.RED + "Delivery interrupted." + Colors.RESET);
-        }
+        System.out.println(Colors.GREEN + "Order " + o.summary() + " has been delivered." + Colors.RESET);
+        lastDeliveredOrder = o;
+        assignedOrders.remove(o);
+    }
+
+    // Hands an accepted order back when it could not be scheduled
+    public void dropOrder(Order o) 
+    {
+        assignedOrders.remove(o);
+        o.setDriver(null);
+    }
+
+    // Used by journal recovery to bring back the driver's delivery history
+    public void restoreLastDelivered(Order o) 
+    {
+        lastDeliveredOrder = o;
+    }
+
+    public long getId() 
+    { 
+	return id; 
     }
 
     public String getDetails() 
@@ -123,305 +548,6474 @@ class DeliveryDriver extends User
         }
     }
 
-    public void viewPreviousOrder() 
+    public void viewPreviousOrder() 
+    {
+        if (lastDeliveredOrder == null) 
+	{
+            System.out.println(Colors.YELLOW + "No previous orders delivered." + Colors.RESET);
+        } 
+	else 
+	{
+            System.out.println("Previous Order: " + lastDeliveredOrder.summary());
+        }
+    }
+
+    public boolean isAvailable() 
+    { 
+	return assignedOrders.isEmpty(); 
+    }
+
+    public int getLoad() 
+    {
+        DispatchSlot slot = dispatchSlot.get();
+        return slot == null ? assignedOrders.size() : slot.load;
+    }
+
+    // Null until the driver reports a position; move drivers through DeliveryManager.updateDriverLocation
+    public GeoPoint getLocation() 
+    { 
+	return location; 
+    }
+    void setLocation(GeoPoint location) 
+    { 
+	this.location = location; 
+    }
+    // Bowser capacity: the most fuel one multi-stop trip can carry
+    public double getTankLiters() 
+    { 
+	return tankLiters; 
+    }
+    public void setTankLiters(double liters) 
+    { 
+	this.tankLiters = liters; 
+    }
+}
+
+// One immutable queue entry per driver: ordered by load, then by how long it has waited
+class DispatchSlot implements Comparable<DispatchSlot> 
+{
+    // The engine whose queue holds this slot; a driver moved to another engine gets slots from it
+    final DispatchEngine engine;
+    final DeliveryDriver driver;
+    final int load;
+    final long seq;
+
+    DispatchSlot(DispatchEngine engine, DeliveryDriver driver, int load, long seq) 
+    {
+        this.engine = engine;
+        this.driver = driver;
+        this.load = load;
+        this.seq = seq;
+    }
+
+    public int compareTo(DispatchSlot o) 
+    {
+        if (load != o.load) return Integer.compare(load, o.load);
+        return Long.compare(seq, o.seq);
+    }
+}
+
+// Lock-free dispatch engine: always hands out the least loaded driver, ties going
+// to the one that has waited longest. Proximity comes from the shards' GeoIndex.
+// Each driver owns exactly one live slot (DeliveryDriver.dispatchSlot); every
+// load change swaps that slot with a CAS, so stale queue entries are simply
+// discarded when polled and no thread ever holds a global lock. An idle driver
+// can be moved to another engine; operations on a slot another engine owns fail.
+class DispatchEngine 
+{
+    public static final int DEFAULT_MAX_LOAD = 3;
+
+    private final ConcurrentSkipListSet<DispatchSlot> queue = new ConcurrentSkipListSet<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final int maxLoad;
+
+    public DispatchEngine() 
+    {
+        this(DEFAULT_MAX_LOAD);
+    }
+
+    public DispatchEngine(int maxLoad) 
+    {
+        if (maxLoad < 1) throw new IllegalArgumentException("maxLoad must be at least 1");
+        this.maxLoad = maxLoad;
+    }
+
+    public void addDriver(DeliveryDriver driver) 
+    {
+        DispatchSlot slot = new DispatchSlot(this, driver, 0, sequence.incrementAndGet());
+        if (driver.dispatchSlot.compareAndSet(null, slot)) 
+        {
+            queue.add(slot);
+        }
+    }
+
+    // Claims one unit of capacity on the best driver, or null if every driver is full.
+    // The head stays in the queue while it is claimed, so a concurrent caller never
+    // sees an empty fleet; losing the CAS just means looking at the new head.
+    public DeliveryDriver assign() 
+    {
+        while (true) 
+        {
+            DispatchSlot head = firstLive();
+            // Queue is ordered by load, so everyone behind a full head is full too
+            if (head == null || head.load >= maxLoad) return null;
+            DispatchSlot next = rekey(head, head.load + 1);
+            if (swap(head.driver, head, next)) return head.driver;
+        }
+    }
+
+    // Takes one unit of capacity on a specific driver, ignoring the load cap (used by recovery)
+    public boolean claim(DeliveryDriver driver) 
+    {
+        while (true) 
+        {
+            DispatchSlot current = driver.dispatchSlot.get();
+            if (current == null || current.engine != this) return false;
+            DispatchSlot next = rekey(current, current.load + 1);
+            if (swap(driver, current, next)) return true;
+        }
+    }
+
+    // Takes one unit of capacity on a specific driver if they are below the load cap
+    public boolean tryClaim(DeliveryDriver driver) 
+    {
+        while (true) 
+        {
+            DispatchSlot current = driver.dispatchSlot.get();
+            if (current == null || current.engine != this || current.load >= maxLoad) return false;
+            DispatchSlot next = rekey(current, current.load + 1);
+            if (swap(driver, current, next)) return true;
+        }
+    }
+
+    public boolean hasCapacity(DeliveryDriver driver) 
+    {
+        DispatchSlot current = driver.dispatchSlot.get();
+        return current != null && current.load < maxLoad;
+    }
+
+    // False when every driver is at the load cap; the least loaded slot is first
+    public boolean hasSpareCapacity() 
+    {
+        DispatchSlot head = firstLive();
+        return head != null && head.load < maxLoad;
+    }
+
+    // Takes an idle driver out of this engine so another can add them; false while they hold orders
+    public boolean removeIdle(DeliveryDriver driver) 
+    {
+        DispatchSlot current = driver.dispatchSlot.get();
+        if (current == null || current.engine != this || current.load != 0) return false;
+        if (!driver.dispatchSlot.compareAndSet(current, null)) return false;
+        queue.remove(current);
+        return true;
+    }
+
+    // Gives back one unit of capacity once a delivery finishes
+    public void release(DeliveryDriver driver) 
+    {
+        while (true) 
+        {
+            DispatchSlot current = driver.dispatchSlot.get();
+            if (current == null || current.engine != this || current.load == 0) return;
+            DispatchSlot next = rekey(current, current.load - 1);
+            if (swap(driver, current, next)) return;
+        }
+    }
+
+    public int getMaxLoad() 
+    { 
+	return maxLoad; 
+    }
+
+    private boolean swap(DeliveryDriver driver, DispatchSlot current, DispatchSlot next) 
+    {
+        if (!driver.dispatchSlot.compareAndSet(current, next)) return false;
+        queue.add(next);
+        queue.remove(current);
+        return true;
+    }
+
+    private DispatchSlot rekey(DispatchSlot slot, int load) 
+    {
+        return new DispatchSlot(this, slot.driver, load, sequence.incrementAndGet());
+    }
+
+    // Best slot its driver still owns; entries replaced mid-swap are skipped until swap removes them
+    private DispatchSlot firstLive() 
+    {
+        for (DispatchSlot slot : queue) 
+        {
+            if (slot.driver.dispatchSlot.get() == slot) return slot;
+        }
+        return null;
+    }
+}
+
+// Runs deliveries as timed state transitions on a small timer pool instead of
+// parking one thread per trip. In-flight deliveries are bounded; shutdown lets
+// the already scheduled trips finish. The timer and the trip time can be
+// supplied, so a simulation can run deliveries on a virtual clock.
+class DeliveryScheduler 
+{
+    public static final long DEFAULT_DELIVERY_MILLIS = 10000;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 10000;
+
+    private final ScheduledExecutorService timer;
+    private final ToLongFunction<Order> tripMillis;
+    private final int maxInFlight;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final LongAdder scheduled = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private volatile boolean accepting = true;
+
+    public DeliveryScheduler() 
+    {
+        this(Math.max(2, Runtime.getRuntime().availableProcessors()), DEFAULT_DELIVERY_MILLIS, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public DeliveryScheduler(int timerThreads, long deliveryMillis, int maxInFlight) 
+    {
+        this(timerPool(timerThreads), order -> deliveryMillis, maxInFlight);
+    }
+
+    // tripMillis is how long a driver takes from setting off to the order's door
+    public DeliveryScheduler(ScheduledExecutorService timer, ToLongFunction<Order> tripMillis, int maxInFlight) 
+    {
+        this.timer = timer;
+        this.tripMillis = tripMillis;
+        this.maxInFlight = maxInFlight;
+    }
+
+    private static ScheduledExecutorService timerPool(int threads) 
+    {
+        AtomicInteger threadCount = new AtomicInteger();
+        ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(threads, r -> 
+        {
+            Thread t = new Thread(r, "fuelgo-delivery-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        pool.setRemoveOnCancelPolicy(true);
+        return pool;
+    }
+
+    // Returns false (and schedules nothing) when shut down or at capacity
+    public boolean schedule(DeliveryDriver driver, Order order, Runnable onComplete) 
+    {
+        if (!accepting || !reserveSlot()) 
+        {
+            rejected.increment();
+            return false;
+        }
+        // Departure is the first timed transition; arrival fires after the trip time
+        if (!order.transition(OrderStatus.ASSIGNED, OrderStatus.ON_THE_WAY)) 
+        {
+            inFlight.decrementAndGet();
+            rejected.increment();
+            return false;
+        }
+        try 
+        {
+            timer.schedule(() -> complete(driver, order, onComplete), tripMillis.applyAsLong(order), TimeUnit.MILLISECONDS);
+        } 
+        catch (RejectedExecutionException e) 
+        {
+            // Shut down between the intake check and scheduling: the trip will never happen
+            order.transition(OrderStatus.ON_THE_WAY, OrderStatus.CANCELLED);
+            inFlight.decrementAndGet();
+            rejected.increment();
+            return false;
+        }
+        scheduled.increment();
+        return true;
+    }
+
+    // Runs a planned multi-stop trip: all stops leave together and stop i arrives
+    // after the first stop's trip time, scaled by the ratio of their planned minutes.
+    // onComplete runs once, after the last stop. Returns false (and schedules
+    // nothing) when shut down or at capacity.
+    public boolean scheduleRoute(DeliveryDriver driver, List<Order> stops, int[] stopMinutes, Runnable onComplete) 
+    {
+        if (!accepting || !reserveSlots(stops.size())) 
+        {
+            rejected.add(stops.size());
+            return false;
+        }
+        List<Integer> leaving = new ArrayList<>(stops.size());
+        for (int i = 0; i < stops.size(); i++) 
+        {
+            if (stops.get(i).transition(OrderStatus.ASSIGNED, OrderStatus.ON_THE_WAY)) 
+            {
+                leaving.add(i);
+            } 
+            else 
+            {
+                // Cancelled while the bowser was loading
+                inFlight.decrementAndGet();
+                rejected.increment();
+            }
+        }
+        long firstMillis = tripMillis.applyAsLong(stops.get(0));
+        AtomicInteger remaining = new AtomicInteger(leaving.size());
+        Runnable stopDone = () -> 
+        {
+            if (remaining.decrementAndGet() == 0 && onComplete != null) onComplete.run();
+        };
+        if (leaving.isEmpty() && onComplete != null) onComplete.run();
+        for (int k = 0; k < leaving.size(); k++) 
+        {
+            int i = leaving.get(k);
+            Order order = stops.get(i);
+            long arrival = Math.round(firstMillis * (double) stopMinutes[i] / stopMinutes[0]);
+            try 
+            {
+                timer.schedule(() -> complete(driver, order, stopDone), arrival, TimeUnit.MILLISECONDS);
+                scheduled.increment();
+            } 
+            catch (RejectedExecutionException e) 
+            {
+                order.transition(OrderStatus.ON_THE_WAY, OrderStatus.CANCELLED);
+                inFlight.decrementAndGet();
+                rejected.increment();
+                stopDone.run();
+            }
+        }
+        return true;
+    }
+
+    // Runs a task on the delivery timer; false once shut down
+    public boolean runLater(Runnable task, long delayMillis) 
+    {
+        try 
+        {
+            timer.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+            return true;
+        } 
+        catch (RejectedExecutionException e) 
+        {
+            return false;
+        }
+    }
+
+    private boolean reserveSlot() 
+    {
+        return reserveSlots(1);
+    }
+
+    private boolean reserveSlots(int n) 
+    {
+        while (true) 
+        {
+            int current = inFlight.get();
+            if (current + n > maxInFlight) return false;
+            if (inFlight.compareAndSet(current, current + n)) 
+            {
+                peakInFlight.accumulateAndGet(current + n, Math::max);
+                return true;
+            }
+        }
+    }
+
+    private void complete(DeliveryDriver driver, Order order, Runnable onComplete) 
+    {
+        try 
+        {
+            driver.deliver(order);
+            completed.increment();
+        } 
+        catch (RuntimeException e) 
+        {
+            failed.increment();
+            System.out.println(Colors.RED + "Delivery failed: " + e.getMessage() + Colors.RESET);
+        } 
+        finally 
+        {
+            inFlight.decrementAndGet();
+            if (onComplete != null) onComplete.run();
+        }
+    }
+
+    // Stops intake and waits for the scheduled deliveries to finish
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException 
+    {
+        accepting = false;
+        timer.shutdown();
+        return timer.awaitTermination(timeout, unit);
+    }
+
+    // Stops intake and drops deliveries that have not completed yet
+    public int shutdownNow() 
+    {
+        accepting = false;
+        return timer.shutdownNow().size();
+    }
+
+    public int getInFlight() 
+    { 
+	return inFlight.get(); 
+    }
+    public int getPeakInFlight() 
+    { 
+	return peakInFlight.get(); 
+    }
+    public long getScheduled() 
+    { 
+	return scheduled.sum(); 
+    }
+    public long getCompleted() 
+    { 
+	return completed.sum(); 
+    }
+    public long getRejected() 
+    { 
+	return rejected.sum(); 
+    }
+    public long getFailed() 
+    { 
+	return failed.sum(); 
+    }
+
+    public String metrics() 
+    {
+        return "in-flight=" + getInFlight() + " peak=" + getPeakInFlight() + " scheduled=" + getScheduled()
+                + " completed=" + getCompleted() + " rejected=" + getRejected() + " failed=" + getFailed();
+    }
+}
+
+// Immutable latitude/longitude in degrees
+final class GeoPoint 
+{
+    static final double EARTH_RADIUS_KM = 6371.0088;
+    static final double KM_PER_DEGREE = Math.PI * EARTH_RADIUS_KM / 180;
+
+    private final double lat;
+    private final double lon;
+
+    public GeoPoint(double lat, double lon) 
+    {
+        if (!(lat >= -90 && lat <= 90) || !(lon >= -180 && lon <= 180)) 
+        {
+            throw new IllegalArgumentException("Invalid coordinates: " + lat + "," + lon);
+        }
+        this.lat = lat;
+        this.lon = lon;
+    }
+
+    public double getLat() 
+    { 
+	return lat; 
+    }
+    public double getLon() 
+    { 
+	return lon; 
+    }
+
+    // Great-circle (haversine) distance
+    public double distanceKm(GeoPoint o) 
+    {
+        double dLat = Math.toRadians(o.lat - lat);
+        double dLon = Math.toRadians(o.lon - lon);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat)) * Math.cos(Math.toRadians(o.lat)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    // The point northKm north and eastKm east of this one (flat-earth step, fine within a city)
+    public GeoPoint offset(double northKm, double eastKm) 
+    {
+        return new GeoPoint(lat + northKm / KM_PER_DEGREE, lon + eastKm / (KM_PER_DEGREE * Math.cos(Math.toRadians(lat))));
+    }
+
+    @Override
+    public String toString() 
+    {
+        return lat + "," + lon;
+    }
+}
+
+// Where FUELgo operates: customers and seed drivers without a known position start at the centre
+final class ServiceArea 
+{
+    public static final GeoPoint CENTRE = new GeoPoint(17.3850, 78.4867);
+    public static final double MAX_DELIVERY_KM = 25;
+
+    private ServiceArea() 
+    {
+    }
+
+    // Distances are billed and shown in 100 m steps
+    public static double roundKm(double km) 
+    {
+        return Math.round(km * 10) / 10.0;
+    }
+}
+
+// Fuel station with a fixed position
+class Bunk 
+{
+    private final String name;
+    private final GeoPoint location;
+
+    public Bunk(String name, GeoPoint location) 
+    {
+        this.name = name;
+        this.location = location;
+    }
+
+    public String getName() 
+    { 
+	return name; 
+    }
+    public GeoPoint getLocation() 
+    { 
+	return location; 
+    }
+}
+
+// Grid spatial index (a geohash at a single precision): the map is cut into
+// cellDegrees squares and each cell holds a concurrent map of its items to
+// their positions. A move inside a cell is two map writes and crossing a cell edge is a remove
+// plus an add, so drivers reporting positions never rebuild anything.
+// k-nearest walks rings of cells outwards until no unseen cell can hold a
+// closer item; radius queries scan the rings that overlap the circle.
+// Candidates are ranked by equirectangular distance around the query point,
+// within 0.1% of great-circle distance at delivery ranges and several times
+// cheaper than haversine. The grid does not wrap at the antimeridian, which no
+// service area crosses.
+class GeoIndex<T> 
+{
+    public static final double DEFAULT_CELL_DEGREES = 0.01; // about 1.1 km north-south
+
+    private final ConcurrentHashMap<Long, ConcurrentHashMap<T, GeoPoint>> cells = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<T, GeoPoint> positions = new ConcurrentHashMap<>();
+    private final double cellDegrees;
+
+    public GeoIndex() 
+    {
+        this(DEFAULT_CELL_DEGREES);
+    }
+
+    public GeoIndex(double cellDegrees) 
+    {
+        this.cellDegrees = cellDegrees;
+    }
+
+    // Adds the item or moves it; moves of one item are serialised on its position entry
+    public void put(T item, GeoPoint at) 
+    {
+        long cell = cellOf(at);
+        positions.compute(item, (k, previous) -> 
+        {
+            if (previous != null) 
+            {
+                long old = cellOf(previous);
+                if (old == cell) 
+                {
+                    cells.get(cell).put(item, at);
+                    return at;
+                }
+                removeFromCell(old, item);
+            }
+            cells.compute(cell, (c, members) -> 
+            {
+                if (members == null) members = new ConcurrentHashMap<>();
+                members.put(item, at);
+                return members;
+            });
+            return at;
+        });
+    }
+
+    public void remove(T item) 
+    {
+        positions.computeIfPresent(item, (k, previous) -> 
+        {
+            removeFromCell(cellOf(previous), item);
+            return null;
+        });
+    }
+
+    public GeoPoint positionOf(T item) 
+    {
+        return positions.get(item);
+    }
+
+    public int size() 
+    {
+        return positions.size();
+    }
+
+    // Up to k items within maxKm of from that pass the filter, nearest first
+    public List<T> nearest(GeoPoint from, int k, double maxKm, Predicate<? super T> filter) 
+    {
+        PriorityQueue<Hit<T>> best = new PriorityQueue<>(k + 1, (a, b) -> Double.compare(b.km, a.km));
+        int latCell = latCell(from.getLat());
+        int lonCell = lonCell(from.getLon());
+        double cellKm = minCellKm(from, maxKm);
+        int maxRing = (int) Math.ceil(maxKm / cellKm) + 1;
+        for (int ring = 0; ring <= maxRing; ring++) 
+        {
+            // Everything in this ring or beyond is at least ring - 1 whole cells away
+            if (best.size() == k && (ring - 1) * cellKm > best.peek().km) break;
+            scanRing(latCell, lonCell, ring, from, maxKm, filter, best, k);
+        }
+        return drain(best);
+    }
+
+    // Every item within km of from that passes the filter, nearest first
+    public List<T> withinRadius(GeoPoint from, double km, Predicate<? super T> filter) 
+    {
+        PriorityQueue<Hit<T>> hits = new PriorityQueue<>((a, b) -> Double.compare(b.km, a.km));
+        int latCell = latCell(from.getLat());
+        int lonCell = lonCell(from.getLon());
+        int maxRing = (int) Math.ceil(km / minCellKm(from, km)) + 1;
+        for (int ring = 0; ring <= maxRing; ring++) 
+        {
+            scanRing(latCell, lonCell, ring, from, km, filter, hits, Integer.MAX_VALUE);
+        }
+        return drain(hits);
+    }
+
+    private static final class Hit<T> 
+    {
+        final T item;
+        final double km;
+
+        Hit(T item, double km) 
+        {
+            this.item = item;
+            this.km = km;
+        }
+    }
+
+    private void scanRing(int latCell, int lonCell, int ring, GeoPoint from, double maxKm,
+                          Predicate<? super T> filter, PriorityQueue<Hit<T>> best, int k) 
+    {
+        double kmPerLonDegree = GeoPoint.KM_PER_DEGREE * Math.cos(Math.toRadians(from.getLat()));
+        for (int dLat = -ring; dLat <= ring; dLat++) 
+        {
+            // Interior rows only contribute the two edge cells of the ring
+            int step = (dLat == -ring || dLat == ring) ? 1 : Math.max(1, 2 * ring);
+            for (int dLon = -ring; dLon <= ring; dLon += step) 
+            {
+                ConcurrentHashMap<T, GeoPoint> members = cells.get(key(latCell + dLat, lonCell + dLon));
+                if (members == null) continue;
+                for (Map.Entry<T, GeoPoint> member : members.entrySet()) 
+                {
+                    T item = member.getKey();
+                    GeoPoint at = member.getValue();
+                    if (!filter.test(item)) continue;
+                    double dy = (at.getLat() - from.getLat()) * GeoPoint.KM_PER_DEGREE;
+                    double dx = (at.getLon() - from.getLon()) * kmPerLonDegree;
+                    double km = Math.sqrt(dx * dx + dy * dy);
+                    if (km > maxKm) continue;
+                    if (best.size() < k) 
+                    {
+                        best.add(new Hit<>(item, km));
+                    } 
+                    else if (km < best.peek().km) 
+                    {
+                        best.poll();
+                        best.add(new Hit<>(item, km));
+                    }
+                }
+            }
+        }
+    }
+
+    private List<T> drain(PriorityQueue<Hit<T>> hits) 
+    {
+        Object[] sorted = new Object[hits.size()];
+        for (int i = sorted.length - 1; i >= 0; i--) sorted[i] = hits.poll().item;
+        @SuppressWarnings("unchecked")
+        List<T> result = (List<T>) Arrays.asList(sorted);
+        return result;
+    }
+
+    private void removeFromCell(long cell, T item) 
+    {
+        cells.computeIfPresent(cell, (c, members) -> 
+        {
+            members.remove(item);
+            return members.isEmpty() ? null : members;
+        });
+    }
+
+    // East-west cell width shrinks towards the poles; use the narrowest within reach
+    private double minCellKm(GeoPoint from, double reachKm) 
+    {
+        double worstLat = Math.min(89, Math.abs(from.getLat()) + reachKm / GeoPoint.KM_PER_DEGREE + cellDegrees);
+        return cellDegrees * GeoPoint.KM_PER_DEGREE * Math.cos(Math.toRadians(worstLat));
+    }
+
+    private int latCell(double lat) 
+    {
+        return (int) Math.floor((lat + 90) / cellDegrees);
+    }
+
+    private int lonCell(double lon) 
+    {
+        return (int) Math.floor((lon + 180) / cellDegrees);
+    }
+
+    private long cellOf(GeoPoint p) 
+    {
+        return key(latCell(p.getLat()), lonCell(p.getLon()));
+    }
+
+    // Long.hashCode is the high word xor the low one, which is the same for every
+    // cell with equal latCell ^ lonCell; an odd multiplier keeps keys unique and
+    // spreads them, so nearby cells do not pile into one hash bin
+    private static long key(int latCell, int lonCell) 
+    {
+        return (((long) latCell << 32) | (lonCell & 0xffffffffL)) * 0x9E3779B97F4A7C15L;
+    }
+}
+
+// Concurrent driver registry indexed by phone and by driver id.
+// The phone index is the source of truth: a driver is registered once its
+// putIfAbsent wins, so two racing registrations of one number cannot both succeed.
+class DriverRegistry 
+{
+    private final ConcurrentHashMap<String, DeliveryDriver> byPhone = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, DeliveryDriver> byId = new ConcurrentHashMap<>();
+
+    // Returns true if the driver was added, false if the phone is already taken
+    public boolean registerIfAbsent(DeliveryDriver driver) 
+    {
+        if (byPhone.putIfAbsent(driver.getPhone(), driver) != null) return false;
+        byId.put(driver.getId(), driver);
+        return true;
+    }
+
+    public DeliveryDriver findByPhone(String phone) 
+    {
+        return byPhone.get(phone);
+    }
+
+    public DeliveryDriver findById(long id) 
+    {
+        return byId.get(id);
+    }
+
+    public boolean isRegistered(String phone) 
+    {
+        return byPhone.containsKey(phone);
+    }
+
+    public Collection<DeliveryDriver> all() 
+    {
+        return Collections.unmodifiableCollection(byPhone.values());
+    }
+
+    public int size() 
+    {
+        return byPhone.size();
+    }
+}
+
+// One zone shard of a DeliveryManager: the drivers last seen in its zones with
+// their own dispatch queue and location index, and the paid orders from its
+// zones that are waiting for a driver. The shard's orders are assigned on its
+// executor.
+final class DispatchShard 
+{
+    final int id;
+    final DispatchEngine engine;
+    final GeoIndex<DeliveryDriver> locations = new GeoIndex<>();
+    final Executor executor;
+    // Oldest first; drivers coming free take them from the head
+    final ConcurrentLinkedDeque<Order> waiting = new ConcurrentLinkedDeque<>();
+    final AtomicInteger waitingCount = new AtomicInteger();
+    final AtomicInteger drivers = new AtomicInteger();
+    // Set while a drain is queued, so a burst of finished deliveries queues one
+    final AtomicBoolean drainQueued = new AtomicBoolean();
+
+    DispatchShard(int id, DispatchEngine engine, Executor executor) 
+    {
+        this.id = id;
+        this.engine = engine;
+        this.executor = executor;
+    }
+}
+
+// Dispatch partitioned into zone shards. The service area is cut into
+// ZONE_DEGREES squares (a coarse geohash) and each zone belongs to one shard.
+// Drivers are dispatched from, and indexed by, the shard of the zone they were
+// last seen in, and follow their position into another shard once idle. An
+// order is assigned on its home shard's executor: the nearest free driver of
+// that shard, else its least loaded one. Only when the home shard has no driver
+// free does it take one from another shard (stealing), the shards owning the
+// zones around the pickup first. An order nobody can take waits in its home
+// shard, and a driver coming free serves its own shard's queue first, then the
+// others'.
+class DeliveryManager 
+{
+    // Nearest drivers tried before falling back to the least loaded one anywhere
+    public static final int NEAREST_CANDIDATES = 8;
+    // Multi-stop trips: stop limit and how far a new drop-off may be from an existing one
+    public static final int MAX_TRIP_STOPS = 50;
+    public static final double MAX_TRIP_DETOUR_KM = 3;
+    // About 5.5 km north-south
+    public static final double ZONE_DEGREES = 0.05;
+    // An order's home shard is its zone's; a home driver within this distance of
+    // the pickup is taken first, then one as near from a neighbouring zone's shard
+    public static final double NEARBY_KM = 5;
+    public static final int DEFAULT_SHARDS = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    private DriverRegistry drivers;
+    private final DispatchShard[] shards;
+    // Shard executors this manager started, stopped on shutdown
+    private final List<ExecutorService> shardThreads = new ArrayList<>();
+    private DeliveryScheduler deliveryScheduler;
+    private volatile OrderJournal journal;
+    private volatile BatchDispatcher batchDispatcher;
+    // Trips still loading, by bunk and fuel type; trips are off while tripLoadingMillis is 0
+    private final ConcurrentHashMap<String, Queue<DeliveryTrip>> openTrips = new ConcurrentHashMap<>();
+    private volatile long tripLoadingMillis;
+
+    private static final LatencyHistogram ASSIGN_TIME = Metrics.histogram("fuelgo_dispatch_assign_seconds", "Time to find and hand over a driver for a paid order", Metrics.HOT_PATH_SAMPLE_EVERY);
+    private static final Metrics.Counter ASSIGNED = Metrics.counter("fuelgo_dispatch_total", "Driver assignment attempts", "result", "assigned");
+    private static final Metrics.Counter NO_DRIVER = Metrics.counter("fuelgo_dispatch_total", "Driver assignment attempts", "result", "no_driver");
+    private static final Metrics.Counter QUEUED = Metrics.counter("fuelgo_dispatch_queued_total", "Paid orders queued because every driver was busy");
+    private static final Metrics.Counter STOLEN = Metrics.counter("fuelgo_dispatch_stolen_total", "Orders given a driver from another shard because their own had none free");
+    private static final Metrics.Counter MOVED = Metrics.counter("fuelgo_zone_moves_total", "Idle drivers moved to the shard of the zone they are now in");
+
+    public DeliveryManager() 
+    {
+        this(DEFAULT_SHARDS, DispatchEngine::new, new DeliveryScheduler(), null);
+    }
+
+    // One shard on the given engine; waiting orders are handed out on the thread that frees a driver
+    public DeliveryManager(DispatchEngine dispatchEngine, DeliveryScheduler deliveryScheduler) 
+    {
+        this(new DispatchShard[] { new DispatchShard(0, dispatchEngine, Runnable::run) }, deliveryScheduler);
+        seedDrivers();
+    }
+
+    // executors gives each shard's executor by shard number; null starts one daemon thread per shard
+    public DeliveryManager(int shardCount, Supplier<DispatchEngine> engines, DeliveryScheduler deliveryScheduler, IntFunction<Executor> executors) 
+    {
+        this(new DispatchShard[shardCount], deliveryScheduler);
+        for (int i = 0; i < shardCount; i++) 
+        {
+            Executor executor = executors != null ? executors.apply(i) : shardThread(i);
+            shards[i] = new DispatchShard(i, engines.get(), executor);
+        }
+        seedDrivers();
+    }
+
+    private DeliveryManager(DispatchShard[] shards, DeliveryScheduler deliveryScheduler) 
+    {
+        if (shards.length < 1) throw new IllegalArgumentException("DeliveryManager needs at least one shard");
+        this.drivers = new DriverRegistry();
+        this.shards = shards;
+        this.deliveryScheduler = deliveryScheduler;
+        Metrics.gauge("fuelgo_deliveries_in_flight", "Deliveries on the road", deliveryScheduler::getInFlight);
+        Metrics.gauge("fuelgo_drivers", "Registered delivery drivers", drivers::size);
+        Metrics.gauge("fuelgo_driver_utilization", "Share of total driver capacity in use", this::getUtilization);
+        Metrics.gauge("fuelgo_dispatch_waiting", "Paid orders queued for the next free driver", this::getWaiting);
+        for (int i = 0; i < shards.length; i++) 
+        {
+            int shard = i;
+            Metrics.gauge("fuelgo_zone_drivers", "Drivers dispatched from each zone shard", () -> this.shards[shard].drivers.get(), "shard", String.valueOf(shard));
+            Metrics.gauge("fuelgo_zone_waiting", "Paid orders waiting for a driver in each zone shard", () -> this.shards[shard].waitingCount.get(), "shard", String.valueOf(shard));
+        }
+    }
+
+    // Initialize three delivery drivers around the service area
+    private void seedDrivers() 
+    {
+        updateDriverLocation(registerDriver("Amit Sharma", "9876543210"), ServiceArea.CENTRE.offset(1.0, -0.5));
+        updateDriverLocation(registerDriver("Priya Singh", "8765432109"), ServiceArea.CENTRE.offset(-2.0, 1.5));
+        updateDriverLocation(registerDriver("Rahul Verma", "7654321098"), ServiceArea.CENTRE.offset(0.5, 3.0));
+    }
+
+    private ExecutorService shardThread(int shard) 
+    {
+        ExecutorService executor = Executors.newSingleThreadExecutor(r -> 
+        {
+            Thread t = new Thread(r, "fuelgo-zone-" + shard);
+            t.setDaemon(true);
+            return t;
+        });
+        shardThreads.add(executor);
+        return executor;
+    }
+
+    // The shard owning the zone a point lies in; shard 0 for an unknown position
+    DispatchShard shardFor(GeoPoint at) 
+    {
+        if (at == null || shards.length == 1) return shards[0];
+        return shardOfZone((long) Math.floor(at.getLat() / ZONE_DEGREES), (long) Math.floor(at.getLon() / ZONE_DEGREES));
+    }
+
+    private DispatchShard shardOfZone(long zoneLat, long zoneLon) 
+    {
+        long zone = (zoneLat << 32) ^ (zoneLon & 0xffffffffL);
+        // Neighbouring zones differ in their low bits only; mix them over every shard
+        return shards[(int) Math.floorMod((zone * 0x9E3779B97F4A7C15L) >>> 32, (long) shards.length)];
+    }
+
+    private static DispatchEngine engineOf(DeliveryDriver driver) 
+    {
+        return driver.shard.engine;
+    }
+
+    public DeliveryDriver assignDriver(Order order) 
+    {
+        long start = ASSIGN_TIME.start();
+        DeliveryDriver driver = assign(order);
+        ASSIGN_TIME.recordSince(start);
+        (driver != null ? ASSIGNED : NO_DRIVER).increment();
+        return driver;
+    }
+
+    // assignDriver, except that an order finding every driver busy is queued and
+    // goes out with the next driver to come free; null means it was queued
+    public DeliveryDriver assignOrWait(Order order) 
+    {
+        DeliveryDriver driver = assignDriver(order);
+        if (driver == null) waitForDriver(order);
+        return driver;
+    }
+
+    // Whole fleet: no driver below the load cap, or paid orders queued anywhere
+    public boolean isSaturated() 
+    {
+        return getWaiting() > 0 || !hasSpareCapacity(shards[0]);
+    }
+
+    // For an order picked up at a point: its home shard already has paid orders
+    // queued, or neither it nor any shard it could steal from has a driver free
+    public boolean isSaturated(GeoPoint pickup) 
+    {
+        DispatchShard home = shardFor(pickup);
+        return home.waitingCount.get() > 0 || !hasSpareCapacity(home);
+    }
+
+    // The home shard first; the others only matter once it is full
+    private boolean hasSpareCapacity(DispatchShard home) 
+    {
+        for (int i = 0; i < shards.length; i++) 
+        {
+            if (shards[(home.id + i) % shards.length].engine.hasSpareCapacity()) return true;
+        }
+        return false;
+    }
+
+    private void waitForDriver(Order order) 
+    {
+        if (order.getStatus() != OrderStatus.PAID) return;
+        DispatchShard shard = shardFor(order.getPickup());
+        shard.waiting.addLast(order);
+        shard.waitingCount.incrementAndGet();
+        QUEUED.increment();
+        // A driver may have come free between the failed assignment and the add
+        if (hasSpareCapacity(shard)) queueDrain(shard);
+    }
+
+    // A driver of this shard came free (or joined): its own waiting orders go
+    // first, then the first other shard with any
+    private void driverFreed(DispatchShard shard) 
+    {
+        for (int i = 0; i < shards.length; i++) 
+        {
+            DispatchShard next = shards[(shard.id + i) % shards.length];
+            if (next.waitingCount.get() > 0) 
+            {
+                queueDrain(next);
+                return;
+            }
+        }
+    }
+
+    private void queueDrain(DispatchShard shard) 
+    {
+        if (!shard.drainQueued.compareAndSet(false, true)) return;
+        try 
+        {
+            shard.executor.execute(() -> drainWaiting(shard));
+        } 
+        catch (RejectedExecutionException e) 
+        {
+            // Shutting down: the orders stay Paid
+            shard.drainQueued.set(false);
+        }
+    }
+
+    // Hands the shard's longest waiting orders to drivers until none can be placed
+    private void drainWaiting(DispatchShard shard) 
+    {
+        // Cleared first, so a driver freed while this runs queues another pass
+        shard.drainQueued.set(false);
+        while (true) 
+        {
+            Order next = shard.waiting.pollFirst();
+            if (next == null) return;
+            shard.waitingCount.decrementAndGet();
+            // Cancelled while it waited
+            if (next.getStatus() != OrderStatus.PAID) continue;
+            if (assignDriver(next) == null) 
+            {
+                // Another thread took the capacity: keep the order's place at the head
+                if (next.getStatus() == OrderStatus.PAID) 
+                {
+                    shard.waiting.addFirst(next);
+                    shard.waitingCount.incrementAndGet();
+                }
+                return;
+            }
+        }
+    }
+
+    // Orders held by drivers over what they could hold; 0 with no drivers
+    public double getUtilization() 
+    {
+        long load = 0;
+        for (DeliveryDriver d : drivers.all()) load += d.getLoad();
+        long capacity = 0;
+        for (DispatchShard shard : shards) capacity += (long) shard.drivers.get() * shard.engine.getMaxLoad();
+        return capacity == 0 ? 0 : (double) load / capacity;
+    }
+
+    private DeliveryDriver assign(Order order) 
+    {
+        // A loading trip from the same bunk going the same way, else a driver of
+        // the home shard, else one stolen from another shard; null when the
+        // whole fleet is at capacity
+        if (tripLoadingMillis > 0 && order.getPickup() != null && order.getDropoff() != null) 
+        {
+            DeliveryDriver joined = joinOpenTrip(order);
+            if (joined != null) return joined;
+        }
+        DispatchShard home = shardFor(order.getPickup());
+        DeliveryDriver selectedDriver = claimNearby(home, order.getPickup());
+        if (selectedDriver == null) selectedDriver = stealNearby(home, order.getPickup());
+        if (selectedDriver == null) selectedDriver = claim(home, order.getPickup());
+        if (selectedDriver == null) selectedDriver = steal(home, order.getPickup());
+        if (selectedDriver == null) 
+	{
+            return null;
+        }
+        return handOver(selectedDriver, order);
+    }
+
+    // The shard's nearest driver with spare capacity within NEARBY_KM of the pickup
+    private DeliveryDriver claimNearby(DispatchShard shard, GeoPoint pickup) 
+    {
+        // A full shard would otherwise cost a scan of every cell in range
+        if (pickup == null || !shard.engine.hasSpareCapacity()) return null;
+        return claimNearest(shard, pickup, NEARBY_KM);
+    }
+
+    // The shard's nearest driver to the pickup with spare capacity, else its least loaded one
+    private DeliveryDriver claim(DispatchShard shard, GeoPoint pickup) 
+    {
+        if (!shard.engine.hasSpareCapacity()) return null;
+        DeliveryDriver driver = pickup == null ? null : claimNearest(shard, pickup, ServiceArea.MAX_DELIVERY_KM);
+        return driver != null ? driver : shard.engine.assign();
+    }
+
+    // The home shard has no driver free near the pickup: a nearby driver of a
+    // shard owning one of the zones around it
+    private DeliveryDriver stealNearby(DispatchShard home, GeoPoint pickup) 
+    {
+        if (pickup == null || shards.length == 1) return null;
+        long zoneLat = (long) Math.floor(pickup.getLat() / ZONE_DEGREES);
+        long zoneLon = (long) Math.floor(pickup.getLon() / ZONE_DEGREES);
+        for (int i = 0; i < 9; i++) 
+        {
+            DispatchShard next = shardOfZone(zoneLat + i / 3 - 1, zoneLon + i % 3 - 1);
+            DeliveryDriver driver = next == home ? null : claimNearby(next, pickup);
+            if (driver != null) 
+            {
+                STOLEN.increment();
+                return driver;
+            }
+        }
+        return null;
+    }
+
+    // The home shard has no driver free at all: any driver of the next shard that has one
+    private DeliveryDriver steal(DispatchShard home, GeoPoint pickup) 
+    {
+        for (int i = 1; i < shards.length; i++) 
+        {
+            DeliveryDriver driver = claim(shards[(home.id + i) % shards.length], pickup);
+            if (driver != null) 
+            {
+                STOLEN.increment();
+                return driver;
+            }
+        }
+        return null;
+    }
+
+    // Assigns to a specific driver chosen by the batch matcher; null if they filled up meanwhile
+    DeliveryDriver assignTo(Order order, DeliveryDriver driver) 
+    {
+        if (!engineOf(driver).tryClaim(driver)) return null;
+        return handOver(driver, order);
+    }
+
+    // Capacity is already claimed on the driver
+    private DeliveryDriver handOver(DeliveryDriver selectedDriver, Order order) 
+    {
+        if (!selectedDriver.acceptOrder(order)) 
+        {
+            // Not paid yet, or already assigned by another thread
+            engineOf(selectedDriver).release(selectedDriver);
+            return null;
+        }
+        GeoPoint at = selectedDriver.getLocation();
+        if (at != null && order.getPickup() != null) order.setPickupDistance(at.distanceKm(order.getPickup()));
+        return startDelivery(selectedDriver, order) ? selectedDriver : null;
+    }
+
+    // Collects paid orders for windowMillis and matches each window as a batch
+    public synchronized void enableBatching(long windowMillis) 
+    {
+        if (batchDispatcher == null) batchDispatcher = new BatchDispatcher(this, windowMillis);
+    }
+
+    // Batched when enabled, otherwise assigned on the order's home shard; completes
+    // with null when no driver is free, and the order then waits for the next one
+    public CompletionStage<DeliveryDriver> dispatch(Order order) 
+    {
+        BatchDispatcher batcher = batchDispatcher;
+        if (batcher == null) 
+        {
+            try 
+            {
+                return CompletableFuture.supplyAsync(() -> assignOrWait(order), shardFor(order.getPickup()).executor);
+            } 
+            catch (RejectedExecutionException e) 
+            {
+                // Shard executors stop on shutdown; a late order is assigned here instead
+                return CompletableFuture.completedFuture(assignOrWait(order));
+            }
+        }
+        return batcher.submit(order).thenApply(driver -> 
+        {
+            if (driver == null) waitForDriver(order);
+            return driver;
+        });
+    }
+
+    // Up to k nearest drivers to the pickup with spare capacity, from its home
+    // shard unless that has none free, then from the first shard that has
+    List<DeliveryDriver> candidatesFor(GeoPoint pickup, int k) 
+    {
+        DispatchShard home = shardFor(pickup);
+        for (int i = 0; i < shards.length; i++) 
+        {
+            DispatchShard shard = shards[(home.id + i) % shards.length];
+            if (!shard.engine.hasSpareCapacity()) continue;
+            List<DeliveryDriver> near = shard.locations.nearest(pickup, k, ServiceArea.MAX_DELIVERY_KM, DeliveryManager::hasCapacity);
+            if (!near.isEmpty()) return near;
+        }
+        return Collections.emptyList();
+    }
+
+    int spareCapacity(DeliveryDriver driver) 
+    {
+        return Math.max(0, engineOf(driver).getMaxLoad() - driver.getLoad());
+    }
+
+    private static boolean hasCapacity(DeliveryDriver driver) 
+    {
+        return engineOf(driver).hasCapacity(driver);
+    }
+
+    private DeliveryDriver claimNearest(DispatchShard shard, GeoPoint pickup, double maxKm) 
+    {
+        for (DeliveryDriver driver : shard.locations.nearest(pickup, NEAREST_CANDIDATES, maxKm, DeliveryManager::hasCapacity)) 
+        {
+            if (shard.engine.tryClaim(driver)) return driver;
+        }
+        return null;
+    }
+
+    // Records a driver's reported position; ignored for unknown drivers.
+    // Per-driver lock: a concurrent report could otherwise move the driver on
+    // between reading its shard and indexing it there, leaving a stale entry
+    public void updateDriverLocation(DeliveryDriver driver, GeoPoint at) 
+    {
+        if (driver == null || at == null) return;
+        synchronized (driver) 
+        {
+            driver.setLocation(at);
+            moveToZone(driver, shardFor(at));
+            DispatchShard shard = driver.shard;
+            if (shard != null) shard.locations.put(driver, at);
+        }
+    }
+
+    // Idle drivers follow their position into its zone's shard; busy ones move
+    // once their trip ends and the final position is reported
+    private void moveToZone(DeliveryDriver driver, DispatchShard target) 
+    {
+        DispatchShard current = driver.shard;
+        if (current == target || current == null) return;
+        if (!current.engine.removeIdle(driver)) return;
+        current.locations.remove(driver);
+        current.drivers.decrementAndGet();
+        driver.shard = target;
+        target.engine.addDriver(driver);
+        target.drivers.incrementAndGet();
+        MOVED.increment();
+    }
+
+    public DeliveryDriver updateDriverLocation(String phone, GeoPoint at) 
+    {
+        DeliveryDriver driver = drivers.findByPhone(phone);
+        updateDriverLocation(driver, at);
+        return driver;
+    }
+
+    // Drivers with spare capacity within km of a point, nearest first, from every shard
+    public List<DeliveryDriver> driversNear(GeoPoint at, double km) 
+    {
+        if (shards.length == 1) return shards[0].locations.withinRadius(at, km, DeliveryManager::hasCapacity);
+        // Distances are taken once, as positions may move while the merge sorts
+        Map<DeliveryDriver, Double> distance = new HashMap<>();
+        for (DispatchShard shard : shards) 
+        {
+            for (DeliveryDriver d : shard.locations.withinRadius(at, km, DeliveryManager::hasCapacity)) distance.put(d, d.getLocation().distanceKm(at));
+        }
+        List<DeliveryDriver> near = new ArrayList<>(distance.keySet());
+        near.sort(Comparator.comparingDouble(distance::get));
+        return near;
+    }
+
+    // Sends a recovered order back out with the driver who had it, or any driver if they are gone
+    public DeliveryDriver resumeDelivery(Order order, String driverPhone) 
+    {
+        DeliveryDriver driver = driverPhone == null ? null : drivers.findByPhone(driverPhone);
+        if (driver == null || !engineOf(driver).claim(driver)) return assignOrWait(order);
+        if (!driver.acceptOrder(order)) 
+        {
+            engineOf(driver).release(driver);
+            return null;
+        }
+        return startDelivery(driver, order) ? driver : null;
+    }
+
+    // Orders placed while a driver's bowser is loading can ride along on one trip
+    public void enableRouteBatching(long loadingMillis) 
+    {
+        this.tripLoadingMillis = loadingMillis;
+    }
+
+    private DeliveryDriver joinOpenTrip(Order order) 
+    {
+        Queue<DeliveryTrip> trips = openTrips.get(DeliveryTrip.key(order));
+        if (trips == null) return null;
+        for (DeliveryTrip trip : trips) 
+        {
+            if (!trip.tryAdd(order, MAX_TRIP_STOPS, MAX_TRIP_DETOUR_KM)) continue;
+            DeliveryDriver driver = trip.getDriver();
+            OrderJournal j = journal;
+            if (j != null) j.driverAssigned(order, driver);
+            GeoPoint at = driver.getLocation();
+            if (at != null) order.setPickupDistance(at.distanceKm(order.getPickup()));
+            return driver;
+        }
+        return null;
+    }
+
+    // The order is the first stop; the trip leaves once the loading window is over
+    private boolean openTrip(DeliveryDriver driver, Order order) 
+    {
+        DeliveryTrip trip = new DeliveryTrip(driver, order);
+        Queue<DeliveryTrip> trips = openTrips.computeIfAbsent(trip.key(), k -> new ConcurrentLinkedQueue<>());
+        trips.add(trip);
+        if (!deliveryScheduler.runLater(() -> depart(trip), tripLoadingMillis)) 
+        {
+            trips.remove(trip);
+            return false;
+        }
+        OrderJournal j = journal;
+        if (j != null) j.driverAssigned(order, driver);
+        return true;
+    }
+
+    // Plans the stop order, stamps every order with its estimate and starts the trip
+    private void depart(DeliveryTrip trip) 
+    {
+        Queue<DeliveryTrip> trips = openTrips.get(trip.key());
+        if (trips != null) trips.remove(trip);
+        List<Order> stops = trip.depart();
+        DeliveryDriver driver = trip.getDriver();
+        GeoPoint[] drops = new GeoPoint[stops.size()];
+        for (int i = 0; i < drops.length; i++) drops[i] = stops.get(i).getDropoff();
+        int[] sequence = RoutePlanner.plan(trip.getStart(), drops);
+        double[] cumulative = RoutePlanner.cumulativeKm(trip.getStart(), drops, sequence);
+        GeoPoint at = driver.getLocation();
+        double pickupKm = at == null ? 0 : at.distanceKm(trip.getStart());
+
+        List<Order> route = new ArrayList<>(stops.size());
+        int[] minutes = new int[stops.size()];
+        for (int i = 0; i < sequence.length; i++) 
+        {
+            Order o = stops.get(sequence[i]);
+            route.add(o);
+            minutes[i] = (int) ((pickupKm + cumulative[i]) * 2 + 10);
+            o.setRouteDistance(pickupKm + cumulative[i]);
+        }
+        GeoPoint lastDrop = drops[sequence[sequence.length - 1]];
+        Runnable onComplete = () -> 
+        {
+            engineOf(driver).release(driver);
+            updateDriverLocation(driver, lastDrop);
+            driverFreed(driver.shard);
+        };
+        if (!deliveryScheduler.scheduleRoute(driver, route, minutes, onComplete)) 
+        {
+            // Delivery pipeline is full or shutting down: every stop goes back in
+            // line, as assignOrWait does for a single order
+            for (Order o : route) 
+            {
+                driver.dropOrder(o);
+                o.transition(OrderStatus.ASSIGNED, OrderStatus.PAID);
+            }
+            engineOf(driver).release(driver);
+            for (Order o : route) waitForDriver(o);
+            driverFreed(driver.shard);
+        }
+    }
+
+    private boolean startDelivery(DeliveryDriver selectedDriver, Order order) 
+    {
+        if (tripLoadingMillis > 0 && order.getPickup() != null && order.getDropoff() != null) 
+        {
+            if (openTrip(selectedDriver, order)) return true;
+            selectedDriver.dropOrder(order);
+            order.transition(OrderStatus.ASSIGNED, OrderStatus.PAID);
+            engineOf(selectedDriver).release(selectedDriver);
+            return false;
+        }
+        OrderJournal j = journal;
+        if (j != null) j.driverAssigned(order, selectedDriver);
+        Runnable onComplete = () -> 
+        {
+            engineOf(selectedDriver).release(selectedDriver);
+            // The driver ends the trip at the customer's door
+            if (order.getDropoff() != null && order.getStatus() == OrderStatus.DELIVERED) updateDriverLocation(selectedDriver, order.getDropoff());
+            driverFreed(selectedDriver.shard);
+        };
+        if (!deliveryScheduler.schedule(selectedDriver, order, onComplete)) 
+        {
+            // Delivery pipeline is full or shutting down: undo the assignment
+            selectedDriver.dropOrder(order);
+            order.transition(OrderStatus.ASSIGNED, OrderStatus.PAID);
+            engineOf(selectedDriver).release(selectedDriver);
+            return false;
+        }
+        return true;
+    }
+
+    public void setJournal(OrderJournal journal) 
+    {
+        this.journal = journal;
+    }
+
+    public DeliveryScheduler getDeliveryScheduler() 
+    { 
+	return deliveryScheduler; 
+    }
+    // Null unless enableBatching was called
+    public BatchDispatcher getBatchDispatcher() 
+    { 
+	return batchDispatcher; 
+    }
+    // Paid orders queued for a driver; may still count some cancelled while they waited
+    public int getWaiting() 
+    {
+        int waiting = 0;
+        for (DispatchShard shard : shards) waiting += shard.waitingCount.get();
+        return waiting;
+    }
+    public int getShardCount() 
+    { 
+	return shards.length; 
+    }
+    // Drivers dispatched from each shard, by shard number
+    public int[] getShardDrivers() 
+    {
+        int[] counts = new int[shards.length];
+        for (int i = 0; i < counts.length; i++) counts[i] = shards[i].drivers.get();
+        return counts;
+    }
+
+    // Waits for in-flight deliveries before the app exits
+    public void shutdown(long timeout, TimeUnit unit) 
+    {
+        BatchDispatcher batcher = batchDispatcher;
+        if (batcher != null) batcher.shutdown();
+        try 
+        {
+            if (!deliveryScheduler.shutdown(timeout, unit)) 
+            {
+                int dropped = deliveryScheduler.shutdownNow();
+                System.out.println(Colors.RED + dropped + " deliveries did not finish before shutdown." + Colors.RESET);
+            }
+        } 
+        catch (InterruptedException e) 
+        {
+            deliveryScheduler.shutdownNow();
+            Thread.currentThread().interrupt();
+        } 
+        finally 
+        {
+            for (ExecutorService executor : shardThreads) executor.shutdown();
+        }
+    }
+
+    // Returns the new driver, or null if the phone number is already registered
+    public DeliveryDriver registerDriver(String name, String phone) 
+    {
+        DeliveryDriver driver = new DeliveryDriver(name, phone);
+        if (!drivers.registerIfAbsent(driver)) return null;
+        // No position yet: spread over the shards until one is reported
+        DispatchShard shard = shards[Math.floorMod(phone.hashCode(), shards.length)];
+        driver.shard = shard;
+        shard.engine.addDriver(driver);
+        shard.drivers.incrementAndGet();
+        OrderJournal j = journal;
+        if (j != null) j.driverRegistered(driver);
+        driverFreed(shard);
+        return driver;
+    }
+
+    public DeliveryDriver loginDriver(String phone, Scanner sc) 
+    {
+        DeliveryDriver driver = drivers.findByPhone(phone);
+        if (driver != null && OTPService.verifyOTP(phone, sc)) 
+	{
+            return driver;
+        }
+        return null;
+    }
+
+    public boolean isPhoneNumberRegistered(String phone) 
+    {
+        return drivers.isRegistered(phone);
+    }
+
+    public DriverRegistry getDriverRegistry() 
+    { 
+	return drivers; 
+    }
+}
+
+// Solves one dispatch window: matches orders to drivers minimising total cost,
+// where cost[i][j] is driver j's cost for order i (pickup distance plus load)
+// and every extra order stacked on one driver adds loadPenalty. Batches of up
+// to exactLimit orders get an exact assignment (Hungarian algorithm, O(n^2 m)
+// over driver slots); larger ones a greedy cheapest-edge-first pass.
+final class BatchMatcher 
+{
+    // Cost marking a pair that must not be matched
+    public static final double NO_MATCH = 1e9;
+
+    private BatchMatcher() 
+    {
+    }
+
+    // Driver index for each order, or -1 if the order stays unmatched
+    public static int[] match(double[][] cost, int[] capacity, double loadPenalty, int exactLimit) 
+    {
+        return cost.length <= exactLimit ? hungarian(cost, capacity, loadPenalty) : greedy(cost, capacity, loadPenalty);
+    }
+
+    public static int[] greedy(double[][] cost, int[] capacity, double loadPenalty) 
+    {
+        int n = cost.length;
+        int[] assigned = new int[n];
+        Arrays.fill(assigned, -1);
+        int[] used = new int[capacity.length];
+        // Edges are re-queued at their new price when a driver has picked up more orders since
+        PriorityQueue<double[]> edges = new PriorityQueue<>((a, b) -> Double.compare(a[0], b[0]));
+        for (int i = 0; i < n; i++) 
+        {
+            for (int j = 0; j < capacity.length; j++) 
+            {
+                if (cost[i][j] < NO_MATCH && capacity[j] > 0) edges.add(new double[] { cost[i][j], i, j, 0 });
+            }
+        }
+        while (!edges.isEmpty()) 
+        {
+            double[] edge = edges.poll();
+            int i = (int) edge[1], j = (int) edge[2];
+            if (assigned[i] >= 0 || used[j] >= capacity[j]) continue;
+            if ((int) edge[3] != used[j]) 
+            {
+                edges.add(new double[] { cost[i][j] + loadPenalty * used[j], i, j, used[j] });
+                continue;
+            }
+            assigned[i] = j;
+            used[j]++;
+        }
+        return assigned;
+    }
+
+    public static int[] hungarian(double[][] cost, int[] capacity, double loadPenalty) 
+    {
+        int n = cost.length;
+        int[] assigned = new int[n];
+        Arrays.fill(assigned, -1);
+        if (n == 0) return assigned;
+        // One column per driver slot (the k-th order on a driver costs k * loadPenalty
+        // more), then n "stay unmatched" columns so a full assignment always exists
+        int slots = 0;
+        for (int c : capacity) slots += Math.min(c, n);
+        int m = slots + n;
+        int[] slotDriver = new int[m + 1];
+        double[] slotExtra = new double[m + 1];
+        int col = 1;
+        for (int j = 0; j < capacity.length; j++) 
+        {
+            for (int k = 0; k < Math.min(capacity[j], n); k++, col++) 
+            {
+                slotDriver[col] = j;
+                slotExtra[col] = loadPenalty * k;
+            }
+        }
+        for (; col <= m; col++) slotDriver[col] = -1;
+
+        double[] u = new double[n + 1];
+        double[] v = new double[m + 1];
+        int[] rowOf = new int[m + 1];
+        int[] way = new int[m + 1];
+        double[] minv = new double[m + 1];
+        boolean[] done = new boolean[m + 1];
+        for (int i = 1; i <= n; i++) 
+        {
+            rowOf[0] = i;
+            int j0 = 0;
+            Arrays.fill(minv, Double.MAX_VALUE);
+            Arrays.fill(done, false);
+            do 
+            {
+                done[j0] = true;
+                int i0 = rowOf[j0];
+                int j1 = 0;
+                double delta = Double.MAX_VALUE;
+                for (int j = 1; j <= m; j++) 
+                {
+                    if (done[j]) continue;
+                    double c = slotDriver[j] < 0 ? NO_MATCH : Math.min(NO_MATCH, cost[i0 - 1][slotDriver[j]] + slotExtra[j]);
+                    double reduced = c - u[i0] - v[j];
+                    if (reduced < minv[j]) 
+                    {
+                        minv[j] = reduced;
+                        way[j] = j0;
+                    }
+                    if (minv[j] < delta) 
+                    {
+                        delta = minv[j];
+                        j1 = j;
+                    }
+                }
+                for (int j = 0; j <= m; j++) 
+                {
+                    if (done[j]) 
+                    {
+                        u[rowOf[j]] += delta;
+                        v[j] -= delta;
+                    } 
+                    else 
+                    {
+                        minv[j] -= delta;
+                    }
+                }
+                j0 = j1;
+            } 
+            while (rowOf[j0] != 0);
+            do 
+            {
+                int j1 = way[j0];
+                rowOf[j0] = rowOf[j1];
+                j0 = j1;
+            } 
+            while (j0 != 0);
+        }
+        for (int j = 1; j <= m; j++) 
+        {
+            int i = rowOf[j] - 1;
+            if (i >= 0 && slotDriver[j] >= 0 && cost[i][slotDriver[j]] < NO_MATCH) assigned[i] = slotDriver[j];
+        }
+        return assigned;
+    }
+}
+
+// Batched dispatch: paid orders queue up for one window (2 s by default) and
+// are then matched together against the nearest drivers of every order in the
+// window, instead of each taking the best driver left at the moment it was
+// paid. Orders the matcher cannot place (no located driver nearby, or the
+// chosen driver filled up meanwhile) go through the per-order assignDriver.
+class BatchDispatcher 
+{
+    public static final long DEFAULT_WINDOW_MILLIS = 2000;
+    public static final int DEFAULT_EXACT_LIMIT = 64;
+    // Candidate drivers per order
+    public static final int DEFAULT_CANDIDATES = 8;
+    // One queued order on a driver weighs like this many extra km of pickup
+    public static final double DEFAULT_LOAD_PENALTY_KM = 0.5;
+
+    private static final class Pending 
+    {
+        final Order order;
+        final CompletableFuture<DeliveryDriver> result = new CompletableFuture<>();
+
+        Pending(Order order) 
+        {
+            this.order = order;
+        }
+    }
+
+    private final DeliveryManager manager;
+    private final ConcurrentLinkedQueue<Pending> queue = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService window;
+    private final int exactLimit;
+    private final int candidates;
+    private final double loadPenaltyKm;
+    private final LongAdder windows = new LongAdder();
+    private final LongAdder matched = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+    private volatile boolean accepting = true;
+
+    public BatchDispatcher(DeliveryManager manager, long windowMillis) 
+    {
+        this(manager, windowMillis, DEFAULT_EXACT_LIMIT, DEFAULT_CANDIDATES, DEFAULT_LOAD_PENALTY_KM);
+    }
+
+    public BatchDispatcher(DeliveryManager manager, long windowMillis, int exactLimit, int candidates, double loadPenaltyKm) 
+    {
+        this.manager = manager;
+        this.exactLimit = exactLimit;
+        this.candidates = candidates;
+        this.loadPenaltyKm = loadPenaltyKm;
+        this.window = Executors.newSingleThreadScheduledExecutor(r -> 
+        {
+            Thread t = new Thread(r, "fuelgo-dispatch-window");
+            t.setDaemon(true);
+            return t;
+        });
+        window.scheduleWithFixedDelay(this::runWindow, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Completes with the driver once the order's window has been matched
+    public CompletableFuture<DeliveryDriver> submit(Order order) 
+    {
+        if (!accepting) return CompletableFuture.completedFuture(manager.assignDriver(order));
+        Pending pending = new Pending(order);
+        queue.add(pending);
+        // Shutdown began meanwhile: if its last window did not pick the order up, no window will
+        if (!accepting && queue.remove(pending)) return CompletableFuture.completedFuture(manager.assignDriver(order));
+        return pending.result;
+    }
+
+    private void runWindow() 
+    {
+        List<Pending> batch = new ArrayList<>();
+        for (Pending p; (p = queue.poll()) != null; ) batch.add(p);
+        if (batch.isEmpty()) return;
+        windows.increment();
+        try 
+        {
+            matchBatch(batch);
+        } 
+        catch (RuntimeException e) 
+        {
+            System.out.println(Colors.RED + "Batch dispatch failed: " + e + Colors.RESET);
+        }
+        // Anything the batch did not place is assigned one by one
+        for (Pending p : batch) 
+        {
+            if (p.result.isDone()) continue;
+            fallbacks.increment();
+            try 
+            {
+                p.result.complete(manager.assignDriver(p.order));
+            } 
+            catch (RuntimeException e) 
+            {
+                p.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void matchBatch(List<Pending> batch) 
+    {
+        List<Pending> located = new ArrayList<>(batch.size());
+        List<List<DeliveryDriver>> options = new ArrayList<>(batch.size());
+        Map<DeliveryDriver, Integer> column = new HashMap<>();
+        List<DeliveryDriver> drivers = new ArrayList<>();
+        for (Pending p : batch) 
+        {
+            if (p.order.getPickup() == null) continue;
+            List<DeliveryDriver> near = manager.candidatesFor(p.order.getPickup(), candidates);
+            if (near.isEmpty()) continue;
+            located.add(p);
+            options.add(near);
+            for (DeliveryDriver d : near) 
+            {
+                if (column.putIfAbsent(d, drivers.size()) == null) drivers.add(d);
+            }
+        }
+        if (located.isEmpty()) return;
+
+        double[][] cost = new double[located.size()][drivers.size()];
+        int[] capacity = new int[drivers.size()];
+        for (int j = 0; j < capacity.length; j++) capacity[j] = manager.spareCapacity(drivers.get(j));
+        for (int i = 0; i < cost.length; i++) 
+        {
+            Arrays.fill(cost[i], BatchMatcher.NO_MATCH);
+            GeoPoint pickup = located.get(i).order.getPickup();
+            for (DeliveryDriver d : options.get(i)) 
+            {
+                GeoPoint at = d.getLocation();
+                if (at == null) continue;
+                cost[i][column.get(d)] = at.distanceKm(pickup) + loadPenaltyKm * d.getLoad();
+            }
+        }
+        int[] assignment = BatchMatcher.match(cost, capacity, loadPenaltyKm, exactLimit);
+        for (int i = 0; i < assignment.length; i++) 
+        {
+            if (assignment[i] < 0) continue;
+            Pending p = located.get(i);
+            DeliveryDriver driver = manager.assignTo(p.order, drivers.get(assignment[i]));
+            if (driver != null) 
+            {
+                matched.increment();
+                p.result.complete(driver);
+            }
+        }
+    }
+
+    // Matches what is still queued, then stops the window timer
+    public void shutdown() 
+    {
+        accepting = false;
+        window.shutdown();
+        try 
+        {
+            window.awaitTermination(5, TimeUnit.SECONDS);
+        } 
+        catch (InterruptedException e) 
+        {
+            Thread.currentThread().interrupt();
+        }
+        runWindow();
+    }
+
+    public String metrics() 
+    {
+        return "windows=" + windows.sum() + " matched=" + matched.sum() + " fallbacks=" + fallbacks.sum() + " queued=" + queue.size();
+    }
+}
+
+// Orders the stops of one trip as an open path from the bunk: nearest
+// neighbour for a first tour, then 2-opt segment reversals until no reversal
+// shortens it. 50 stops plan in well under a millisecond.
+final class RoutePlanner 
+{
+    private RoutePlanner() 
+    {
+    }
+
+    // Indexes into stops in visiting order
+    public static int[] plan(GeoPoint start, GeoPoint[] stops) 
+    {
+        int n = stops.length;
+        // Node 0 is the bunk, node i + 1 is stops[i]
+        double[][] km = new double[n + 1][n + 1];
+        for (int a = 0; a <= n; a++) 
+        {
+            GeoPoint pa = a == 0 ? start : stops[a - 1];
+            for (int b = a + 1; b <= n; b++) 
+            {
+                km[a][b] = km[b][a] = pa.distanceKm(stops[b - 1]);
+            }
+        }
+
+        int[] tour = new int[n + 1];
+        boolean[] visited = new boolean[n + 1];
+        visited[0] = true;
+        for (int pos = 1; pos <= n; pos++) 
+        {
+            int from = tour[pos - 1], next = -1;
+            for (int c = 1; c <= n; c++) 
+            {
+                if (!visited[c] && (next < 0 || km[from][c] < km[from][next])) next = c;
+            }
+            tour[pos] = next;
+            visited[next] = true;
+        }
+
+        boolean improved = true;
+        for (int pass = 0; improved && pass < 100; pass++) 
+        {
+            improved = false;
+            for (int i = 1; i < n; i++) 
+            {
+                for (int j = i + 1; j <= n; j++) 
+                {
+                    // Reversing tour[i..j]; the path is open, so the last stop has no successor
+                    double before = km[tour[i - 1]][tour[i]] + (j < n ? km[tour[j]][tour[j + 1]] : 0);
+                    double after = km[tour[i - 1]][tour[j]] + (j < n ? km[tour[i]][tour[j + 1]] : 0);
+                    if (after < before - 1e-9) 
+                    {
+                        for (int a = i, b = j; a < b; a++, b--) 
+                        {
+                            int t = tour[a];
+                            tour[a] = tour[b];
+                            tour[b] = t;
+                        }
+                        improved = true;
+                    }
+                }
+            }
+        }
+
+        int[] sequence = new int[n];
+        for (int pos = 1; pos <= n; pos++) sequence[pos - 1] = tour[pos] - 1;
+        return sequence;
+    }
+
+    // Distance driven from the bunk to each stop, in visiting order
+    public static double[] cumulativeKm(GeoPoint start, GeoPoint[] stops, int[] sequence) 
+    {
+        double[] cumulative = new double[sequence.length];
+        GeoPoint at = start;
+        double total = 0;
+        for (int i = 0; i < sequence.length; i++) 
+        {
+            total += at.distanceKm(stops[sequence[i]]);
+            cumulative[i] = total;
+            at = stops[sequence[i]];
+        }
+        return cumulative;
+    }
+}
+
+// One driver's run from one bunk with one fuel type. Compatible orders (same
+// bunk and fuel, dropping off near an existing stop) join while the bowser is
+// loading, up to the driver's tank liters and a stop limit; departure freezes it.
+class DeliveryTrip 
+{
+    private final DeliveryDriver driver;
+    private final String bunk;
+    private final String fuelType;
+    private final GeoPoint start;
+    private final double tankLiters;
+    private final List<Order> stops = new ArrayList<>();
+    private double liters;
+    private boolean departed;
+
+    DeliveryTrip(DeliveryDriver driver, Order first) 
+    {
+        this.driver = driver;
+        this.bunk = first.getBunkName();
+        this.fuelType = first.getFuel().getType();
+        this.start = first.getPickup();
+        this.tankLiters = driver.getTankLiters();
+        stops.add(first);
+        liters = first.getLiters();
+    }
+
+    // The driver accepts the order under the trip's lock, so departure sees it either
+    // as a stop or not at all, never as a paid order that is about to be assigned
+    synchronized boolean tryAdd(Order o, int maxStops, double maxDetourKm) 
+    {
+        if (departed || stops.size() >= maxStops || liters + o.getLiters() > tankLiters) return false;
+        if (!o.getBunkName().equals(bunk) || !o.getFuel().getType().equals(fuelType) || o.getDropoff() == null) return false;
+        for (Order s : stops) 
+        {
+            if (s.getDropoff().distanceKm(o.getDropoff()) <= maxDetourKm) 
+            {
+                if (!driver.acceptOrder(o)) return false;
+                stops.add(o);
+                liters += o.getLiters();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Closes the trip to new orders and returns its stops
+    synchronized List<Order> depart() 
+    {
+        departed = true;
+        return new ArrayList<>(stops);
+    }
+
+    public DeliveryDriver getDriver() 
+    { 
+	return driver; 
+    }
+    public GeoPoint getStart() 
+    { 
+	return start; 
+    }
+    // Open trips are filed under bunk and fuel type
+    String key() 
+    { 
+	return bunk + '\u0000' + fuelType; 
+    }
+    static String key(Order o) 
+    { 
+	return o.getBunkName() + '\u0000' + o.getFuel().getType(); 
+    }
+}
+
+// Fuel classes
+abstract class Fuel 
+{
+    protected String type;
+    protected double pricePerLiter;
+
+    public Fuel(String t, double p) 
+    {
+        this.type = t;
+        this.pricePerLiter = p;
+    }
+
+    public abstract double calculateCost(double l);
+    public long calculateCostPaise(double l) 
+    { 
+	return Money.toPaise(calculateCost(l)); 
+    }
+    public String getType() 
+    { 
+	return type; 
+    }
+    public double getPricePerLiter() 
+    { 
+	return pricePerLiter; 
+    }
+
+    public static Fuel of(String type, double price) 
+    {
+        switch (type) 
+        {
+            case "Petrol95": return new Petrol95(price);
+            case "Diesel":   return new Diesel(price);
+            default:         throw new IllegalArgumentException("Unknown fuel type: " + type);
+        }
+    }
+}
+
+class Petrol95 extends Fuel 
+{
+    public Petrol95(double p) 
+    { 
+	super("Petrol95", p); 
+    }
+    public double calculateCost(double l) 
+    { 
+	return l * pricePerLiter; 
+    }
+}
+
+class Diesel extends Fuel 
+{
+    public Diesel(double p)  
+    { 
+	super("Diesel", p); 
+    }
+    public double calculateCost(double l) 
+    { 
+	return l * pricePerLiter; 
+    }
+}
+
+// One published price: a bunk's price for one fuel type in one catalog version.
+// The Fuel is built once per price change and shared by every order billed at it.
+final class FuelPrice 
+{
+    private final String bunk;
+    private final Fuel fuel;
+    private final long version;
+
+    FuelPrice(String bunk, Fuel fuel, long version) 
+    {
+        this.bunk = bunk;
+        this.fuel = fuel;
+        this.version = version;
+    }
+
+    // FuelCatalog.ANY_BUNK for a default price
+    public String getBunk() 
+    { 
+	return bunk; 
+    }
+    public Fuel getFuel() 
+    { 
+	return fuel; 
+    }
+    public String getFuelType() 
+    { 
+	return fuel.getType(); 
+    }
+    public double getPricePerLiter() 
+    { 
+	return fuel.getPricePerLiter(); 
+    }
+    public long getVersion() 
+    { 
+	return version; 
+    }
+}
+
+// Fuel prices by bunk and fuel type, with per-type defaults for bunks that set
+// none. Readers take the current snapshot with one volatile read and never lock.
+// Writers copy the outer map plus the inner maps they touch, apply a whole batch
+// and publish it as one new version, so no order is priced from half an update.
+class FuelCatalog 
+{
+    public static final String ANY_BUNK = "*";
+
+    // A price change for load/update; bunk ANY_BUNK sets the default
+    public static final class PriceRow 
+    {
+        final String bunk;
+        final String fuelType;
+        final double price;
+
+        public PriceRow(String bunk, String fuelType, double price) 
+        {
+            this.bunk = bunk;
+            this.fuelType = fuelType;
+            this.price = price;
+        }
+    }
+
+    private final Object writeLock = new Object();
+    // bunk -> fuel type -> price; published maps are never modified again
+    private volatile Map<String, Map<String, FuelPrice>> snapshot = Collections.emptyMap();
+    private long version;
+
+    // The standard prices: Petrol95 at 110 and Diesel at 95 everywhere
+    public static FuelCatalog defaults() 
+    {
+        FuelCatalog catalog = new FuelCatalog();
+        catalog.update(Arrays.asList(new PriceRow(ANY_BUNK, "Petrol95", 110), new PriceRow(ANY_BUNK, "Diesel", 95)));
+        return catalog;
+    }
+
+    // The bunk's own price, else the default; null if the fuel is not sold
+    public FuelPrice price(String bunk, String fuelType) 
+    {
+        Map<String, Map<String, FuelPrice>> current = snapshot;
+        Map<String, FuelPrice> atBunk = current.get(bunk);
+        FuelPrice price = atBunk == null ? null : atBunk.get(fuelType);
+        if (price != null) return price;
+        Map<String, FuelPrice> defaults = current.get(ANY_BUNK);
+        return defaults == null ? null : defaults.get(fuelType);
+    }
+
+    // Every fuel on sale at the bunk, defaults first in catalog order
+    public List<FuelPrice> pricesAt(String bunk) 
+    {
+        Map<String, Map<String, FuelPrice>> current = snapshot;
+        Map<String, FuelPrice> merged = new LinkedHashMap<>(current.getOrDefault(ANY_BUNK, Collections.emptyMap()));
+        merged.putAll(current.getOrDefault(bunk, Collections.emptyMap()));
+        return new ArrayList<>(merged.values());
+    }
+
+    public long setPrice(String bunk, String fuelType, double price) 
+    {
+        return update(Collections.singletonList(new PriceRow(bunk, fuelType, price)));
+    }
+
+    // Publishes all rows as one new version and returns it; rejects the whole batch on a bad row
+    public long update(Collection<PriceRow> rows) 
+    {
+        synchronized (writeLock) 
+        {
+            long next = version + 1;
+            Map<String, Map<String, FuelPrice>> published = new HashMap<>(snapshot);
+            Set<String> copied = new HashSet<>();
+            // Rows at the same fuel and price share one Fuel
+            Map<String, Fuel> fuels = new HashMap<>();
+            for (PriceRow row : rows) 
+            {
+                if (row.bunk == null || row.bunk.isEmpty()) throw new IllegalArgumentException("Missing bunk for " + row.fuelType);
+                if (!(row.price > 0)) throw new IllegalArgumentException("Invalid price for " + row.bunk + "/" + row.fuelType + ": " + row.price);
+                Fuel fuel = fuels.get(row.fuelType + '@' + row.price);
+                if (fuel == null) 
+                {
+                    fuel = Fuel.of(row.fuelType, row.price);
+                    fuels.put(row.fuelType + '@' + row.price, fuel);
+                }
+                Map<String, FuelPrice> atBunk = published.get(row.bunk);
+                if (copied.add(row.bunk)) 
+                {
+                    atBunk = atBunk == null ? new LinkedHashMap<>() : new LinkedHashMap<>(atBunk);
+                    published.put(row.bunk, atBunk);
+                }
+                atBunk.put(row.fuelType, new FuelPrice(row.bunk, fuel, next));
+            }
+            version = next;
+            snapshot = published;
+            return next;
+        }
+    }
+
+    // Loads "bunk,fuelType,price" lines (# starts a comment, * is the default
+    // bunk) and publishes them as one version. One pass over the file text with
+    // indexOf, no regex or split, so tens of thousands of rows load in milliseconds.
+    public int load(Path file) throws IOException 
+    {
+        String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        List<PriceRow> rows = new ArrayList<>();
+        int line = 0;
+        for (int start = 0; start < text.length(); ) 
+        {
+            int end = text.indexOf('\n', start);
+            if (end < 0) end = text.length();
+            int lineEnd = end > start && text.charAt(end - 1) == '\r' ? end - 1 : end;
+            line++;
+            if (lineEnd > start && text.charAt(start) != '#') 
+            {
+                int first = text.indexOf(',', start);
+                int second = first < 0 ? -1 : text.indexOf(',', first + 1);
+                if (first < 0 || second < 0 || second >= lineEnd) 
+                {
+                    throw new IllegalArgumentException(file + ":" + line + ": expected bunk,fuelType,price");
+                }
+                double price = InputValidator.decimal(text.substring(second + 1, lineEnd).trim());
+                if (Double.isNaN(price)) throw new IllegalArgumentException(file + ":" + line + ": invalid price");
+                rows.add(new PriceRow(text.substring(start, first).trim(), text.substring(first + 1, second).trim(), price));
+            }
+            start = end + 1;
+        }
+        update(rows);
+        return rows.size();
+    }
+
+    public long getVersion() 
+    {
+        synchronized (writeLock) 
+        {
+            return version;
+        }
+    }
+}
+
+// Stock of one fuel at one bunk, in millilitres so the counters stay exact.
+// available only moves by compare-and-set, so two orders racing for the last
+// liters can never both get them, and no order waits on a lock to reserve.
+final class FuelTank 
+{
+    private final String bunk;
+    private final String fuelType;
+    private final AtomicLong available = new AtomicLong();
+    private final LongAdder reserved = new LongAdder();
+    private final LongAdder sold = new LongAdder();
+    private final LongAdder refused = new LongAdder();
+
+    FuelTank(String bunk, String fuelType) 
+    {
+        this.bunk = bunk;
+        this.fuelType = fuelType;
+    }
+
+    // Takes ml out of the available stock, or nothing if there is not that much left
+    boolean reserve(long ml) 
+    {
+        long current;
+        do 
+        {
+            current = available.get();
+            if (current < ml) 
+            {
+                refused.increment();
+                return false;
+            }
+        } 
+        while (!available.compareAndSet(current, current - ml));
+        reserved.add(ml);
+        return true;
+    }
+
+    // A reservation that will not be delivered goes back on sale
+    void release(long ml) 
+    {
+        reserved.add(-ml);
+        available.addAndGet(ml);
+    }
+
+    // A reservation that was delivered leaves the tank for good
+    void commit(long ml) 
+    {
+        reserved.add(-ml);
+        sold.add(ml);
+    }
+
+    void restock(long ml) 
+    {
+        available.addAndGet(ml);
+    }
+
+    public String getBunk() 
+    { 
+	return bunk; 
+    }
+    public String getFuelType() 
+    { 
+	return fuelType; 
+    }
+    public double getAvailableLiters() 
+    { 
+	return available.get() / 1000.0; 
+    }
+    public double getReservedLiters() 
+    { 
+	return reserved.sum() / 1000.0; 
+    }
+    public double getSoldLiters() 
+    { 
+	return sold.sum() / 1000.0; 
+    }
+    public long getRefused() 
+    { 
+	return refused.sum(); 
+    }
+
+    public String toString() 
+    {
+        return String.format("%s/%s available=%.1fL reserved=%.1fL sold=%.1fL refused=%d",
+                bunk, fuelType, getAvailableLiters(), getReservedLiters(), getSoldLiters(), getRefused());
+    }
+}
+
+// Per-bunk, per-fuel stock around the order lifecycle: an order reserves its
+// liters when it is created, the reservation is committed when it is delivered
+// and released if it is cancelled. Only tanks that have been stocked can be
+// ordered from. Each tank counts on its own, so busy bunks never contend with
+// each other and there is no global lock.
+class FuelInventory implements OrderStatusListener 
+{
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, FuelTank>> tanks = new ConcurrentHashMap<>();
+    // Orders holding stock, with how much; removed exactly once when they settle
+    private final ConcurrentHashMap<Order, Long> held = new ConcurrentHashMap<>();
+
+    public FuelTank restock(String bunk, String fuelType, double liters) 
+    {
+        if (!(liters > 0)) throw new IllegalArgumentException("Restock liters must be positive: " + liters);
+        FuelTank tank = tanks.computeIfAbsent(bunk, b -> new ConcurrentHashMap<>()).computeIfAbsent(fuelType, f -> new FuelTank(bunk, f));
+        tank.restock(toMillilitres(liters));
+        return tank;
+    }
+
+    // Null if the bunk has never been stocked with that fuel
+    public FuelTank tank(String bunk, String fuelType) 
+    {
+        ConcurrentHashMap<String, FuelTank> atBunk = tanks.get(bunk);
+        return atBunk == null ? null : atBunk.get(fuelType);
+    }
+
+    public double getAvailable(String bunk, String fuelType) 
+    {
+        FuelTank tank = tank(bunk, fuelType);
+        return tank == null ? 0 : tank.getAvailableLiters();
+    }
+
+    public List<FuelTank> tanksAt(String bunk) 
+    {
+        ConcurrentHashMap<String, FuelTank> atBunk = tanks.get(bunk);
+        return atBunk == null ? Collections.emptyList() : new ArrayList<>(atBunk.values());
+    }
+
+    // Reserves the order's liters at its bunk and follows the order until it is
+    // delivered or cancelled. False (and nothing held) if the tank is short.
+    public boolean reserve(Order order) 
+    {
+        FuelTank tank = tank(order.getBunkName(), order.getFuel().getType());
+        long ml = toMillilitres(order.getLiters());
+        if (tank == null || !tank.reserve(ml)) return false;
+        held.put(order, ml);
+        order.addStatusListener(this);
+        // Settled before the listener was in place (recovered orders are already moving)
+        if (order.getStatus().isTerminal()) settle(order, order.getStatus());
+        return true;
+    }
+
+    public void onStatusChange(Order order, OrderStatus from, OrderStatus to) 
+    {
+        if (to.isTerminal()) settle(order, to);
+    }
+
+    private void settle(Order order, OrderStatus outcome) 
+    {
+        Long ml = held.remove(order);
+        if (ml == null) return;
+        FuelTank tank = tank(order.getBunkName(), order.getFuel().getType());
+        if (outcome == OrderStatus.DELIVERED) tank.commit(ml);
+        else tank.release(ml);
+        order.removeStatusListener(this);
+    }
+
+    public int getHeldOrders() 
+    { 
+	return held.size(); 
+    }
+
+    static long toMillilitres(double liters) 
+    {
+        return Math.round(liters * 1000);
+    }
+}
+
+// Delivery estimate: minutes until the fuel reaches the door, a 90% range, and
+// how much of it comes from observed deliveries rather than the fixed formula
+// (0 is the formula alone, close to 1 is almost all history)
+final class Eta 
+{
+    static final Eta ARRIVED = new Eta(0, 0, 0, 1);
+
+    private final double minutes, lowMinutes, highMinutes, confidence;
+
+    Eta(double minutes, double lowMinutes, double highMinutes, double confidence) 
+    {
+        this.minutes = minutes;
+        this.lowMinutes = lowMinutes;
+        this.highMinutes = highMinutes;
+        this.confidence = confidence;
+    }
+
+    // The original rule: ten minutes to get going and two per km
+    static Eta formula(double km) 
+    {
+        double minutes = EtaEngine.PRIOR_WAIT_MINUTES + km * EtaEngine.PRIOR_MINUTES_PER_KM;
+        return new Eta(minutes, minutes, minutes, 0);
+    }
+
+    public double getMinutes() 
+    { 
+	return minutes; 
+    }
+    public double getLowMinutes() 
+    { 
+	return lowMinutes; 
+    }
+    public double getHighMinutes() 
+    { 
+	return highMinutes; 
+    }
+    public double getConfidence() 
+    { 
+	return confidence; 
+    }
+
+    private static long whole(double minutes) 
+    {
+        return minutes > 0 ? Math.max(1, Math.round(minutes)) : 0;
+    }
+
+    // "18 mins", with the range once deliveries have been seen: "12 mins (9-16)"
+    public String toString() 
+    {
+        String text = whole(minutes) + " mins";
+        long low = whole(lowMinutes), high = whole(highMinutes);
+        return low == high ? text : text + " (" + low + "-" + high + ")";
+    }
+}
+
+// Learns delivery times from finished orders and predicts open ones. An order
+// is two legs: the wait from payment until the driver sets off, kept per bunk
+// and time of day, and the trip, kept per bunk, distance band and time of day.
+// Each leg that finishes updates a running mean and variance in a few cells
+// (recent deliveries count for more, so estimates follow the traffic); nothing
+// is ever recomputed from scratch. A cell with few deliveries leans on a wider
+// one (the bunk all day, then every bunk) and that in turn on the formula, so
+// an estimate is a handful of lookups and never blocks.
+class EtaEngine implements OrderStatusListener 
+{
+    static final double PRIOR_WAIT_MINUTES = 10;
+    static final double PRIOR_MINUTES_PER_KM = 2;
+    static final double BAND_KM = 2;
+    // Trips of 30 km and more share the last band
+    static final int BANDS = 16;
+    // Four-hour slices of the day; the all-day cell sits after them
+    static final int PERIODS = 6;
+    private static final int ALL_DAY = PERIODS;
+    // Deliveries a cell needs before it outweighs the wider cell behind it
+    static final double PRIOR_WEIGHT = 20;
+    // Weight of the newest delivery once a cell has seen 1 / DECAY of them
+    static final double DECAY = 0.02;
+    private static final double Z90 = 1.645;
+    private static final double MINUTE_MILLIS = 60_000;
+
+    // Exponentially weighted count, mean and variance of a leg in milliseconds;
+    // replaced on every update so readers never see half of one
+    private static final class Stats 
+    {
+        static final Stats EMPTY = new Stats(0, 0, 0);
+
+        final long count;
+        final double mean, variance;
+
+        Stats(long count, double mean, double variance) 
+        {
+            this.count = count;
+            this.mean = mean;
+            this.variance = variance;
+        }
+
+        Stats add(double x) 
+        {
+            double alpha = Math.max(1.0 / (count + 1), DECAY);
+            double diff = x - mean;
+            return new Stats(count + 1, mean + alpha * diff, (1 - alpha) * (variance + alpha * diff * diff));
+        }
+    }
+
+    private static final class Cell 
+    {
+        private volatile Stats stats = Stats.EMPTY;
+
+        synchronized void add(double millis) 
+        {
+            stats = stats.add(millis);
+        }
+    }
+
+    private static final class Cells 
+    {
+        final Cell[] wait = new Cell[PERIODS + 1];
+        final Cell[][] trip = new Cell[BANDS][PERIODS + 1];
+
+        Cells() 
+        {
+            for (int p = 0; p <= PERIODS; p++) 
+            {
+                wait[p] = new Cell();
+                for (int b = 0; b < BANDS; b++) trip[b][p] = new Cell();
+            }
+        }
+    }
+
+    // One leg's running estimate while the cells are folded together
+    private static final class Blend 
+    {
+        double mean, variance, formulaShare = 1;
+
+        Blend(double priorMillis) 
+        {
+            this.mean = priorMillis;
+        }
+
+        void over(Cell cell) 
+        {
+            Stats s = cell.stats;
+            if (s.count == 0) return;
+            double w = s.count / (s.count + PRIOR_WEIGHT);
+            mean = w * s.mean + (1 - w) * mean;
+            variance = w * s.variance + (1 - w) * variance;
+            formulaShare *= 1 - w;
+        }
+    }
+
+    private final Clock clock;
+    private final int zoneOffsetMillis;
+    private final Cells everywhere = new Cells();
+    private final ConcurrentHashMap<String, Cells> bunks = new ConcurrentHashMap<>();
+    // When each open order was paid and when it left; removed when the leg ends
+    private final ConcurrentHashMap<Order, Long> paidAt = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Order, Long> departedAt = new ConcurrentHashMap<>();
+    private final LongAdder trips = new LongAdder();
+
+    public EtaEngine() 
+    {
+        this(Clock.systemDefaultZone());
+    }
+
+    // The clock's zone decides which slice of the day a delivery falls in
+    public EtaEngine(Clock clock) 
+    {
+        this.clock = clock;
+        this.zoneOffsetMillis = clock.getZone().getRules().getOffset(clock.instant()).getTotalSeconds() * 1000;
+    }
+
+    // Follows the order to delivery and keeps its estimate current
+    public void track(Order order) 
+    {
+        order.setEtaEngine(this);
+        order.addStatusListener(this);
+        if (order.getStatus() == OrderStatus.PAID || order.getStatus() == OrderStatus.ASSIGNED) paidAt.putIfAbsent(order, clock.millis());
+        else if (order.getStatus() == OrderStatus.ON_THE_WAY) departedAt.putIfAbsent(order, clock.millis());
+        order.refreshEta();
+    }
+
+    public void onStatusChange(Order order, OrderStatus from, OrderStatus to) 
+    {
+        long now = clock.millis();
+        switch (to) 
+        {
+            case PAID:
+                // Also a fall back from Assigned: the wait goes on from the first payment
+                paidAt.putIfAbsent(order, now);
+                break;
+            case ON_THE_WAY:
+                Long paid = paidAt.remove(order);
+                if (paid != null) recordWait(order.getBunkName(), paid, now - paid);
+                departedAt.put(order, now);
+                break;
+            case DELIVERED:
+                Long left = departedAt.remove(order);
+                if (left != null) recordTrip(order.getBunkName(), order.getTravelKm(), left, now - left);
+                order.removeStatusListener(this);
+                break;
+            case CANCELLED:
+                paidAt.remove(order);
+                departedAt.remove(order);
+                order.removeStatusListener(this);
+                break;
+            default:
+                break;
+        }
+        order.refreshEta();
+    }
+
+    // Time from payment to the driver setting off, starting at startMillis
+    public void recordWait(String bunk, long startMillis, long millis) 
+    {
+        int period = period(startMillis);
+        Cells atBunk = cells(bunk);
+        atBunk.wait[period].add(millis);
+        atBunk.wait[ALL_DAY].add(millis);
+        everywhere.wait[ALL_DAY].add(millis);
+    }
+
+    // Time from setting off to the door for a trip of km, starting at startMillis
+    public void recordTrip(String bunk, double km, long startMillis, long millis) 
+    {
+        int period = period(startMillis), band = band(km);
+        Cells atBunk = cells(bunk);
+        atBunk.trip[band][period].add(millis);
+        atBunk.trip[band][ALL_DAY].add(millis);
+        everywhere.trip[band][ALL_DAY].add(millis);
+        trips.increment();
+    }
+
+    private Cells cells(String bunk) 
+    {
+        Cells atBunk = bunks.get(bunk);
+        return atBunk != null ? atBunk : bunks.computeIfAbsent(bunk, b -> new Cells());
+    }
+
+    // Minutes still to go for the order in its current status
+    public Eta estimate(Order order) 
+    {
+        OrderStatus status = order.getStatus();
+        if (status.isTerminal()) return Eta.ARRIVED;
+        long now = clock.millis();
+        int period = period(now);
+        double km = order.getTravelKm();
+        Cells atBunk = bunks.get(order.getBunkName());
+
+        int band = band(km);
+        Blend trip = new Blend(km * PRIOR_MINUTES_PER_KM * MINUTE_MILLIS);
+        trip.over(everywhere.trip[band][ALL_DAY]);
+        if (atBunk != null) 
+        {
+            trip.over(atBunk.trip[band][ALL_DAY]);
+            trip.over(atBunk.trip[band][period]);
+        }
+        Blend wait = new Blend(PRIOR_WAIT_MINUTES * MINUTE_MILLIS);
+        if (status == OrderStatus.ON_THE_WAY) 
+        {
+            wait.mean = 0;
+            wait.formulaShare = 0;
+            Long left = departedAt.get(order);
+            if (left != null) trip.mean = remaining(trip.mean, now - left);
+        } 
+        else 
+        {
+            wait.over(everywhere.wait[ALL_DAY]);
+            if (atBunk != null) 
+            {
+                wait.over(atBunk.wait[ALL_DAY]);
+                wait.over(atBunk.wait[period]);
+            }
+            Long paid = paidAt.get(order);
+            if (paid != null) wait.mean = remaining(wait.mean, now - paid);
+        }
+
+        double mean = wait.mean + trip.mean;
+        double spread = Z90 * Math.sqrt(wait.variance + trip.variance);
+        double formula = mean == 0 ? 0 : (wait.mean * wait.formulaShare + trip.mean * trip.formulaShare) / mean;
+        return new Eta(mean / MINUTE_MILLIS, Math.max(0, mean - spread) / MINUTE_MILLIS, (mean + spread) / MINUTE_MILLIS, 1 - formula);
+    }
+
+    // What is left of a leg already elapsedMillis in; a late leg keeps a tenth
+    // of its expected time rather than claiming to be done
+    private static double remaining(double expectedMillis, long elapsedMillis) 
+    {
+        return Math.max(expectedMillis - elapsedMillis, expectedMillis / 10);
+    }
+
+    static int band(double km) 
+    {
+        return (int) Math.min(Math.max(km, 0) / BAND_KM, BANDS - 1);
+    }
+
+    int period(long millis) 
+    {
+        return (int) Math.floorMod(millis + zoneOffsetMillis, 86_400_000L) / (86_400_000 / PERIODS);
+    }
+
+    // Trips learned from so far
+    public long getTrips() 
+    {
+        return trips.sum();
+    }
+
+    public int getOpenOrders() 
+    {
+        return paidAt.size() + departedAt.size();
+    }
+}
+
+// Delivery fee rule for a bunk
+interface DeliveryChargeRule 
+{
+    long chargePaise(double distanceKm);
+}
+
+// Tax rule for a bunk, applied to fuel cost plus delivery fee
+interface TaxRule 
+{
+    long taxPaise(long taxablePaise);
+    String label();
+}
+
+// Flat fee plus a per-km rate
+class DistanceDeliveryCharge implements DeliveryChargeRule 
+{
+    private final long basePaise, perKmPaise;
+
+    public DistanceDeliveryCharge(long basePaise, long perKmPaise) 
+    {
+        this.basePaise = basePaise;
+        this.perKmPaise = perKmPaise;
+    }
+
+    public long chargePaise(double distanceKm) 
+    {
+        return basePaise + Math.round(distanceKm * perKmPaise);
+    }
+}
+
+// Percentage tax in basis points, rounded half-up to the paisa
+class PercentageTax implements TaxRule 
+{
+    private final long basisPoints;
+    private final String label;
+
+    public PercentageTax(String name, long basisPoints) 
+    {
+        this.basisPoints = basisPoints;
+        this.label = name + " (" + (basisPoints % 100 == 0 ? String.valueOf(basisPoints / 100) : String.valueOf(basisPoints / 100.0)) + "%)";
+    }
+
+    public long taxPaise(long taxablePaise) 
+    {
+        return (taxablePaise * basisPoints + 5000) / 10000;
+    }
+
+    public String label() 
+    { 
+	return label; 
+    }
+}
+
+// Immutable priced bill, all amounts in paise
+class Bill 
+{
+    final long fuelCost, deliveryCharge, tax, total;
+    final String taxLabel;
+
+    Bill(long fuelCost, long deliveryCharge, long tax, String taxLabel) 
+    {
+        this.fuelCost = fuelCost;
+        this.deliveryCharge = deliveryCharge;
+        this.tax = tax;
+        this.total = fuelCost + deliveryCharge + tax;
+        this.taxLabel = taxLabel;
+    }
+}
+
+// Computes bills in paise using the delivery and tax rules of each bunk.
+// Rules are swapped per bunk without locking; bunks without rules use the defaults
+// (Rs 30 + Rs 2/km delivery, 15% GST).
+class BillingEngine 
+{
+    private static final BillingEngine STANDARD = new BillingEngine(new DistanceDeliveryCharge(3000, 200), new PercentageTax("GST", 1500));
+
+    private final DeliveryChargeRule defaultDelivery;
+    private final TaxRule defaultTax;
+    private final ConcurrentHashMap<String, DeliveryChargeRule> deliveryRules = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, TaxRule> taxRules = new ConcurrentHashMap<>();
+
+    public BillingEngine(DeliveryChargeRule defaultDelivery, TaxRule defaultTax) 
+    {
+        this.defaultDelivery = defaultDelivery;
+        this.defaultTax = defaultTax;
+    }
+
+    public static BillingEngine standard() 
+    { 
+	return STANDARD; 
+    }
+
+    public void setRules(String bunk, DeliveryChargeRule delivery, TaxRule tax) 
+    {
+        deliveryRules.put(bunk, delivery);
+        taxRules.put(bunk, tax);
+    }
+
+    // The same rules with every delivery charge multiplied, for orders taken while
+    // the fleet is saturated. Per-bunk rules are copied as they stand now.
+    public BillingEngine surge(double multiplier) 
+    {
+        BillingEngine surged = new BillingEngine(surcharge(defaultDelivery, multiplier), defaultTax);
+        for (Map.Entry<String, DeliveryChargeRule> e : deliveryRules.entrySet()) 
+        {
+            surged.setRules(e.getKey(), surcharge(e.getValue(), multiplier), taxRules.get(e.getKey()));
+        }
+        return surged;
+    }
+
+    private static DeliveryChargeRule surcharge(DeliveryChargeRule rule, double multiplier) 
+    {
+        return km -> Math.round(rule.chargePaise(km) * multiplier);
+    }
+
+    public Bill price(Fuel fuel, double liters, String bunk, double distanceKm) 
+    {
+        long fuelCost = fuel.calculateCostPaise(liters);
+        long delivery = deliveryRules.getOrDefault(bunk, defaultDelivery).chargePaise(distanceKm);
+        TaxRule tax = taxRules.getOrDefault(bunk, defaultTax);
+        return new Bill(fuelCost, delivery, tax.taxPaise(fuelCost + delivery), tax.label());
+    }
+}
+
+// Order lifecycle states
+enum OrderStatus 
+{
+    PENDING("Pending"),
+    PAID("Paid"),
+    ASSIGNED("Driver Assigned"),
+    ON_THE_WAY("Delivery on the Way"),
+    DELIVERED("Delivered"),
+    CANCELLED("Cancelled");
+
+    private final String label;
+
+    OrderStatus(String label) 
+    { 
+	this.label = label; 
+    }
+
+    public boolean isTerminal() 
+    { 
+	return this == DELIVERED || this == CANCELLED; 
+    }
+
+    // Pending -> Paid -> Assigned -> On the Way -> Delivered, with Cancelled reachable
+    // from every non-terminal state and Assigned able to fall back to Paid
+    public boolean canTransitionTo(OrderStatus next) 
+    {
+        switch (this) 
+        {
+            case PENDING:    return next == PAID || next == CANCELLED;
+            case PAID:       return next == ASSIGNED || next == CANCELLED;
+            case ASSIGNED:   return next == ON_THE_WAY || next == PAID || next == CANCELLED;
+            case ON_THE_WAY: return next == DELIVERED || next == CANCELLED;
+            default:         return false;
+        }
+    }
+
+    public String toString() 
+    { 
+	return label; 
+    }
+}
+
+// Subscriber for order status transitions
+interface OrderStatusListener 
+{
+    void onStatusChange(Order order, OrderStatus from, OrderStatus to);
+}
+
+// Order class
+class Order 
+{
+    // Reused per thread so rendering a bill or summary does not build throwaway strings
+    private static final ThreadLocal<StringBuilder> TEXT = ThreadLocal.withInitial(() -> new StringBuilder(512));
+    // Status changes counted by from and to, so a change costs one counter: the
+    // number in a status now is what came in less what left, and the finished
+    // orders are what came into a final status. How long orders stay in each
+    // status is timed for one order in Metrics.HOT_PATH_SAMPLE_EVERY.
+    private static final int STATUSES = OrderStatus.values().length;
+    private static final LongAdder CREATED = new LongAdder();
+    private static final LongAdder[] MOVES = new LongAdder[STATUSES * STATUSES];
+    private static final LatencyHistogram[] TIME_IN_STATUS = new LatencyHistogram[STATUSES];
+
+    static 
+    {
+        for (int i = 0; i < MOVES.length; i++) MOVES[i] = new LongAdder();
+        for (OrderStatus s : OrderStatus.values()) 
+        {
+            String label = s.name().toLowerCase();
+            if (s.isTerminal()) 
+            {
+                Metrics.counter("fuelgo_orders_finished_total", "Orders that finished in each status", () -> cameInto(s), "status", label);
+                continue;
+            }
+            TIME_IN_STATUS[s.ordinal()] = Metrics.histogram("fuelgo_order_status_seconds", "Time orders spend in a status before moving on", Metrics.HOT_PATH_SAMPLE_EVERY, "status", label);
+            // May lag an order that is between two statuses, never below zero
+            Metrics.gauge("fuelgo_orders", "Orders currently in each status", () -> Math.max(0, inStatus(s)), "status", label);
+        }
+    }
+
+    private static long cameInto(OrderStatus s) 
+    {
+        long count = s == OrderStatus.PENDING ? CREATED.sum() : 0;
+        for (int from = 0; from < STATUSES; from++) count += MOVES[from * STATUSES + s.ordinal()].sum();
+        return count;
+    }
+
+    private static long inStatus(OrderStatus s) 
+    {
+        long count = cameInto(s);
+        for (int to = 0; to < STATUSES; to++) count -= MOVES[s.ordinal() * STATUSES + to].sum();
+        return count;
+    }
+
+    private Customer customer;
+    private Fuel fuel;
+    private double liters, distance;
+    private Bill bill;
+    private String bunkName, deliveryAddr;
+    // Bunk-to-door km, plus the driver's run to the bunk and earlier stops once known
+    private volatile double travelKm;
+    private volatile Eta eta;
+    private volatile EtaEngine etaEngine;
+    private String orderId;
+    private GeoPoint pickup, dropoff;
+    private FuelPrice price;
+    private final AtomicReference<OrderStatus> status = new AtomicReference<>(OrderStatus.PENDING);
+    // Set while a charge for this order is out, so two pay requests cannot both charge
+    private final AtomicBoolean paying = new AtomicBoolean();
+    private volatile DeliveryDriver driver;
+    private final List<OrderStatusListener> listeners = new CopyOnWriteArrayList<>();
+    // Whether this order's time in each status is recorded, and since when it is in this one
+    private final boolean timed = Metrics.sampled(Metrics.HOT_PATH_SAMPLE_EVERY);
+    private volatile long statusSince = timed ? Metrics.coarseNanos() : 0;
+
+    public Order(String id, Customer cust, Fuel fuel, double liters, String bunk, double dist, String daddr) 
+    {
+        this(id, cust, fuel, liters, bunk, dist, daddr, BillingEngine.standard());
+    }
+
+    public Order(String id, Customer cust, Fuel fuel, double liters, String bunk, double dist, String daddr, BillingEngine billing) 
+    {
+        this(id, cust, fuel, liters, bunk, dist, daddr, billing.price(fuel, liters, bunk, dist));
+    }
+
+    // Already priced: orders rebuilt from the journal keep the bill the customer was charged
+    Order(String id, Customer cust, Fuel fuel, double liters, String bunk, double dist, String daddr, Bill bill) 
+    {
+        this.orderId = id;
+        this.customer = cust;
+        this.fuel = fuel;
+        this.liters = liters;
+        this.bunkName = bunk;
+        this.distance = dist;
+        this.deliveryAddr = daddr;
+
+        this.bill = bill;
+        this.travelKm = dist;
+        this.eta = Eta.formula(dist);
+        if (Metrics.ENABLED) CREATED.increment();
+    }
+
+    // Located order: the distance is the bunk-to-door distance
+    public Order(String id, Customer cust, Fuel fuel, double liters, Bunk bunk, GeoPoint dropoff, String daddr, BillingEngine billing) 
+    {
+        this(id, cust, fuel, liters, bunk.getName(), ServiceArea.roundKm(bunk.getLocation().distanceKm(dropoff)), daddr, billing);
+        this.pickup = bunk.getLocation();
+        this.dropoff = dropoff;
+    }
+
+    // Priced from the catalog: keeps the published price the order was billed at
+    public Order(String id, Customer cust, FuelPrice price, double liters, Bunk bunk, GeoPoint dropoff, String daddr, BillingEngine billing) 
+    {
+        this(id, cust, price.getFuel(), liters, bunk, dropoff, daddr, billing);
+        this.price = price;
+    }
+
+    // Rebuilt from the journal with its original bill and, if it had them, coordinates
+    Order(String id, Customer cust, Fuel fuel, double liters, String bunk, double dist, String daddr, Bill bill, GeoPoint pickup, GeoPoint dropoff) 
+    {
+        this(id, cust, fuel, liters, bunk, dist, daddr, bill);
+        this.pickup = pickup;
+        this.dropoff = dropoff;
+    }
+
+    // Adds the assigned driver's run to the bunk to the delivery estimate
+    void setPickupDistance(double driverKm) 
+    {
+        this.travelKm = driverKm + distance;
+        refreshEta();
+    }
+
+    // Set from the planned route once a multi-stop trip departs: the driver's
+    // run to the bunk plus every km up to this order's stop
+    void setRouteDistance(double km) 
+    {
+        this.travelKm = km;
+        refreshEta();
+    }
+
+    void setEtaEngine(EtaEngine engine) 
+    {
+        this.etaEngine = engine;
+    }
+
+    // Orders nobody tracks keep to the fixed formula
+    void refreshEta() 
+    {
+        EtaEngine engine = etaEngine;
+        this.eta = engine != null ? engine.estimate(this) : Eta.formula(travelKm);
+    }
+
+    public double getTotal() 
+    { 
+	return Money.toRupees(bill.total); 
+    }
+    public long getTotalPaise() 
+    { 
+	return bill.total; 
+    }
+    public Bill getBill() 
+    { 
+	return bill; 
+    }
+    // False while another payment for this order is in progress
+    boolean beginPayment() 
+    { 
+	return paying.compareAndSet(false, true); 
+    }
+    boolean isPaying() 
+    { 
+	return paying.get(); 
+    }
+    void endPayment() 
+    { 
+	paying.set(false); 
+    }
+    public DeliveryDriver getDriver() 
+    { 
+	return driver; 
+    }
+    void setDriver(DeliveryDriver d) 
+    { 
+	this.driver = d; 
+    }
+    public OrderStatus getStatus() 
+    { 
+	return status.get(); 
+    }
+    public String getOrderId() 
+    { 
+	return orderId; 
+    }
+    public Customer getCustomer() 
+    { 
+	return customer; 
+    }
+    public Fuel getFuel() 
+    { 
+	return fuel; 
+    }
+    // Catalog price the order was billed at; null for orders rebuilt from the journal
+    public FuelPrice getFuelPrice() 
+    { 
+	return price; 
+    }
+    // Bunk and delivery positions; null for orders placed without coordinates
+    public GeoPoint getPickup() 
+    { 
+	return pickup; 
+    }
+    public GeoPoint getDropoff() 
+    { 
+	return dropoff; 
+    }
+    public double getLiters() 
+    { 
+	return liters; 
+    }
+    public String getBunkName() 
+    { 
+	return bunkName; 
+    }
+    public double getDistance() 
+    { 
+	return distance; 
+    }
+    public String getEstTime() 
+    { 
+	return eta.toString(); 
+    }
+    public Eta getEta() 
+    { 
+	return eta; 
+    }
+    public double getTravelKm() 
+    { 
+	return travelKm; 
+    }
+    public String getDeliveryAddr() 
+    { 
+	return deliveryAddr; 
+    }
+
+    // Atomically moves from the expected state only; false if the order is elsewhere
+    public boolean transition(OrderStatus from, OrderStatus to) 
+    {
+        if (!from.canTransitionTo(to) || !status.compareAndSet(from, to)) return false;
+        publish(from, to);
+        return true;
+    }
+
+    // Moves from whatever the current state is, if that transition is legal
+    public boolean advanceTo(OrderStatus to) 
+    {
+        while (true) 
+        {
+            OrderStatus current = status.get();
+            if (!current.canTransitionTo(to)) return false;
+            if (status.compareAndSet(current, to)) 
+            {
+                publish(current, to);
+                return true;
+            }
+        }
+    }
+
+    public void updateStatus(OrderStatus s) 
+    {
+        if (!advanceTo(s)) 
+        {
+            throw new IllegalStateException("Order " + orderId + " cannot move from " + status.get() + " to " + s);
+        }
+    }
+
+    public boolean cancel() 
+    {
+        return advanceTo(OrderStatus.CANCELLED);
+    }
+
+    public void addStatusListener(OrderStatusListener listener) 
+    {
+        listeners.add(listener);
+    }
+
+    public void removeStatusListener(OrderStatusListener listener) 
+    {
+        listeners.remove(listener);
+    }
+
+    // Completes as soon as the order reaches the target status (or immediately if it already has)
+    public CompletableFuture<Order> whenStatus(OrderStatus target) 
+    {
+        CompletableFuture<Order> future = new CompletableFuture<>();
+        OrderStatusListener listener = (order, from, to) -> 
+        {
+            if (to == target) future.complete(order);
+        };
+        listeners.add(listener);
+        if (status.get() == target) future.complete(this);
+        future.whenComplete((o, e) -> listeners.remove(listener));
+        return future;
+    }
+
+    // Completes once the order is delivered or cancelled
+    public CompletableFuture<Order> whenTerminal() 
+    {
+        CompletableFuture<Order> future = new CompletableFuture<>();
+        OrderStatusListener listener = (order, from, to) -> 
+        {
+            if (to.isTerminal()) future.complete(order);
+        };
+        listeners.add(listener);
+        if (status.get().isTerminal()) future.complete(this);
+        future.whenComplete((o, e) -> listeners.remove(listener));
+        return future;
+    }
+
+    private void publish(OrderStatus from, OrderStatus to) 
+    {
+        if (Metrics.ENABLED) 
+        {
+            MOVES[from.ordinal() * STATUSES + to.ordinal()].increment();
+            if (timed) 
+            {
+                long now = Metrics.coarseNanos();
+                TIME_IN_STATUS[from.ordinal()].record(now - statusSince);
+                statusSince = now;
+            }
+        }
+        for (OrderStatusListener listener : listeners) 
+        {
+            try 
+            {
+                listener.onStatusChange(this, from, to);
+            } 
+            catch (RuntimeException e) 
+            {
+                System.out.println(Colors.RED + "Status listener failed: " + e.getMessage() + Colors.RESET);
+            }
+        }
+    }
+
+    public void showBill() 
+    {
+        StringBuilder sb = TEXT.get();
+        sb.setLength(0);
+        appendBill(sb);
+        System.out.print(sb);
+    }
+
+    public StringBuilder appendBill(StringBuilder sb) 
+    {
+        sb.append(Colors.YELLOW).append("\n========= BILL =========").append(Colors.RESET).append('\n');
+        sb.append("Fuel Type     : ").append(fuel.getType()).append('\n');
+        sb.append("Liters        : ").append(liters).append('\n');
+        sb.append("Bunk          : ").append(bunkName).append('\n');
+        sb.append("Delivery Addr : ").append(deliveryAddr).append('\n');
+        sb.append("Distance      : ").append(distance).append(" km\n");
+        sb.append("Est. Delivery : ").append(eta).append('\n');
+        sb.append("------------------------\n");
+        Money.appendRupees(sb.append("Fuel Cost     : "), bill.fuelCost).append('\n');
+        Money.appendRupees(sb.append("Delivery Fee  : "), bill.deliveryCharge).append('\n');
+        sb.append(bill.taxLabel);
+        for (int pad = bill.taxLabel.length(); pad < 14; pad++) sb.append(' ');
+        Money.appendRupees(sb.append(": "), bill.tax).append('\n');
+        sb.append("========================\n");
+        Money.appendRupees(sb.append(Colors.CYAN).append("TOTAL         : "), bill.total).append(Colors.RESET).append('\n');
+        sb.append("Status        : ").append(status.get()).append('\n');
+        sb.append("========================\n\n");
+        return sb;
+    }
+
+    public String summary() 
+    {
+        StringBuilder sb = TEXT.get();
+        sb.setLength(0);
+        return appendSummary(sb).toString();
+    }
+
+    public StringBuilder appendSummary(StringBuilder sb) 
+    {
+        sb.append(orderId).append(" | ").append(fuel.getType()).append(" | ").append(liters).append("L | ")
+          .append(deliveryAddr).append(" | ").append(status.get()).append(" | Total: ");
+        return Money.appendRupees(sb, bill.total);
+    }
+}
+
+// Payment
+interface Payment 
+{ 
+	CompletionStage<PaymentResult> pay(double amount); 
+}
+
+enum PaymentState 
+{
+    APPROVED, DECLINED, TIMED_OUT, FAILED
+}
+
+// Outcome of a payment, after any retries
+class PaymentResult 
+{
+    private final PaymentState state;
+    private final String provider, reference, message;
+    private final double amount;
+    private final int attempts;
+
+    public PaymentResult(PaymentState state, String provider, String reference, double amount, int attempts, String message) 
+    {
+        this.state = state;
+        this.provider = provider;
+        this.reference = reference;
+        this.amount = amount;
+        this.attempts = attempts;
+        this.message = message;
+    }
+
+    public static PaymentResult approved(PaymentRequest r) 
+    {
+        return new PaymentResult(PaymentState.APPROVED, r.provider, r.reference, r.amount, r.getAttempts(), "Approved");
+    }
+
+    public static PaymentResult declined(PaymentRequest r, String reason) 
+    {
+        return new PaymentResult(PaymentState.DECLINED, r.provider, r.reference, r.amount, r.getAttempts(), reason);
+    }
+
+    public boolean isApproved() 
+    { 
+	return state == PaymentState.APPROVED; 
+    }
+    public PaymentState getState() 
+    { 
+	return state; 
+    }
+    public String getProvider() 
+    { 
+	return provider; 
+    }
+    public String getReference() 
+    { 
+	return reference; 
+    }
+    public double getAmount() 
+    { 
+	return amount; 
+    }
+    public int getAttempts() 
+    { 
+	return attempts; 
+    }
+    public String getMessage() 
+    { 
+	return message; 
+    }
+
+    public String toString() 
+    {
+        return provider + " " + reference + " " + state + " (" + message + ", attempts: " + attempts + ")";
+    }
+}
+
+// One charge travelling through the pipeline; the reference stays the same across retries
+class PaymentRequest 
+{
+    final String provider, account, reference;
+    final double amount;
+    final CompletableFuture<PaymentResult> result = new CompletableFuture<>();
+    private final AtomicInteger attempts = new AtomicInteger();
+
+    PaymentRequest(String provider, String account, String reference, double amount) 
+    {
+        this.provider = provider;
+        this.account = account;
+        this.reference = reference;
+        this.amount = amount;
+    }
+
+    int nextAttempt() 
+    { 
+	return attempts.incrementAndGet(); 
+    }
+    int getAttempts() 
+    { 
+	return attempts.get(); 
+    }
+}
+
+// Provider gateway: charges a whole batch in one round trip, results in request order
+interface PaymentGateway 
+{
+    CompletionStage<List<PaymentResult>> charge(List<PaymentRequest> batch);
+}
+
+// Local stand-in for a UPI/bank gateway with configurable latency, declines and outages.
+// Responses are delivered from a timer, so no thread waits on the simulated network.
+class SimulatedGateway implements PaymentGateway 
+{
+    private final long latencyMillis;
+    private final double declineRate, outageRate;
+    private final Random random;
+    private final ScheduledExecutorService timer;
+
+    public SimulatedGateway(long latencyMillis, double declineRate, double outageRate, long seed, ScheduledExecutorService timer) 
+    {
+        this.latencyMillis = latencyMillis;
+        this.declineRate = declineRate;
+        this.outageRate = outageRate;
+        this.random = new Random(seed);
+        this.timer = timer;
+    }
+
+    public CompletionStage<List<PaymentResult>> charge(List<PaymentRequest> batch) 
+    {
+        CompletableFuture<List<PaymentResult>> response = new CompletableFuture<>();
+        boolean outage = random.nextDouble() < outageRate;
+        List<PaymentResult> results = new ArrayList<>(batch.size());
+        for (PaymentRequest r : batch) 
+        {
+            results.add(random.nextDouble() < declineRate ? PaymentResult.declined(r, "Declined by bank") : PaymentResult.approved(r));
+        }
+        timer.schedule(() -> 
+        {
+            if (outage) response.completeExceptionally(new IOException("Gateway unavailable"));
+            else response.complete(results);
+        }, latencyMillis, TimeUnit.MILLISECONDS);
+        return response;
+    }
+}
+
+// Collects requests for one provider into batches (up to maxBatch, or whatever
+// arrived within the batch window) and hands each batch to the pipeline
+class PaymentLane implements Runnable 
+{
+    final String provider;
+    final PaymentGateway gateway;
+    private final PaymentPipeline pipeline;
+    private final BlockingQueue<PaymentRequest> queue;
+
+    PaymentLane(String provider, PaymentGateway gateway, PaymentPipeline pipeline, int capacity) 
+    {
+        this.provider = provider;
+        this.gateway = gateway;
+        this.pipeline = pipeline;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    boolean offer(PaymentRequest r) 
+    {
+        return queue.offer(r);
+    }
+
+    int queued() 
+    { 
+	return queue.size(); 
+    }
+
+    public void run() 
+    {
+        try 
+        {
+            while (pipeline.isRunning() || !queue.isEmpty()) 
+            {
+                PaymentRequest first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                List<PaymentRequest> batch = new ArrayList<>(pipeline.getMaxBatch());
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(pipeline.getBatchWindowMillis());
+                while (batch.size() < pipeline.getMaxBatch()) 
+                {
+                    long left = deadline - System.nanoTime();
+                    PaymentRequest next = left > 0 ? queue.poll(left, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) break;
+                    batch.add(next);
+                }
+                pipeline.dispatch(this, batch);
+            }
+        } 
+        catch (InterruptedException e) 
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
+
+// Asynchronous payment pipeline: one batching lane per provider, a timeout per
+// gateway call and exponential-backoff retries for timeouts and outages.
+// Declines are final and never retried.
+class PaymentPipeline 
+{
+    private final Map<String, PaymentLane> lanes = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer;
+    private final int maxBatch, maxRetries, queueCapacity;
+    private final long batchWindowMillis, timeoutMillis, backoffMillis;
+    private final AtomicLong references = new AtomicLong();
+    private final LongAdder approved = new LongAdder();
+    private final LongAdder declined = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private volatile boolean running = true;
+
+    public PaymentPipeline(int maxBatch, long batchWindowMillis, long timeoutMillis, int maxRetries, long backoffMillis, int queueCapacity) 
+    {
+        this.maxBatch = maxBatch;
+        this.batchWindowMillis = batchWindowMillis;
+        this.timeoutMillis = timeoutMillis;
+        this.maxRetries = maxRetries;
+        this.backoffMillis = backoffMillis;
+        this.queueCapacity = queueCapacity;
+        this.timer = Executors.newScheduledThreadPool(2, r -> 
+        {
+            Thread t = new Thread(r, "fuelgo-payment-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        Metrics.gauge("fuelgo_payment_queue", "Payments waiting for a gateway batch", this::getQueued);
+    }
+
+    // Pipeline with a SimulatedGateway behind every UPI / bank provider
+    public static PaymentPipeline simulated(long latencyMillis, double declineRate, double outageRate) 
+    {
+        PaymentPipeline pipeline = new PaymentPipeline(64, 5, Math.max(1000, latencyMillis * 4), 3, 50, 100000);
+        long seed = 1;
+        for (String provider : new String[] { "PhonePe", "Paytm", "BankTransfer" }) 
+        {
+            pipeline.register(provider, new SimulatedGateway(latencyMillis, declineRate, outageRate, seed++, pipeline.timer));
+        }
+        return pipeline;
+    }
+
+    public void register(String provider, PaymentGateway gateway) 
+    {
+        PaymentLane lane = new PaymentLane(provider, gateway, this, queueCapacity);
+        if (lanes.putIfAbsent(provider, lane) != null) throw new IllegalArgumentException("Provider already registered: " + provider);
+        Thread t = new Thread(lane, "fuelgo-payment-" + provider);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    // Never blocks; the returned stage always completes normally with a result
+    public CompletableFuture<PaymentResult> submit(String provider, String account, double amount) 
+    {
+        PaymentRequest r = new PaymentRequest(provider, account, provider + "-" + references.incrementAndGet(), amount);
+        PaymentLane lane = lanes.get(provider);
+        if (lane == null) 
+        {
+            complete(r, new PaymentResult(PaymentState.FAILED, provider, r.reference, amount, 0, "Unknown payment provider"));
+        } 
+        else if (!running || !lane.offer(r)) 
+        {
+            complete(r, new PaymentResult(PaymentState.FAILED, provider, r.reference, amount, 0, "Payment service busy, try again"));
+        }
+        return r.result;
+    }
+
+    void dispatch(PaymentLane lane, List<PaymentRequest> batch) 
+    {
+        batches.increment();
+        for (PaymentRequest r : batch) r.nextAttempt();
+        CompletableFuture<List<PaymentResult>> call;
+        try 
+        {
+            call = lane.gateway.charge(batch).toCompletableFuture();
+        } 
+        catch (RuntimeException e) 
+        {
+            call = CompletableFuture.failedFuture(e);
+        }
+        call.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS).whenComplete((results, error) -> 
+        {
+            for (int i = 0; i < batch.size(); i++) 
+            {
+                PaymentRequest r = batch.get(i);
+                if (error == null && results != null && i < results.size()) complete(r, results.get(i));
+                else retryOrFail(lane, r, error);
+            }
+        });
+    }
+
+    private void retryOrFail(PaymentLane lane, PaymentRequest r, Throwable error) 
+    {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (r.getAttempts() <= maxRetries && running) 
+        {
+            retried.increment();
+            long delay = backoffMillis << (r.getAttempts() - 1);
+            timer.schedule(() -> 
+            {
+                if (!lane.offer(r)) retryOrFail(lane, r, new RejectedExecutionException("Payment queue full"));
+            }, delay, TimeUnit.MILLISECONDS);
+            return;
+        }
+        boolean timeout = cause instanceof TimeoutException;
+        String message = timeout ? "Gateway timed out" : "Gateway error: " + (cause == null ? "no response" : cause.getMessage());
+        complete(r, new PaymentResult(timeout ? PaymentState.TIMED_OUT : PaymentState.FAILED, r.provider, r.reference, r.amount, r.getAttempts(), message));
+    }
+
+    private void complete(PaymentRequest r, PaymentResult result) 
+    {
+        switch (result.getState()) 
+        {
+            case APPROVED:  approved.increment(); break;
+            case DECLINED:  declined.increment(); break;
+            case TIMED_OUT: timedOut.increment(); break;
+            default:        failed.increment(); break;
+        }
+        r.result.complete(result);
+    }
+
+    public void shutdown() 
+    {
+        running = false;
+        timer.shutdown();
+    }
+
+    boolean isRunning() 
+    { 
+	return running; 
+    }
+    int getMaxBatch() 
+    { 
+	return maxBatch; 
+    }
+    long getBatchWindowMillis() 
+    { 
+	return batchWindowMillis; 
+    }
+
+    public int getQueued() 
+    {
+        int queued = 0;
+        for (PaymentLane lane : lanes.values()) queued += lane.queued();
+        return queued;
+    }
+
+    public String metrics() 
+    {
+        return "approved=" + approved.sum() + " declined=" + declined.sum() + " timed-out=" + timedOut.sum() + " failed=" + failed.sum()
+                + " retried=" + retried.sum() + " batches=" + batches.sum() + " queued=" + getQueued();
+    }
+}
+
+// Latency and outcome counts for one payment method
+final class PaymentMetrics 
+{
+    private final LatencyHistogram latency;
+    private final Metrics.Counter[] results = new Metrics.Counter[PaymentState.values().length];
+
+    PaymentMetrics(String method) 
+    {
+        this(method, 1);
+    }
+
+    // Methods that answer in microseconds sample their latency, as the order path does
+    PaymentMetrics(String method, int sampleEvery) 
+    {
+        latency = Metrics.histogram("fuelgo_payment_seconds", "Time from pay() to the payment result", sampleEvery, "method", method);
+        for (PaymentState state : PaymentState.values()) 
+        {
+            results[state.ordinal()] = Metrics.counter("fuelgo_payments_total", "Payment results", "method", method, "result", state.name().toLowerCase());
+        }
+    }
+
+    long start() 
+    {
+        return latency.start();
+    }
+
+    // Passes the result through unchanged
+    PaymentResult record(long startNanos, PaymentResult r) 
+    {
+        latency.recordSince(startNanos);
+        results[r.getState().ordinal()].increment();
+        return r;
+    }
+}
+
+class PhonePe implements Payment 
+{
+    private static final PaymentMetrics METRICS = new PaymentMetrics("PhonePe");
+
+    private String upiId;
+    private PaymentPipeline pipeline;
+    public PhonePe(String upi, PaymentPipeline pipeline) 
+    { 
+	this.upiId = upi; this.pipeline = pipeline; 
+    }
+    public CompletionStage<PaymentResult> pay(double amt) 
+    { 
+	long start = Metrics.start();
+	return pipeline.submit("PhonePe", upiId, amt).thenApply(r -> 
+        {
+            METRICS.record(start, r);
+            if (r.isApproved()) System.out.println("Payment of " + amt + " done via PhonePe UPI: " + upiId);
+            return r;
+        });
+    }
+}
+
+class Paytm implements Payment 
+{
+    private static final PaymentMetrics METRICS = new PaymentMetrics("Paytm");
+
+    private String upiId;
+    private PaymentPipeline pipeline;
+    public Paytm(String upi, PaymentPipeline pipeline) 
+    { 
+	this.upiId = upi; this.pipeline = pipeline; 
+    }
+    public CompletionStage<PaymentResult> pay(double amt) 
+    { 
+	long start = Metrics.start();
+	return pipeline.submit("Paytm", upiId, amt).thenApply(r -> 
+        {
+            METRICS.record(start, r);
+            if (r.isApproved()) System.out.println("Payment of " + amt + " done via Paytm UPI: " + upiId);
+            return r;
+        });
+    }
+}
+
+class BankTransfer implements Payment 
+{
+    private static final PaymentMetrics METRICS = new PaymentMetrics("BankTransfer");
+
+    private String accNo, ifsc;
+    private PaymentPipeline pipeline;
+    public BankTransfer(String acc, String ifsc, PaymentPipeline pipeline) 
+    { 
+	this.accNo = acc; this.ifsc = ifsc; this.pipeline = pipeline; 
+    }
+    public CompletionStage<PaymentResult> pay(double amt) 
+    { 
+	long start = Metrics.start();
+	return pipeline.submit("BankTransfer", accNo + "/" + ifsc, amt).thenApply(r -> 
+        {
+            METRICS.record(start, r);
+            if (r.isApproved()) System.out.println("Payment of " + amt + " done via Bank Transfer (A/C: " + accNo + ", IFSC: " + ifsc + ")");
+            return r;
+        });
+    }
+}
+
+// Fixed-point money: amounts are carried as whole paise in a long
+final class Money 
+{
+    private Money() 
+    {
+    }
+
+    public static long toPaise(double rupees) 
+    {
+        return Math.round(rupees * 100);
+    }
+
+    public static double toRupees(long paise) 
+    {
+        return paise / 100.0;
+    }
+
+    public static String toString(long paise) 
+    {
+        long abs = Math.abs(paise);
+        long fraction = abs % 100;
+        return (paise < 0 ? "-" : "") + abs / 100 + (fraction < 10 ? ".0" : ".") + fraction;
+    }
+
+    // Appends "RS1,234.50" style text without going through DecimalFormat
+    public static StringBuilder appendRupees(StringBuilder sb, long paise) 
+    {
+        if (paise < 0) 
+        {
+            sb.append('-');
+            paise = -paise;
+        }
+        sb.append("RS");
+        appendGrouped(sb, paise / 100);
+        int fraction = (int) (paise % 100);
+        sb.append(fraction < 10 ? ".0" : ".").append(fraction);
+        return sb;
+    }
+
+    private static void appendGrouped(StringBuilder sb, long rupees) 
+    {
+        if (rupees < 1000) 
+        {
+            sb.append(rupees);
+            return;
+        }
+        appendGrouped(sb, rupees / 1000);
+        int group = (int) (rupees % 1000);
+        sb.append(',');
+        if (group < 100) sb.append('0');
+        if (group < 10) sb.append('0');
+        sb.append(group);
+    }
+}
+
+// Per-customer wallet balances in paise. Every account is its own AtomicLong, so
+// different customers never contend, and a debit is a single CAS that checks
+// funds and subtracts in one step.
+class WalletLedger 
+{
+    private final ConcurrentHashMap<String, AtomicLong> accounts = new ConcurrentHashMap<>();
+
+    private AtomicLong account(String phone) 
+    {
+        return accounts.computeIfAbsent(phone, p -> new AtomicLong());
+    }
+
+    // Returns the new balance
+    public long credit(String phone, long paise) 
+    {
+        if (paise <= 0) throw new IllegalArgumentException("Credit must be positive: " + paise);
+        AtomicLong balance = account(phone);
+        while (true) 
+        {
+            long current = balance.get();
+            long next = Math.addExact(current, paise);
+            if (balance.compareAndSet(current, next)) return next;
+        }
+    }
+
+    // Returns the new balance, or -1 if the account cannot cover the amount
+    public long debit(String phone, long paise) 
+    {
+        if (paise <= 0) throw new IllegalArgumentException("Debit must be positive: " + paise);
+        AtomicLong balance = accounts.get(phone);
+        if (balance == null) return -1;
+        while (true) 
+        {
+            long current = balance.get();
+            if (current < paise) return -1;
+            if (balance.compareAndSet(current, current - paise)) return current - paise;
+        }
+    }
+
+    public long balance(String phone) 
+    {
+        AtomicLong balance = accounts.get(phone);
+        return balance == null ? 0 : balance.get();
+    }
+
+    public int accountCount() 
+    {
+        return accounts.size();
+    }
+}
+
+// A customer's view of the shared ledger
+class FuelGoWallet implements Payment 
+{
+    private static final PaymentMetrics METRICS = new PaymentMetrics("FuelGoWallet", Metrics.HOT_PATH_SAMPLE_EVERY);
+
+    private final WalletLedger ledger;
+    private final String phone;
+
+    public FuelGoWallet(WalletLedger ledger, String phone) 
+    {
+        this.ledger = ledger;
+        this.phone = phone;
+    }
+
+    public void addMoney(double amt) 
+    { 
+	long balance = ledger.credit(phone, Money.toPaise(amt)); System.out.println("Wallet balance updated: " + Money.toString(balance)); 
+    }
+    // Local ledger, no gateway round trip: the result is ready immediately
+    public CompletionStage<PaymentResult> pay(double amt) 
+    {
+        long start = METRICS.start();
+        long remaining = ledger.debit(phone, Money.toPaise(amt));
+        if (remaining >= 0) 
+        {
+		 System.out.println("Payment of " + amt + " done using FUELgo Wallet. Remaining: " + Money.toString(remaining)); 
+		 return CompletableFuture.completedFuture(METRICS.record(start, new PaymentResult(PaymentState.APPROVED, "FuelGoWallet", "WALLET-" + phone, amt, 1, "Approved")));
+    	}
+        return CompletableFuture.completedFuture(METRICS.record(start, new PaymentResult(PaymentState.DECLINED, "FuelGoWallet", "WALLET-" + phone, amt, 1, "Insufficient wallet balance!")));
+    }
+    public double getBalance() 
+    { 
+	return Money.toRupees(ledger.balance(phone)); 
+    }
+}
+
+// Allocation-free parsers for console and API input. Each one accepts exactly
+// what the old String.matches patterns accepted, without compiling a regex per call.
+final class InputValidator 
+{
+    public static final int INVALID = -1;
+    public static final long INVALID_AMOUNT = Long.MIN_VALUE;
+
+    private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+                                                    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+    private InputValidator() 
+    {
+    }
+
+    // Menu choice "1".."max" (max <= 9); INVALID otherwise
+    public static int choice(String s, int max) 
+    {
+        if (s == null || s.length() != 1) return INVALID;
+        int c = s.charAt(0) - '0';
+        return c >= 1 && c <= max ? c : INVALID;
+    }
+
+    // Exactly ten digits
+    public static boolean isPhone(String s) 
+    {
+        return s != null && s.length() == 10 && allDigits(s, 0, 10);
+    }
+
+    // One to six digits; the code as an int, or INVALID
+    public static int otp(String s) 
+    {
+        if (s == null || s.isEmpty() || s.length() > 6 || !allDigits(s, 0, s.length())) return INVALID;
+        int value = 0;
+        for (int i = 0; i < s.length(); i++) value = value * 10 + (s.charAt(i) - '0');
+        return value;
+    }
+
+    // Optional minus sign followed by one or more digits
+    public static boolean isInteger(String s) 
+    {
+        if (s == null) return false;
+        int start = s.startsWith("-") ? 1 : 0;
+        return s.length() > start && allDigits(s, start, s.length());
+    }
+
+    // Decimal such as "12", "-3.5" or ".75" (liters, amounts); NaN if malformed.
+    // Short inputs are assembled exactly from a long mantissa; anything longer
+    // falls back to Double.parseDouble so the result always matches it.
+    public static double decimal(String s) 
+    {
+        if (s == null) return Double.NaN;
+        int n = s.length();
+        int i = s.startsWith("-") ? 1 : 0;
+        boolean negative = i == 1;
+        long mantissa = 0;
+        int digits = 0, fractionDigits = 0;
+        boolean seenDot = false;
+        for (; i < n; i++) 
+        {
+            char c = s.charAt(i);
+            if (c == '.' && !seenDot) 
+            {
+                seenDot = true;
+            } 
+            else if (c >= '0' && c <= '9') 
+            {
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if (seenDot) fractionDigits++;
+            } 
+            else 
+            {
+                return Double.NaN;
+            }
+        }
+        // The pattern needs at least one digit after an optional dot ("5." is rejected)
+        if (digits == 0 || (seenDot && fractionDigits == 0)) return Double.NaN;
+        if (digits > 15) return Double.parseDouble(s);
+        double value = mantissa / POWERS_OF_TEN[fractionDigits];
+        return negative ? -value : value;
+    }
+
+    // Rupee amount with at most two decimals, in paise; INVALID_AMOUNT if malformed
+    public static long amountPaise(String s) 
+    {
+        if (s == null) return INVALID_AMOUNT;
+        int n = s.length();
+        int i = s.startsWith("-") ? 1 : 0;
+        boolean negative = i == 1;
+        long paise = 0;
+        int digits = 0, fractionDigits = 0;
+        boolean seenDot = false;
+        for (; i < n; i++) 
+        {
+            char c = s.charAt(i);
+            if (c == '.' && !seenDot) 
+            {
+                seenDot = true;
+            } 
+            else if (c >= '0' && c <= '9') 
+            {
+                if (digits == 15 || (seenDot && fractionDigits == 2)) return INVALID_AMOUNT;
+                paise = paise * 10 + (c - '0');
+                digits++;
+                if (seenDot) fractionDigits++;
+            } 
+            else 
+            {
+                return INVALID_AMOUNT;
+            }
+        }
+        if (digits == 0 || (seenDot && fractionDigits == 0)) return INVALID_AMOUNT;
+        for (; fractionDigits < 2; fractionDigits++) paise *= 10;
+        return negative ? -paise : paise;
+    }
+
+    private static boolean allDigits(String s, int from, int to) 
+    {
+        for (int i = from; i < to; i++) 
+        {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
+    }
+}
+
+// Hashed timer wheel: one daemon thread walks a ring of buckets once per tick and
+// runs whatever has fallen due. Scheduling is a queue append, with no thread or
+// heap entry per timer, so tens of thousands of pending expiries stay cheap.
+// Timers are tick-accurate at best; a timer added while its bucket is being
+// swept fires one rotation late, so callers re-check deadlines themselves.
+class TimerWheel 
+{
+    private static final class Timeout 
+    {
+        final long deadlineTick;
+        final Runnable task;
+
+        Timeout(long deadlineTick, Runnable task) 
+        {
+            this.deadlineTick = deadlineTick;
+            this.task = task;
+        }
+    }
+
+    private final ConcurrentLinkedQueue<Timeout>[] buckets;
+    private final int mask;
+    private final long tickMillis;
+    private final long startNanos = System.nanoTime();
+    private final ScheduledExecutorService ticker;
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile long currentTick;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimerWheel(String name, long tickMillis, int wheelSize) 
+    {
+        if (Integer.bitCount(wheelSize) != 1) throw new IllegalArgumentException("wheelSize must be a power of two");
+        this.buckets = new ConcurrentLinkedQueue[wheelSize];
+        for (int i = 0; i < wheelSize; i++) buckets[i] = new ConcurrentLinkedQueue<>();
+        this.mask = wheelSize - 1;
+        this.tickMillis = tickMillis;
+        this.ticker = Executors.newSingleThreadScheduledExecutor(r -> 
+        {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        });
+        ticker.scheduleAtFixedRate(this::advance, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void schedule(long delayMillis, Runnable task) 
+    {
+        long elapsed = (System.nanoTime() - startNanos) / 1_000_000;
+        long deadlineTick = Math.max(currentTick + 1, (elapsed + delayMillis + tickMillis - 1) / tickMillis);
+        buckets[(int) (deadlineTick & mask)].add(new Timeout(deadlineTick, task));
+        pending.incrementAndGet();
+    }
+
+    // Catches up on every tick that has passed, so a stalled ticker loses no timers
+    private void advance() 
+    {
+        long target = (System.nanoTime() - startNanos) / 1_000_000 / tickMillis;
+        while (currentTick < target) 
+        {
+            long tick = currentTick + 1;
+            currentTick = tick;
+            Iterator<Timeout> it = buckets[(int) (tick & mask)].iterator();
+            while (it.hasNext()) 
+            {
+                Timeout timeout = it.next();
+                if (timeout.deadlineTick > tick) continue; // due on a later rotation
+                it.remove();
+                pending.decrementAndGet();
+                try 
+                {
+                    timeout.task.run();
+                } 
+                catch (RuntimeException e) 
+                {
+                    System.out.println(Colors.RED + "Timer task failed: " + e + Colors.RESET);
+                }
+            }
+        }
+    }
+
+    public int getPending() 
+    {
+        return pending.get();
+    }
+
+    public void shutdown() 
+    {
+        ticker.shutdownNow();
+    }
+}
+
+enum OtpStatus 
+{
+    SENT, RATE_LIMITED, VERIFIED, INCORRECT, EXPIRED, LOCKED, NOT_ISSUED
+}
+
+// Outbound SMS channel for OTP codes
+interface SmsSender 
+{
+    void sendOtp(String phone, String code);
+}
+
+// Stub SMS gateway for the console app: the "SMS" is printed to the terminal
+class ConsoleSmsSender implements SmsSender 
+{
+    @Override
+    public void sendOtp(String phone, String code) 
+    {
+        System.out.println("Sending OTP to " + phone + " : " + Colors.RED + code + Colors.RESET);
+    }
+}
+
+// OTP issue/verify service. Live codes sit in a concurrent map keyed by phone and
+// are evicted by a timer wheel when their TTL runs out; each code allows a few
+// attempts and is single-use. Issuing is rate limited per phone over a fixed window.
+class OTPService 
+{
+    public static final int DEFAULT_DIGITS = 6;
+    public static final long DEFAULT_TTL_MILLIS = 5 * 60_000;
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final int DEFAULT_MAX_ISSUES = 10;
+    public static final long DEFAULT_RATE_WINDOW_MILLIS = 10 * 60_000;
+
+    private static final OTPService CONSOLE = new OTPService(new ConsoleSmsSender());
+
+    private static final class Code 
+    {
+        final int value;
+        final long expiresAt;
+        final AtomicInteger attempts = new AtomicInteger();
+
+        Code(int value, long expiresAt) 
+        {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final class IssueWindow 
+    {
+        final long start;
+        final AtomicInteger count = new AtomicInteger();
+        final AtomicBoolean evictionScheduled = new AtomicBoolean();
+
+        IssueWindow(long start) 
+        {
+            this.start = start;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Code> codes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, IssueWindow> issueWindows = new ConcurrentHashMap<>();
+    private final SecureRandom[] randoms;
+    private final TimerWheel wheel = new TimerWheel("fuelgo-otp-expiry", 1000, 512);
+    private final SmsSender sms;
+    private final int lowestCode;
+    private final int codeSpan;
+    private final long ttlMillis;
+    private final int maxAttempts;
+    private final int maxIssues;
+    private final long rateWindowMillis;
+    private final LongAdder issued = new LongAdder();
+    private final LongAdder verified = new LongAdder();
+    private final LongAdder incorrect = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder locked = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+
+    public OTPService(SmsSender sms) 
+    {
+        this(sms, DEFAULT_DIGITS, DEFAULT_TTL_MILLIS, DEFAULT_MAX_ATTEMPTS, DEFAULT_MAX_ISSUES, DEFAULT_RATE_WINDOW_MILLIS);
+    }
+
+    public OTPService(SmsSender sms, int digits, long ttlMillis, int maxAttempts, int maxIssues, long rateWindowMillis) 
+    {
+        if (digits < 4 || digits > 6) throw new IllegalArgumentException("OTP must have 4 to 6 digits");
+        this.sms = sms;
+        this.lowestCode = (int) Math.pow(10, digits - 1);
+        this.codeSpan = 9 * lowestCode;
+        this.ttlMillis = ttlMillis;
+        this.maxAttempts = maxAttempts;
+        this.maxIssues = maxIssues;
+        this.rateWindowMillis = rateWindowMillis;
+        // SecureRandom serialises callers on one instance; a pool of independent
+        // DRBGs spreads concurrent logins across several locks
+        this.randoms = new SecureRandom[Integer.highestOneBit(2 * Runtime.getRuntime().availableProcessors())];
+        for (int i = 0; i < randoms.length; i++) randoms[i] = newSecureRandom();
+    }
+
+    private static SecureRandom newSecureRandom() 
+    {
+        try 
+        {
+            return SecureRandom.getInstance("DRBG");
+        } 
+        catch (NoSuchAlgorithmException e) 
+        {
+            return new SecureRandom();
+        }
+    }
+
+    // Generates a fresh code for the phone and hands it to the SMS sender.
+    // A new code replaces any earlier one, so only the latest code verifies.
+    public OtpStatus issue(String phone) 
+    {
+        if (!allowIssue(phone)) 
+        {
+            rateLimited.increment();
+            return OtpStatus.RATE_LIMITED;
+        }
+        SecureRandom random = randoms[ThreadLocalRandom.current().nextInt(randoms.length)];
+        Code code = new Code(lowestCode + random.nextInt(codeSpan), System.nanoTime() + ttlMillis * 1_000_000);
+        codes.put(phone, code);
+        wheel.schedule(ttlMillis, () -> 
+        {
+            if (codes.remove(phone, code)) expired.increment();
+        });
+        issued.increment();
+        sms.sendOtp(phone, String.valueOf(code.value));
+        return OtpStatus.SENT;
+    }
+
+    private boolean allowIssue(String phone) 
+    {
+        long now = System.nanoTime();
+        long windowNanos = rateWindowMillis * 1_000_000;
+        IssueWindow window = issueWindows.compute(phone, (p, current) -> 
+                current == null || now - current.start >= windowNanos ? new IssueWindow(now) : current);
+        if (window.evictionScheduled.compareAndSet(false, true)) 
+        {
+            wheel.schedule(rateWindowMillis, () -> issueWindows.remove(phone, window));
+        }
+        return window.count.incrementAndGet() <= maxIssues;
+    }
+
+    // Checks an entered code (InputValidator.INVALID counts as a wrong guess)
+    public OtpStatus verify(String phone, int entered) 
+    {
+        Code code = codes.get(phone);
+        if (code == null) return OtpStatus.NOT_ISSUED;
+        if (System.nanoTime() - code.expiresAt >= 0) 
+        {
+            if (codes.remove(phone, code)) expired.increment();
+            return OtpStatus.EXPIRED;
+        }
+        int attempt = code.attempts.incrementAndGet();
+        if (attempt > maxAttempts) return OtpStatus.LOCKED;
+        if (entered != code.value) 
+        {
+            incorrect.increment();
+            if (attempt < maxAttempts) return OtpStatus.INCORRECT;
+            if (codes.remove(phone, code)) locked.increment();
+            return OtpStatus.LOCKED;
+        }
+        // Single use: of two racing correct entries only the one that removes the code wins
+        if (!codes.remove(phone, code)) return OtpStatus.NOT_ISSUED;
+        verified.increment();
+        return OtpStatus.VERIFIED;
+    }
+
+    public int getActiveCodes() 
+    {
+        return codes.size();
+    }
+
+    public String metrics() 
+    {
+        return "issued=" + issued.sum() + " verified=" + verified.sum() + " incorrect=" + incorrect.sum()
+                + " expired=" + expired.sum() + " locked=" + locked.sum() + " rate-limited=" + rateLimited.sum()
+                + " active=" + getActiveCodes() + " timers=" + wheel.getPending();
+    }
+
+    public void shutdown() 
+    {
+        wheel.shutdown();
+    }
+
+    // Console login: issue, prompt, and offer a resend after each wrong entry
+    public static boolean verifyOTP(String phone, Scanner sc) 
+    {
+        int attempts = 0;
+        while (attempts < 3) 
+	{
+            if (CONSOLE.issue(phone) == OtpStatus.RATE_LIMITED) 
+            {
+                System.out.println(Colors.RED + "Too many OTP requests for this number. Please try again later." + Colors.RESET);
+                return false;
+            }
+            System.out.print("Enter OTP (or type 0 to Exit): ");
+            String otpInput = sc.nextLine();
+            if (otpInput.equals("0")) return false;
+            if (CONSOLE.verify(phone, InputValidator.otp(otpInput)) == OtpStatus.VERIFIED) return true;
+            attempts++;
+            System.out.println(Colors.RED + "Incorrect OTP. Attempts left: " + (3 - attempts) + Colors.RESET);
+            if (attempts < 3) 
+	    {
+                System.out.println("1. Resend OTP\n2. Exit");
+                int choice = InputValidator.choice(sc.nextLine(), 2);
+                if (choice == InputValidator.INVALID) 
+		{
+                    System.out.println(Colors.RED + "Invalid choice. Please enter 1 or 2." + Colors.RESET);
+                    continue;
+                }
+                if (choice == 2) return false;
+            }
+        }
+        System.out.println(Colors.RED + "Too many failed OTP attempts. Exiting..." + Colors.RESET);
+        return false;
+    }
+}
+
+// Callbacks for events read back from the order journal, in write order
+interface JournalHandler 
+{
+    // pickup and dropoff are null for orders placed without coordinates
+    void orderCreated(long at, String orderId, String customerName, String customerPhone, String fuelType,
+                      double pricePerLiter, double liters, String bunk, double distance, String address,
+                      Bill bill, GeoPoint pickup, GeoPoint dropoff);
+    void payment(long at, String orderId, String method, double amount);
+    void refund(long at, String orderId, String method, double amount);
+    void statusChanged(long at, String orderId, OrderStatus from, OrderStatus to);
+    void driverRegistered(long at, String name, String phone);
+    void driverAssigned(long at, String orderId, String driverPhone);
+}
+
+// Append-only, checksummed journal of order events.
+// Callers encode records on their own thread and hand them to a single writer
+// thread, which appends whole batches through a FileChannel and fsyncs once per
+// batch (group commit). A torn or corrupt tail is cut off on the next open.
+// Record layout: [int bodyLength][int crc32(body)][byte type][long timestamp][fields]
+// An order is journalled with the bill it was charged (paise) and its coordinates,
+// so recovery restores what the customer paid instead of pricing it again.
+class OrderJournal implements OrderStatusListener, Closeable 
+{
+    static final byte ORDER_CREATED = 1;
+    static final byte PAYMENT = 2;
+    static final byte STATUS = 3;
+    static final byte DRIVER_REGISTERED = 4;
+    static final byte DRIVER_ASSIGNED = 5;
+    static final byte REFUND = 6;
+
+    private static final int HEADER_BYTES = 8;
+    private static final int MAX_RECORD_BYTES = 1 << 20;
+    private static final int MAX_BATCH = 8192;
+    private static final int QUEUE_CAPACITY = 1 << 16;
+
+    private static final ThreadLocal<ByteBuffer> ENCODER = ThreadLocal.withInitial(() -> ByteBuffer.allocate(MAX_RECORD_BYTES));
+
+    private final Path path;
+    private final FileChannel channel;
+    private final BlockingQueue<byte[]> pending = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread writer;
+    private final long syncIntervalMillis;
+    private final Object durableMonitor = new Object();
+    private long appended;
+    private volatile long durable;
+    private volatile boolean closed;
+    private volatile IOException failure;
+
+    // Opens the journal for appending after the first validBytes (see replay)
+    public OrderJournal(Path path, long validBytes, long syncIntervalMillis) throws IOException 
+    {
+        this.path = path;
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        if (channel.size() > validBytes) 
+        {
+            System.out.println(Colors.YELLOW + "Journal: dropping " + (channel.size() - validBytes) + " bytes of incomplete records." + Colors.RESET);
+            channel.truncate(validBytes);
+        }
+        channel.position(validBytes);
+        this.writer = new Thread(this::writeLoop, "fuelgo-journal");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // Replays every intact record into the handler and returns the length of the valid prefix
+    public static long replay(Path path, JournalHandler handler) throws IOException 
+    {
+        if (!Files.exists(path)) return 0;
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) 
+        {
+            long size = ch.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("Journal " + path + " is too large to map (" + size + " bytes)");
+            MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            CRC32 crc = new CRC32();
+            int valid = 0;
+            while (map.remaining() >= HEADER_BYTES) 
+            {
+                int length = map.getInt();
+                int checksum = map.getInt();
+                if (length <= 0 || length > map.remaining()) break;
+                int bodyStart = map.position();
+                int bodyEnd = bodyStart + length;
+                map.limit(bodyEnd);
+                crc.reset();
+                crc.update(map);
+                if ((int) crc.getValue() != checksum) break;
+                map.position(bodyStart);
+                decode(map, handler);
+                map.limit((int) size);
+                map.position(bodyEnd);
+                valid = bodyEnd;
+            }
+            return valid;
+        }
+    }
+
+    private static void decode(ByteBuffer in, JournalHandler handler) throws IOException 
+    {
+        byte type = in.get();
+        long at = in.getLong();
+        switch (type) 
+        {
+            case ORDER_CREATED:
+                decodeOrderCreated(at, in, handler);
+                break;
+            case PAYMENT:
+                handler.payment(at, getString(in), getString(in), in.getDouble());
+                break;
+            case STATUS:
+                OrderStatus[] states = OrderStatus.values();
+                String orderId = getString(in);
+                handler.statusChanged(at, orderId, states[in.get()], states[in.get()]);
+                break;
+            case DRIVER_REGISTERED:
+                handler.driverRegistered(at, getString(in), getString(in));
+                break;
+            case DRIVER_ASSIGNED:
+                handler.driverAssigned(at, getString(in), getString(in));
+                break;
+            case REFUND:
+                handler.refund(at, getString(in), getString(in), in.getDouble());
+                break;
+            default:
+                throw new IOException("Unknown journal record type " + type);
+        }
+    }
+
+    private static void decodeOrderCreated(long at, ByteBuffer in, JournalHandler handler) 
+    {
+        String orderId = getString(in), customerName = getString(in), customerPhone = getString(in), fuelType = getString(in);
+        double pricePerLiter = in.getDouble(), liters = in.getDouble();
+        String bunk = getString(in);
+        double distance = in.getDouble();
+        String address = getString(in);
+        // Records from before the bill was journalled end here and are priced at the standard rates
+        Bill bill = in.hasRemaining() ? new Bill(in.getLong(), in.getLong(), in.getLong(), getString(in))
+                : BillingEngine.standard().price(Fuel.of(fuelType, pricePerLiter), liters, bunk, distance);
+        GeoPoint pickup = null, dropoff = null;
+        if (in.hasRemaining() && in.get() != 0) 
+        {
+            pickup = new GeoPoint(in.getDouble(), in.getDouble());
+            dropoff = new GeoPoint(in.getDouble(), in.getDouble());
+        }
+        handler.orderCreated(at, orderId, customerName, customerPhone, fuelType, pricePerLiter, liters, bunk, distance, address, bill, pickup, dropoff);
+    }
+
+    public void orderCreated(Order o) 
+    {
+        orderCreated(o, System.currentTimeMillis());
+    }
+
+    // Stamped with the creation time the caller gave the order
+    public void orderCreated(Order o, long at) 
+    {
+        ByteBuffer out = begin(ORDER_CREATED, at);
+        putString(out, o.getOrderId());
+        putString(out, o.getCustomer().getName());
+        putString(out, o.getCustomer().getPhone());
+        putString(out, o.getFuel().getType());
+        out.putDouble(o.getFuel().getPricePerLiter());
+        out.putDouble(o.getLiters());
+        putString(out, o.getBunkName());
+        out.putDouble(o.getDistance());
+        putString(out, o.getDeliveryAddr());
+        Bill bill = o.getBill();
+        out.putLong(bill.fuelCost);
+        out.putLong(bill.deliveryCharge);
+        out.putLong(bill.tax);
+        putString(out, bill.taxLabel);
+        boolean located = o.getPickup() != null && o.getDropoff() != null;
+        out.put((byte) (located ? 1 : 0));
+        if (located) 
+        {
+            out.putDouble(o.getPickup().getLat());
+            out.putDouble(o.getPickup().getLon());
+            out.putDouble(o.getDropoff().getLat());
+            out.putDouble(o.getDropoff().getLon());
+        }
+        end(out);
+    }
+
+    public void payment(Order o, String method, double amount) 
+    {
+        ByteBuffer out = begin(PAYMENT);
+        putString(out, o.getOrderId());
+        putString(out, method);
+        out.putDouble(amount);
+        end(out);
+    }
+
+    // Compensates a payment that cleared for an order which could no longer be paid
+    public void refund(Order o, String method, double amount) 
+    {
+        ByteBuffer out = begin(REFUND);
+        putString(out, o.getOrderId());
+        putString(out, method);
+        out.putDouble(amount);
+        end(out);
+    }
+
+    public void onStatusChange(Order order, OrderStatus from, OrderStatus to) 
+    {
+        ByteBuffer out = begin(STATUS);
+        putString(out, order.getOrderId());
+        out.put((byte) from.ordinal());
+        out.put((byte) to.ordinal());
+        end(out);
+    }
+
+    public void driverRegistered(DeliveryDriver d) 
+    {
+        ByteBuffer out = begin(DRIVER_REGISTERED);
+        putString(out, d.getName());
+        putString(out, d.getPhone());
+        end(out);
+    }
+
+    public void driverAssigned(Order o, DeliveryDriver d) 
+    {
+        ByteBuffer out = begin(DRIVER_ASSIGNED);
+        putString(out, o.getOrderId());
+        putString(out, d.getPhone());
+        end(out);
+    }
+
+    // Blocks until everything appended so far has been fsynced
+    public void flush() throws IOException 
+    {
+        long target;
+        synchronized (this) 
+        {
+            target = appended;
+        }
+        synchronized (durableMonitor) 
+        {
+            while (durable < target && failure == null) 
+            {
+                try 
+                {
+                    durableMonitor.wait(syncIntervalMillis + 1);
+                } 
+                catch (InterruptedException e) 
+                {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while flushing journal");
+                }
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    public void close() throws IOException 
+    {
+        // Under the append lock, so no record is queued after the writer may have seen closed
+        synchronized (this) 
+        {
+            if (closed) return;
+            closed = true;
+        }
+        try 
+        {
+            writer.join();
+        } 
+        catch (InterruptedException e) 
+        {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        if (failure != null) throw failure;
+    }
+
+    public long getDurableCount() 
+    { 
+	return durable; 
+    }
+    public Path getPath() 
+    { 
+	return path; 
+    }
+
+    private static ByteBuffer begin(byte type) 
+    {
+        return begin(type, System.currentTimeMillis());
+    }
+
+    private static ByteBuffer begin(byte type, long at) 
+    {
+        ByteBuffer out = ENCODER.get();
+        out.clear();
+        out.position(HEADER_BYTES);
+        out.put(type);
+        out.putLong(at);
+        return out;
+    }
+
+    private void end(ByteBuffer out) 
+    {
+        int bodyLength = out.position() - HEADER_BYTES;
+        CRC32 crc = new CRC32();
+        crc.update(out.array(), HEADER_BYTES, bodyLength);
+        out.putInt(0, bodyLength);
+        out.putInt(4, (int) crc.getValue());
+        byte[] record = Arrays.copyOf(out.array(), out.position());
+        if (failure != null) throw new UncheckedIOException(failure);
+        try 
+        {
+            // Sequence and queue order must agree so durable counts are exact
+            synchronized (this) 
+            {
+                if (closed) throw new IllegalStateException("Journal " + path + " is closed");
+                pending.put(record);
+                appended++;
+            }
+        } 
+        catch (InterruptedException e) 
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while appending to journal", e);
+        }
+    }
+
+    private void writeLoop() 
+    {
+        List<byte[]> batch = new ArrayList<>(MAX_BATCH);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4 * MAX_RECORD_BYTES);
+        long written = 0;
+        try 
+        {
+            while (!closed || !pending.isEmpty()) 
+            {
+                byte[] first = pending.poll(syncIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                pending.drainTo(batch, MAX_BATCH - 1);
+                for (byte[] record : batch) 
+                {
+                    if (buffer.remaining() < record.length) drain(buffer);
+                    buffer.put(record);
+                }
+                drain(buffer);
+                channel.force(false);
+                written += batch.size();
+                batch.clear();
+                synchronized (durableMonitor) 
+                {
+                    durable = written;
+                    durableMonitor.notifyAll();
+                }
+            }
+        } 
+        catch (IOException e) 
+        {
+            failure = e;
+            System.out.println(Colors.RED + "Journal write failed: " + e.getMessage() + Colors.RESET);
+        } 
+        catch (InterruptedException e) 
+        {
+            failure = new InterruptedIOException("Journal writer interrupted");
+        }
+        synchronized (durableMonitor) 
+        {
+            durableMonitor.notifyAll();
+        }
+    }
+
+    private void drain(ByteBuffer buffer) throws IOException 
+    {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    private static void putString(ByteBuffer out, String s) 
+    {
+        byte[] bytes = (s == null ? "" : s).getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) throw new IllegalArgumentException("Journal field too long: " + bytes.length + " bytes");
+        out.putShort((short) bytes.length);
+        out.put(bytes);
+    }
+
+    private static String getString(ByteBuffer in) 
+    {
+        byte[] bytes = new byte[in.getShort() & 0xFFFF];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
+
+// Rebuilds orders, drivers and in-flight deliveries from the journal
+class JournalRecovery implements JournalHandler 
+{
+    private final Map<String, Order> orders = new LinkedHashMap<>();
+    private final Map<String, OrderStatus> lastStatus = new HashMap<>();
+    private final Map<String, String> lastDriver = new HashMap<>();
+    private final Map<String, String> drivers = new LinkedHashMap<>();
+    private final Map<String, Customer> customers = new HashMap<>();
+    private long events, payments, refunds;
+
+    public void orderCreated(long at, String orderId, String customerName, String customerPhone, String fuelType,
+                             double pricePerLiter, double liters, String bunk, double distance, String address,
+                             Bill bill, GeoPoint pickup, GeoPoint dropoff) 
+    {
+        events++;
+        Customer cust = customers.computeIfAbsent(customerPhone, phone -> new Customer(customerName, phone));
+        orders.put(orderId, new Order(orderId, cust, Fuel.of(fuelType, pricePerLiter), liters, bunk, distance, address, bill, pickup, dropoff));
+    }
+
+    public void payment(long at, String orderId, String method, double amount) 
+    {
+        events++;
+        payments++;
+    }
+
+    public void refund(long at, String orderId, String method, double amount) 
+    {
+        events++;
+        refunds++;
+    }
+
+    public void statusChanged(long at, String orderId, OrderStatus from, OrderStatus to) 
+    {
+        events++;
+        lastStatus.put(orderId, to);
+    }
+
+    public void driverRegistered(long at, String name, String phone) 
+    {
+        events++;
+        drivers.put(phone, name);
+    }
+
+    public void driverAssigned(long at, String orderId, String driverPhone) 
+    {
+        events++;
+        lastDriver.put(orderId, driverPhone);
+    }
+
+    // Re-registers drivers, restores order states and puts interrupted deliveries back on the road.
+    // Drivers and orders are restored before the journal is attached, so recovery does not re-log them.
+    public void restore(DeliveryManager manager, OrderJournal journal) 
+    {
+        for (Map.Entry<String, String> d : drivers.entrySet()) 
+        {
+            manager.registerDriver(d.getValue(), d.getKey());
+        }
+        manager.setJournal(journal);
+
+        List<Order> inFlight = new ArrayList<>();
+        List<Order> paid = new ArrayList<>();
+        for (Order order : orders.values()) 
+        {
+            OrderStatus status = lastStatus.getOrDefault(order.getOrderId(), OrderStatus.PENDING);
+            boolean interrupted = status == OrderStatus.ASSIGNED || status == OrderStatus.ON_THE_WAY;
+            if (status == OrderStatus.PAID) paid.add(order);
+            replayTo(order, interrupted ? OrderStatus.PAID : status);
+            if (status == OrderStatus.DELIVERED) 
+            {
+                DeliveryDriver driver = manager.getDriverRegistry().findByPhone(lastDriver.getOrDefault(order.getOrderId(), ""));
+                if (driver != null) driver.restoreLastDelivered(order);
+            }
+            if (!status.isTerminal()) order.addStatusListener(journal);
+            if (interrupted) inFlight.add(order);
+        }
+        for (Order order : inFlight) 
+        {
+            manager.resumeDelivery(order, lastDriver.get(order.getOrderId()));
+        }
+        // Paid but never given a driver: back in line behind the interrupted trips
+        for (Order order : paid) 
+        {
+            manager.assignOrWait(order);
+        }
+    }
+
+    // Walks the canonical lifecycle path, which is legal for every recorded end state
+    private static void replayTo(Order order, OrderStatus target) 
+    {
+        if (target == OrderStatus.CANCELLED) 
+        {
+            order.cancel();
+            return;
+        }
+        OrderStatus[] path = { OrderStatus.PAID, OrderStatus.ASSIGNED, OrderStatus.ON_THE_WAY, OrderStatus.DELIVERED };
+        for (OrderStatus step : path) 
+        {
+            if (order.getStatus() == target) return;
+            order.updateStatus(step);
+        }
+    }
+
+    public Collection<Order> getOrders() 
+    { 
+	return orders.values(); 
+    }
+    public long getEventCount() 
+    { 
+	return events; 
+    }
+    public long getPaymentCount() 
+    { 
+	return payments; 
+    }
+    public long getRefundCount() 
+    { 
+	return refunds; 
+    }
+}
+
+// Time-ordered 64-bit ids, Snowflake layout: 41 bits of milliseconds since
+// 2024-01-01, 10 bits of node id, 12 bits of sequence. The millisecond and
+// sequence live in one AtomicLong advanced by compare-and-set, so ids are
+// unique and increasing per node without a lock. A burst of more than 4096 ids
+// in a millisecond, or a clock that steps back, borrows the next millisecond
+// instead of waiting or repeating.
+final class IdGenerator 
+{
+    public static final long EPOCH_MILLIS = 1704067200000L;
+    public static final int NODE_BITS = 10;
+    public static final int SEQUENCE_BITS = 12;
+    public static final int MAX_NODE = (1 << NODE_BITS) - 1;
+
+    private final long node;
+    // (millis since EPOCH_MILLIS << SEQUENCE_BITS) | sequence of the last id handed out
+    private final AtomicLong last = new AtomicLong();
+
+    public IdGenerator(int node) 
+    {
+        if (node < 0 || node > MAX_NODE) throw new IllegalArgumentException("Node id must be between 0 and " + MAX_NODE + ": " + node);
+        this.node = node;
+    }
+
+    public long next() 
+    {
+        long now = (System.currentTimeMillis() - EPOCH_MILLIS) << SEQUENCE_BITS;
+        long prev, stamp;
+        do 
+        {
+            prev = last.get();
+            stamp = Math.max(now, prev + 1);
+        } 
+        while (!last.compareAndSet(prev, stamp));
+        return (stamp >>> SEQUENCE_BITS) << (NODE_BITS + SEQUENCE_BITS) | node << SEQUENCE_BITS | (stamp & ((1 << SEQUENCE_BITS) - 1));
+    }
+
+    // Never hand out an id at or below one already issued (e.g. recovered after a clock reset)
+    public void advancePast(long id) 
+    {
+        long stamp = (id >>> (NODE_BITS + SEQUENCE_BITS)) << SEQUENCE_BITS | (id & ((1 << SEQUENCE_BITS) - 1));
+        last.accumulateAndGet(stamp, Math::max);
+    }
+
+    public static long timestampMillis(long id) 
+    {
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH_MILLIS;
+    }
+
+    public static int node(long id) 
+    {
+        return (int) (id >>> SEQUENCE_BITS) & MAX_NODE;
+    }
+
+    public int getNode() 
+    { 
+	return (int) node; 
+    }
+}
+
+// Results of requests made under a client's idempotency key. A retry with the
+// same key gets the first request's result (waiting for it if it is still
+// running) instead of repeating it; reusing the key for a different request is
+// rejected. Failures are forgotten so the request can be retried. Keys expire
+// after ttl, swept lazily by whichever caller notices a sweep is due.
+class IdempotencyStore<V> 
+{
+    private static final class Entry<V> 
+    {
+        final String fingerprint;
+        final long createdAt;
+        final CompletableFuture<V> result = new CompletableFuture<>();
+
+        Entry(String fingerprint, long createdAt) 
+        {
+            this.fingerprint = fingerprint;
+            this.createdAt = createdAt;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final long ttlMillis;
+    private final AtomicLong nextSweep;
+    private final LongAdder replays = new LongAdder();
+
+    public IdempotencyStore(long ttlMillis) 
+    {
+        this.ttlMillis = ttlMillis;
+        this.nextSweep = new AtomicLong(System.currentTimeMillis() + ttlMillis);
+    }
+
+    // Runs call unless key has already been used for the same fingerprint
+    public CompletableFuture<V> execute(String key, String fingerprint, Supplier<? extends CompletionStage<V>> call) 
+    {
+        long now = System.currentTimeMillis();
+        sweepIfDue(now);
+        Entry<V> fresh = null;
+        while (true) 
+        {
+            Entry<V> existing = entries.get(key);
+            if (existing != null && now - existing.createdAt < ttlMillis) 
+            {
+                if (!existing.fingerprint.equals(fingerprint)) throw new IllegalArgumentException("Idempotency key was already used for a different request");
+                replays.increment();
+                return existing.result;
+            }
+            if (fresh == null) fresh = new Entry<>(fingerprint, now);
+            if (existing == null ? entries.putIfAbsent(key, fresh) == null : entries.replace(key, existing, fresh)) break;
+        }
+        Entry<V> mine = fresh;
+        try 
+        {
+            call.get().whenComplete((value, e) -> 
+            {
+                if (e == null) 
+                {
+                    mine.result.complete(value);
+                    return;
+                }
+                entries.remove(key, mine);
+                mine.result.completeExceptionally(e);
+            });
+        } 
+        catch (RuntimeException e) 
+        {
+            entries.remove(key, mine);
+            mine.result.completeExceptionally(e);
+        }
+        return mine.result;
+    }
+
+    private void sweepIfDue(long now) 
+    {
+        long due = nextSweep.get();
+        if (now < due || !nextSweep.compareAndSet(due, now + ttlMillis / 4 + 1)) return;
+        entries.values().removeIf(e -> now - e.createdAt >= ttlMillis);
+    }
+
+    public int size() 
+    { 
+	return entries.size(); 
+    }
+    public long getReplays() 
+    { 
+	return replays.sum(); 
+    }
+}
+
+// One order as kept in the history: a small value copied out of OrderHistory
+final class OrderRecord 
+{
+    private final String orderId, customerPhone, fuelType, bunk, address;
+    private final double liters;
+    private final long totalPaise, createdAt;
+    private final OrderStatus status;
+
+    OrderRecord(String orderId, String customerPhone, String fuelType, double liters, String bunk, String address, long totalPaise, long createdAt, OrderStatus status) 
+    {
+        this.orderId = orderId;
+        this.customerPhone = customerPhone;
+        this.fuelType = fuelType;
+        this.liters = liters;
+        this.bunk = bunk;
+        this.address = address;
+        this.totalPaise = totalPaise;
+        this.createdAt = createdAt;
+        this.status = status;
+    }
+
+    public String getOrderId() 
+    { 
+	return orderId; 
+    }
+    public String getCustomerPhone() 
+    { 
+	return customerPhone; 
+    }
+    public String getFuelType() 
+    { 
+	return fuelType; 
+    }
+    public double getLiters() 
+    { 
+	return liters; 
+    }
+    public String getBunk() 
+    { 
+	return bunk; 
+    }
+    public String getAddress() 
+    { 
+	return address; 
+    }
+    public long getTotalPaise() 
+    { 
+	return totalPaise; 
+    }
+    public long getCreatedAt() 
+    { 
+	return createdAt; 
+    }
+    public OrderStatus getStatus() 
+    { 
+	return status; 
+    }
+
+    // Same layout as Order.summary
+    public String summary() 
+    {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append(orderId).append(" | ").append(fuelType).append(" | ").append(liters).append("L | ")
+          .append(address).append(" | ").append(status).append(" | Total: ");
+        return Money.appendRupees(sb, totalPaise).toString();
+    }
+}
+
+// Newest-first page of history; the cursor asks for the next, older page and is null after the last one
+final class HistoryPage 
+{
+    private final List<OrderRecord> records;
+    private final String nextCursor;
+
+    HistoryPage(List<OrderRecord> records, String nextCursor) 
+    {
+        this.records = records;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<OrderRecord> getRecords() 
+    { 
+	return records; 
+    }
+    public String getNextCursor() 
+    { 
+	return nextCursor; 
+    }
+}
+
+// Every order placed, kept as columns in fixed-size chunks instead of Order
+// object graphs: about 60 bytes an order, with phones, bunks, fuel types and
+// addresses stored once each in a dictionary. Records are appended in creation
+// order with non-decreasing timestamps, so the position is the time index; each
+// customer keeps the positions of their own orders, and an open-addressed int
+// table finds one order by id. Pages are cursor based,
+// newest first, and cost a binary search plus one step per record however long
+// the history grows. Appends take one lock; reads never lock and see everything
+// published before the size they read. Rebuilt from the order journal at startup.
+class OrderHistory implements JournalHandler 
+{
+    public static final int MAX_PAGE = 500;
+
+    private static final int CHUNK_BITS = 14;
+    private static final int CHUNK = 1 << CHUNK_BITS;
+    private static final OrderStatus[] STATUSES = OrderStatus.values();
+    private static final VarHandle STATUS = MethodHandles.arrayElementVarHandle(byte[].class);
+
+    private static final class Chunk 
+    {
+        final long[] ids = new long[CHUNK];
+        final long[] createdAt = new long[CHUNK];
+        final long[] totalPaise = new long[CHUNK];
+        final int[] milliliters = new int[CHUNK];
+        final int[] phone = new int[CHUNK];
+        final int[] fuel = new int[CHUNK];
+        final int[] bunk = new int[CHUNK];
+        final int[] address = new int[CHUNK];
+        final byte[] status = new byte[CHUNK];
+    }
+
+    // Positions of one customer's orders, oldest first. count is written after the
+    // position it covers, and readers read count before positions.
+    private static final class CustomerOrders 
+    {
+        volatile int[] positions = new int[4];
+        volatile int count;
+    }
+
+    // Written under appendLock. Readers read size (or a customer's count) first,
+    // then the arrays, which are only ever replaced by longer copies.
+    private final Object appendLock = new Object();
+    private volatile Chunk[] chunks = new Chunk[0];
+    private volatile String[] strings = new String[64];
+    private final HashMap<String, Integer> stringIds = new HashMap<>();
+    private long lastCreatedAt;
+    private volatile int size;
+    private final ConcurrentHashMap<String, CustomerOrders> byCustomer = new ConcurrentHashMap<>();
+    // Hash of the order id -> position + 1 (0 is empty), linear probing, at most half
+    // full. A slot is written before size publishes its position; a full table is
+    // replaced by a copy twice the size.
+    private volatile int[] byId = new int[1 << 10];
+    // Journal status records are applied only while rebuilding
+    private boolean rebuilding;
+
+    // Adds a newly created order and follows its status from now on
+    public void record(Order order) 
+    {
+        record(order, System.currentTimeMillis());
+    }
+
+    public void record(Order order, long createdAt) 
+    {
+        int position = append(idNumber(order.getOrderId()), createdAt, order.getCustomer().getPhone(), order.getFuel().getType(),
+                order.getLiters(), order.getBunkName(), order.getDeliveryAddr(), order.getTotalPaise(), order.getStatus());
+        follow(order, position);
+    }
+
+    // Follows an open order that was already recorded (recovered from the journal)
+    public void follow(Order order) 
+    {
+        CustomerOrders own = byCustomer.get(order.getCustomer().getPhone());
+        if (own == null) return;
+        long id = idNumber(order.getOrderId());
+        int count = own.count;
+        int[] positions = own.positions;
+        // Open orders are the customer's latest, so search from the newest
+        for (int i = count - 1; i >= 0; i--) 
+        {
+            if (chunk(positions[i]).ids[positions[i] & (CHUNK - 1)] == id) 
+            {
+                follow(order, positions[i]);
+                return;
+            }
+        }
+    }
+
+    private void follow(Order order, int position) 
+    {
+        order.addStatusListener((o, from, to) -> setStatus(position, to));
+        setStatus(position, order.getStatus());
+    }
+
+    private int append(long id, long createdAt, String phone, String fuelType, double liters, String bunk, String address, long totalPaise, OrderStatus status) 
+    {
+        synchronized (appendLock) 
+        {
+            int position = size;
+            if ((position & (CHUNK - 1)) == 0) 
+            {
+                chunks = Arrays.copyOf(chunks, chunks.length + 1);
+                chunks[chunks.length - 1] = new Chunk();
+            }
+            Chunk c = chunks[position >>> CHUNK_BITS];
+            int i = position & (CHUNK - 1);
+            lastCreatedAt = Math.max(lastCreatedAt, createdAt);
+            c.ids[i] = id;
+            c.createdAt[i] = lastCreatedAt;
+            c.totalPaise[i] = totalPaise;
+            c.milliliters[i] = (int) FuelInventory.toMillilitres(liters);
+            c.phone[i] = intern(phone);
+            c.fuel[i] = intern(fuelType);
+            c.bunk[i] = intern(bunk);
+            c.address[i] = intern(address);
+            c.status[i] = (byte) status.ordinal();
+            index(id, position);
+
+            CustomerOrders own = byCustomer.computeIfAbsent(phone, p -> new CustomerOrders());
+            int count = own.count;
+            if (count == own.positions.length) own.positions = Arrays.copyOf(own.positions, count * 2);
+            own.positions[count] = position;
+            own.count = count + 1;
+            size = position + 1;
+            return position;
+        }
+    }
+
+    private void index(long id, int position) 
+    {
+        int[] table = byId;
+        if ((position + 1) * 2 <= table.length) 
+        {
+            insert(table, id, position);
+            return;
+        }
+        int[] grown = new int[table.length * 2];
+        for (int p = 0; p <= position; p++) insert(grown, chunk(p).ids[p & (CHUNK - 1)], p);
+        byId = grown;
+    }
+
+    private static void insert(int[] table, long id, int position) 
+    {
+        int mask = table.length - 1;
+        int i = slot(id, mask);
+        while (table[i] != 0) i = (i + 1) & mask;
+        table[i] = position + 1;
+    }
+
+    private static int slot(long id, int mask) 
+    {
+        return (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    // Position of an order below n, or -1
+    private int positionOf(long id, int n) 
+    {
+        Chunk[] snapshot = chunks;
+        int[] table = byId;
+        int mask = table.length - 1;
+        for (int i = slot(id, mask); table[i] != 0; i = (i + 1) & mask) 
+        {
+            int p = table[i] - 1;
+            if (p < n && snapshot[p >>> CHUNK_BITS].ids[p & (CHUNK - 1)] == id) return p;
+        }
+        return -1;
+    }
+
+    private int intern(String s) 
+    {
+        Integer id = stringIds.get(s);
+        if (id != null) return id;
+        int next = stringIds.size();
+        if (next == strings.length) strings = Arrays.copyOf(strings, next * 2);
+        strings[next] = s;
+        stringIds.put(s, next);
+        return next;
+    }
+
+    private void setStatus(int position, OrderStatus status) 
+    {
+        STATUS.setVolatile(chunk(position).status, position & (CHUNK - 1), (byte) status.ordinal());
+    }
+
+    // Valid for positions below a size already read
+    private Chunk chunk(int position) 
+    {
+        return chunks[position >>> CHUNK_BITS];
+    }
+
+    // One order by id, or null if it was never recorded
+    public OrderRecord find(String orderId) 
+    {
+        long id;
+        try 
+        {
+            if (orderId.length() < 2 || orderId.charAt(0) != 'O') return null;
+            id = idNumber(orderId);
+        } 
+        catch (NumberFormatException e) 
+        {
+            return null;
+        }
+        int n = size;
+        int position = positionOf(id, n);
+        return position < 0 ? null : read(chunks, position);
+    }
+
+    // A customer's orders, newest first
+    public HistoryPage customerPage(String phone, String cursor, int limit) 
+    {
+        int before = before(cursor);
+        limit = pageLimit(limit);
+        CustomerOrders own = byCustomer.get(phone);
+        if (own == null) return new HistoryPage(Collections.emptyList(), null);
+        int count = own.count;
+        int[] positions = own.positions;
+        // Positions ascend, so the first one before the cursor is a binary search away
+        int from = Arrays.binarySearch(positions, 0, count, before);
+        from = from >= 0 ? from - 1 : -from - 2;
+        Chunk[] snapshot = chunks;
+        List<OrderRecord> records = new ArrayList<>(Math.min(limit, from + 1));
+        int i = from;
+        for (; i >= 0 && records.size() < limit; i--) records.add(read(snapshot, positions[i]));
+        return new HistoryPage(records, i >= 0 ? Integer.toString(positions[i + 1]) : null);
+    }
+
+    // All orders created in [fromMillis, toMillis), newest first
+    public HistoryPage timePage(long fromMillis, long toMillis, String cursor, int limit) 
+    {
+        int before = before(cursor);
+        limit = pageLimit(limit);
+        int n = size;
+        Chunk[] snapshot = chunks;
+        int end = Math.min(Math.min(before, n), firstAtOrAfter(snapshot, n, toMillis));
+        int start = firstAtOrAfter(snapshot, n, fromMillis);
+        List<OrderRecord> records = new ArrayList<>(Math.max(0, Math.min(limit, end - start)));
+        int p = end - 1;
+        for (; p >= start && records.size() < limit; p--) records.add(read(snapshot, p));
+        return new HistoryPage(records, p >= start ? Integer.toString(p + 1) : null);
+    }
+
+    // The most recent orders across all customers
+    public HistoryPage recentPage(String cursor, int limit) 
+    {
+        return timePage(Long.MIN_VALUE, Long.MAX_VALUE, cursor, limit);
+    }
+
+    private int firstAtOrAfter(Chunk[] snapshot, int n, long millis) 
+    {
+        int lo = 0, hi = n;
+        while (lo < hi) 
+        {
+            int mid = (lo + hi) >>> 1;
+            if (snapshot[mid >>> CHUNK_BITS].createdAt[mid & (CHUNK - 1)] < millis) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private OrderRecord read(Chunk[] snapshot, int position) 
+    {
+        Chunk c = snapshot[position >>> CHUNK_BITS];
+        int i = position & (CHUNK - 1);
+        String[] dictionary = strings;
+        return new OrderRecord("O" + c.ids[i], dictionary[c.phone[i]], dictionary[c.fuel[i]], c.milliliters[i] / 1000.0,
+                dictionary[c.bunk[i]], dictionary[c.address[i]], c.totalPaise[i], c.createdAt[i], STATUSES[(byte) STATUS.getVolatile(c.status, i)]);
+    }
+
+    private static int before(String cursor) 
+    {
+        if (cursor == null || cursor.isEmpty()) return Integer.MAX_VALUE;
+        if (!InputValidator.isInteger(cursor) || cursor.length() > 9) throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        return Integer.parseInt(cursor);
+    }
+
+    private static int pageLimit(int limit) 
+    {
+        if (limit < 1 || limit > MAX_PAGE) throw new IllegalArgumentException("Page size must be between 1 and " + MAX_PAGE);
+        return limit;
+    }
+
+    private static long idNumber(String orderId) 
+    {
+        return Long.parseLong(orderId.substring(1));
+    }
+
+    // Replays the journal into an empty history; returns the number of orders
+    public int rebuild(Path journal) throws IOException 
+    {
+        int before = size;
+        rebuilding = true;
+        try 
+        {
+            OrderJournal.replay(journal, this);
+            return size - before;
+        } 
+        finally 
+        {
+            rebuilding = false;
+        }
+    }
+
+    public void orderCreated(long at, String orderId, String customerName, String customerPhone, String fuelType,
+                             double pricePerLiter, double liters, String bunk, double distance, String address,
+                             Bill bill, GeoPoint pickup, GeoPoint dropoff) 
+    {
+        append(idNumber(orderId), at, customerPhone, fuelType, liters, bunk, address, bill.total, OrderStatus.PENDING);
+    }
+
+    public void statusChanged(long at, String orderId, OrderStatus from, OrderStatus to) 
+    {
+        if (!rebuilding) return;
+        int position = positionOf(idNumber(orderId), size);
+        if (position >= 0) setStatus(position, to);
+    }
+
+    public void payment(long at, String orderId, String method, double amount) 
+    {
+    }
+
+    public void refund(long at, String orderId, String method, double amount) 
+    {
+    }
+
+    public void driverRegistered(long at, String name, String phone) 
+    {
+    }
+
+    public void driverAssigned(long at, String orderId, String driverPhone) 
+    {
+    }
+
+    public int size() 
+    { 
+	return size; 
+    }
+    public int getCustomerCount() 
+    { 
+	return byCustomer.size(); 
+    }
+}
+
+// What order intake does while the fleet is saturated
+enum AdmissionPolicy 
+{
+    // Refuse new orders until a driver comes free
+    REJECT,
+    // Take them; once paid they queue for the next free driver
+    DEFER,
+    // Take them at a higher delivery charge, then queue as DEFER does
+    SURGE;
+
+    public static AdmissionPolicy of(String name) 
+    {
+        for (AdmissionPolicy p : values()) 
+        {
+            if (p.name().equalsIgnoreCase(name)) return p;
+        }
+        throw new IllegalArgumentException("Unknown admission policy: " + name + " (reject, defer or surge)");
+    }
+}
+
+// An order refused to keep the system responsive; the client may retry after retryAfterSeconds
+class OverloadedException extends IllegalStateException 
+{
+    private static final long serialVersionUID = 1L;
+
+    private final int retryAfterSeconds;
+
+    public OverloadedException(String message, int retryAfterSeconds) 
+    {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public int getRetryAfterSeconds() 
+    { 
+	return retryAfterSeconds; 
+    }
+
+    // Shedding happens under load, when a stack walk per refused order is the last thing we want
+    public synchronized Throwable fillInStackTrace() 
+    {
+        return this;
+    }
+}
+
+// Admission control for order intake. Each bunk holds at most maxPerBunk open
+// orders. While the fleet is saturated the policy decides what happens to a new
+// order: REJECT sheds it, DEFER and SURGE take it as long as fewer than
+// maxBacklog paid orders are still without a driver, SURGE at a higher
+// delivery charge. Unpaid orders hold a bunk place but no backlog place, and
+// give the bunk place back when they are paid for and delivered, cancelled, or
+// expire unpaid. The counts follow each admitted order's status, so a
+// decision is a few CAS loops and never a scan.
+class AdmissionControl implements OrderStatusListener 
+{
+    public static final int DEFAULT_MAX_BACKLOG = 1000;
+    public static final double DEFAULT_SURGE_MULTIPLIER = 1.5;
+    // maxPerBunk for no per-bunk limit
+    public static final int UNLIMITED = 0;
+    // About one short delivery; a shed client coming back sooner would likely be shed again
+    public static final int RETRY_AFTER_SECONDS = 30;
+
+    private static final Metrics.Counter ADMITTED = Metrics.counter("fuelgo_admission_total", "New orders let in by admission control", "result", "admitted");
+    private static final Metrics.Counter DEFERRED = Metrics.counter("fuelgo_admission_total", "New orders let in by admission control", "result", "deferred");
+    private static final Metrics.Counter SURGED = Metrics.counter("fuelgo_admission_total", "New orders let in by admission control", "result", "surged");
+    private static final Metrics.Counter SHED_FLEET = Metrics.counter("fuelgo_admission_shed_total", "New orders refused by admission control", "reason", "fleet");
+    private static final Metrics.Counter SHED_BACKLOG = Metrics.counter("fuelgo_admission_shed_total", "New orders refused by admission control", "reason", "backlog");
+    private static final Metrics.Counter SHED_BUNK = Metrics.counter("fuelgo_admission_shed_total", "New orders refused by admission control", "reason", "bunk");
+
+    private final DeliveryManager deliveryManager;
+    private final AdmissionPolicy policy;
+    private final int maxBacklog;
+    private final int maxPerBunk;
+    private final BillingEngine standardBilling;
+    private final BillingEngine surgeBilling;
+    // Paid orders that have no driver yet
+    private final AtomicInteger backlog = new AtomicInteger();
+    private final ConcurrentHashMap<String, AtomicInteger> openPerBunk = new ConcurrentHashMap<>();
+
+    public AdmissionControl(DeliveryManager deliveryManager, AdmissionPolicy policy) 
+    {
+        this(deliveryManager, policy, DEFAULT_MAX_BACKLOG, UNLIMITED, DEFAULT_SURGE_MULTIPLIER);
+    }
+
+    public AdmissionControl(DeliveryManager deliveryManager, AdmissionPolicy policy, int maxBacklog, int maxPerBunk, double surgeMultiplier) 
+    {
+        if (maxBacklog < 0) throw new IllegalArgumentException("maxBacklog must not be negative");
+        if (maxPerBunk < 0) throw new IllegalArgumentException("maxPerBunk must not be negative");
+        if (!(surgeMultiplier >= 1)) throw new IllegalArgumentException("surgeMultiplier must be at least 1");
+        this.deliveryManager = deliveryManager;
+        this.policy = policy;
+        this.maxBacklog = maxBacklog;
+        this.maxPerBunk = maxPerBunk == UNLIMITED ? Integer.MAX_VALUE : maxPerBunk;
+        this.standardBilling = BillingEngine.standard();
+        this.surgeBilling = standardBilling.surge(surgeMultiplier);
+        Metrics.gauge("fuelgo_order_backlog", "Paid orders without a driver yet", backlog::get);
+    }
+
+    // Takes a place for a new order at the bunk and returns the billing to price it
+    // with, or throws OverloadedException to shed it. The place is handed back by
+    // the status listener once the order settles (see track), or by release if
+    // the order is never made. The fleet is judged from the zone shard that
+    // dispatches pickups at the bunk.
+    public BillingEngine admit(String bunk, GeoPoint pickup) 
+    {
+        AtomicInteger open = openPerBunk.computeIfAbsent(bunk, b -> new AtomicInteger());
+        if (!tryIncrement(open, maxPerBunk)) 
+        {
+            SHED_BUNK.increment();
+            throw new OverloadedException(bunk + " already has " + maxPerBunk + " orders open; please try again shortly", RETRY_AFTER_SECONDS);
+        }
+        if (!deliveryManager.isSaturated(pickup)) 
+        {
+            ADMITTED.increment();
+            return standardBilling;
+        }
+        if (policy == AdmissionPolicy.REJECT || backlog.get() >= maxBacklog) 
+        {
+            open.decrementAndGet();
+            (policy == AdmissionPolicy.REJECT ? SHED_FLEET : SHED_BACKLOG).increment();
+            throw new OverloadedException("Every driver is busy; please try again shortly", RETRY_AFTER_SECONDS);
+        }
+        if (policy == AdmissionPolicy.SURGE) 
+        {
+            SURGED.increment();
+            return surgeBilling;
+        }
+        DEFERRED.increment();
+        return standardBilling;
+    }
+
+    // Gives back the place admit took, for an order that was not made after all
+    public void release(String bunk) 
+    {
+        openPerBunk.get(bunk).decrementAndGet();
+    }
+
+    // Follows an order admit let in until it settles
+    public void track(Order order) 
+    {
+        order.addStatusListener(this);
+    }
+
+    // Counts an order that was not admitted here (recovered from the journal)
+    public void follow(Order order) 
+    {
+        OrderStatus status = order.getStatus();
+        if (status.isTerminal()) return;
+        openPerBunk.computeIfAbsent(order.getBunkName(), b -> new AtomicInteger()).incrementAndGet();
+        if (awaitingDriver(status)) backlog.incrementAndGet();
+        order.addStatusListener(this);
+    }
+
+    public void onStatusChange(Order order, OrderStatus from, OrderStatus to) 
+    {
+        boolean was = awaitingDriver(from);
+        boolean is = awaitingDriver(to);
+        if (was && !is) backlog.decrementAndGet();
+        else if (is && !was) backlog.incrementAndGet();
+        if (to.isTerminal()) 
+        {
+            openPerBunk.get(order.getBunkName()).decrementAndGet();
+            order.removeStatusListener(this);
+        }
+    }
+
+    // Pending orders are not counted: until they pay they ask nothing of the fleet
+    private static boolean awaitingDriver(OrderStatus status) 
+    {
+        return status == OrderStatus.PAID;
+    }
+
+    private static boolean tryIncrement(AtomicInteger count, int limit) 
+    {
+        while (true) 
+        {
+            int current = count.get();
+            if (current >= limit) return false;
+            if (count.compareAndSet(current, current + 1)) return true;
+        }
+    }
+
+    public AdmissionPolicy getPolicy() 
+    { 
+	return policy; 
+    }
+    public int getBacklog() 
+    { 
+	return backlog.get(); 
+    }
+    public int getOpen(String bunk) 
+    {
+        AtomicInteger open = openPerBunk.get(bunk);
+        return open == null ? 0 : open.get();
+    }
+
+    public String metrics() 
+    {
+        return "policy=" + policy.name().toLowerCase() + " backlog=" + getBacklog() + " admitted=" + ADMITTED.get() + " deferred=" + DEFERRED.get()
+                + " surged=" + SURGED.get() + " shed=" + (SHED_FLEET.get() + SHED_BACKLOG.get() + SHED_BUNK.get())
+                + " (fleet=" + SHED_FLEET.get() + " backlog=" + SHED_BACKLOG.get() + " bunk=" + SHED_BUNK.get() + ")";
+    }
+}
+
+// Headless order intake: create, pay and track orders from any number of threads.
+// The console menu and the HTTP endpoint are both just clients of this service.
+class OrderService 
+{
+    public static final double MAX_LITERS = 1000;
+    // What each fuel in the original two bunks starts with
+    public static final double DEFAULT_STOCK_LITERS = 20000;
+    // How long a client's idempotency key keeps answering retries
+    public static final long IDEMPOTENCY_TTL_MILLIS = 24 * 60 * 60 * 1000L;
+    // How long a new order holds its fuel before it is cancelled for want of payment
+    public static final long DEFAULT_PAYMENT_DEADLINE_MILLIS = 15 * 60_000L;
+    private static final long EXPIRY_SWEEP_MILLIS = 1000;
+
+    private static final LatencyHistogram CREATE_TIME = Metrics.histogram("fuelgo_order_create_seconds", "Time to validate, price, reserve and record a new order", Metrics.HOT_PATH_SAMPLE_EVERY);
+    private static final Metrics.Counter CREATE_REJECTED = Metrics.counter("fuelgo_order_rejected_total", "Order requests refused (bad input, no stock or overload)");
+    private static final Metrics.Counter EXPIRED = Metrics.counter("fuelgo_order_expired_total", "Orders cancelled because they were not paid in time");
+
+    private final DeliveryManager deliveryManager;
+    private final PaymentPipeline paymentPipeline;
+    private final WalletLedger walletLedger;
+    private final OrderJournal journal;
+    private final FuelCatalog fuelCatalog;
+    private final FuelInventory inventory = new FuelInventory();
+    private final OrderHistory history = new OrderHistory();
+    private final EtaEngine etaEngine;
+    // Open orders; finished ones are evicted and served from the history
+    private final ConcurrentHashMap<String, Order> orders = new ConcurrentHashMap<>();
+    // Pending orders with the System.nanoTime they must be paid by; dropped as soon as they move on
+    private final ConcurrentHashMap<Order, Long> unpaid = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService expiry;
+    private volatile long paymentDeadlineMillis = DEFAULT_PAYMENT_DEADLINE_MILLIS;
+    private final ConcurrentHashMap<String, Customer> customers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Bunk> bunks = new ConcurrentHashMap<>();
+    private final GeoIndex<Bunk> bunkLocations = new GeoIndex<>();
+    private final IdGenerator orderIds;
+    private final IdempotencyStore<Order> createRequests = new IdempotencyStore<>(IDEMPOTENCY_TTL_MILLIS);
+    private final IdempotencyStore<PaymentResult> payRequests = new IdempotencyStore<>(IDEMPOTENCY_TTL_MILLIS);
+    // Null admits every order
+    private volatile AdmissionControl admission;
+
+    // journal may be null to run without persistence
+    public OrderService(DeliveryManager deliveryManager, PaymentPipeline paymentPipeline, WalletLedger walletLedger, OrderJournal journal) 
+    {
+        this(deliveryManager, paymentPipeline, walletLedger, journal, FuelCatalog.defaults());
+    }
+
+    public OrderService(DeliveryManager deliveryManager, PaymentPipeline paymentPipeline, WalletLedger walletLedger, OrderJournal journal, FuelCatalog fuelCatalog) 
+    {
+        this(deliveryManager, paymentPipeline, walletLedger, journal, fuelCatalog, new IdGenerator(0));
+    }
+
+    // Nodes sharing a journal or clients need distinct IdGenerator node ids
+    public OrderService(DeliveryManager deliveryManager, PaymentPipeline paymentPipeline, WalletLedger walletLedger, OrderJournal journal, FuelCatalog fuelCatalog, IdGenerator orderIds) 
+    {
+        this(deliveryManager, paymentPipeline, walletLedger, journal, fuelCatalog, orderIds, new EtaEngine());
+    }
+
+    public OrderService(DeliveryManager deliveryManager, PaymentPipeline paymentPipeline, WalletLedger walletLedger, OrderJournal journal, FuelCatalog fuelCatalog, IdGenerator orderIds, EtaEngine etaEngine) 
+    {
+        this.etaEngine = etaEngine;
+        this.fuelCatalog = fuelCatalog;
+        this.orderIds = orderIds;
+        this.deliveryManager = deliveryManager;
+        this.paymentPipeline = paymentPipeline;
+        this.walletLedger = walletLedger;
+        this.journal = journal;
+        this.expiry = Executors.newSingleThreadScheduledExecutor(r -> 
+        {
+            Thread t = new Thread(r, "fuelgo-payment-deadline");
+            t.setDaemon(true);
+            return t;
+        });
+        expiry.scheduleWithFixedDelay(this::expireUnpaid, EXPIRY_SWEEP_MILLIS, EXPIRY_SWEEP_MILLIS, TimeUnit.MILLISECONDS);
+        // The original two stations, 2.5 km and 4.2 km from the service area centre
+        addBunk("Bharat Petroleum", ServiceArea.CENTRE.offset(2.5, 0));
+        addBunk("HP Petroleum", ServiceArea.CENTRE.offset(0, 4.2));
+        for (String name : bunks.keySet()) 
+        {
+            for (FuelPrice p : fuelCatalog.pricesAt(name)) inventory.restock(name, p.getFuelType(), DEFAULT_STOCK_LITERS);
+        }
+    }
+
+    public Bunk addBunk(String name, GeoPoint location) 
+    {
+        Bunk bunk = new Bunk(name, location);
+        Bunk previous = bunks.put(name, bunk);
+        if (previous != null) bunkLocations.remove(previous);
+        bunkLocations.put(bunk, location);
+        return bunk;
+    }
+
+    // Up to k bunks within delivery range of a point, nearest first
+    public List<Bunk> nearestBunks(GeoPoint from, int k) 
+    {
+        return bunkLocations.nearest(from, k, ServiceArea.MAX_DELIVERY_KM, b -> true);
+    }
+
+    public Customer customer(String name, String phone) 
+    {
+        return customers.computeIfAbsent(phone, p -> new Customer(name, p));
+    }
+
+    // Delivers to the customer's last known location, or the service area centre
+    public Order createOrder(Customer cust, String fuelType, double liters, String bunk, String address) 
+    {
+        GeoPoint location = cust.getLocation();
+        return createOrder(cust, fuelType, liters, bunk, address, location != null ? location : ServiceArea.CENTRE);
+    }
+
+    // A null bunk picks the nearest one to the delivery location that has the
+    // fuel in stock. The liters are reserved at the bunk before the order exists;
+    // a bunk that is short throws IllegalStateException.
+    public Order createOrder(Customer cust, String fuelType, double liters, String bunkName, String address, GeoPoint location) 
+    {
+        long start = CREATE_TIME.start();
+        try 
+        {
+            Order order = place(cust, fuelType, liters, bunkName, address, location);
+            CREATE_TIME.recordSince(start);
+            return order;
+        } 
+        catch (IllegalArgumentException | IllegalStateException e) 
+        {
+            CREATE_REJECTED.increment();
+            throw e;
+        }
+    }
+
+    private Order place(Customer cust, String fuelType, double liters, String bunkName, String address, GeoPoint location) 
+    {
+        if (!(liters > 0 && liters <= MAX_LITERS)) throw new IllegalArgumentException("Liters must be between 0 and " + (int) MAX_LITERS);
+        if (address == null || address.trim().isEmpty()) throw new IllegalArgumentException("Delivery address is required");
+        Bunk bunk;
+        if (bunkName == null) 
+        {
+            List<Bunk> nearest = bunkLocations.nearest(location, 1, ServiceArea.MAX_DELIVERY_KM, b -> inventory.getAvailable(b.getName(), fuelType) >= liters);
+            if (nearest.isEmpty()) 
+            {
+                if (nearestBunks(location, 1).isEmpty()) throw new IllegalArgumentException("No bunk within " + (int) ServiceArea.MAX_DELIVERY_KM + " km of " + location);
+                throw new IllegalStateException("No bunk nearby has " + liters + " L of " + fuelType + " in stock");
+            }
+            bunk = nearest.get(0);
+        } 
+        else 
+        {
+            bunk = bunks.get(bunkName);
+            if (bunk == null) throw new IllegalArgumentException("Unknown bunk: " + bunkName);
+            if (bunk.getLocation().distanceKm(location) > ServiceArea.MAX_DELIVERY_KM) throw new IllegalArgumentException(bunkName + " does not deliver that far");
+        }
+        FuelPrice price = fuelCatalog.price(bunk.getName(), fuelType);
+        if (price == null) throw new IllegalArgumentException(bunk.getName() + " does not sell " + fuelType);
+
+        AdmissionControl admission = this.admission;
+        BillingEngine billing = admission == null ? BillingEngine.standard() : admission.admit(bunk.getName(), bunk.getLocation());
+        Order order = new Order("O" + orderIds.next(), cust, price, liters, bunk, location, address, billing);
+        if (!inventory.reserve(order)) 
+        {
+            if (admission != null) admission.release(bunk.getName());
+            throw new IllegalStateException(bunk.getName() + " has only " + inventory.getAvailable(bunk.getName(), fuelType) + " L of " + fuelType + " left");
+        }
+        // One creation time for the journal and the history, so history rebuilt from the journal matches
+        long createdAt = System.currentTimeMillis();
+        if (journal != null) 
+        {
+            journal.orderCreated(order, createdAt);
+            order.addStatusListener(journal);
+        }
+        history.record(order, createdAt);
+        etaEngine.track(order);
+        if (admission != null) admission.track(order);
+        keepUntilFinished(order);
+        return order;
+    }
+
+    // Registered after the history's listener, so a finished order is in the
+    // history with its final status before it leaves the open orders. A pending
+    // order also starts its payment deadline.
+    private void keepUntilFinished(Order order) 
+    {
+        orders.put(order.getOrderId(), order);
+        unpaid.put(order, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(paymentDeadlineMillis));
+        order.addStatusListener((o, from, to) -> 
+        {
+            if (from == OrderStatus.PENDING) unpaid.remove(o);
+            if (to.isTerminal()) orders.remove(o.getOrderId(), o);
+        });
+        if (order.getStatus() != OrderStatus.PENDING) unpaid.remove(order);
+        if (order.getStatus().isTerminal()) orders.remove(order.getOrderId(), order);
+    }
+
+    // Cancels pending orders past their deadline, which gives back their fuel and
+    // admission places. An order whose charge is still out waits for the answer.
+    private void expireUnpaid() 
+    {
+        long now = System.nanoTime();
+        for (Map.Entry<Order, Long> e : unpaid.entrySet()) 
+        {
+            Order order = e.getKey();
+            if (order.getStatus() != OrderStatus.PENDING) unpaid.remove(order);
+            else if (now - e.getValue() >= 0 && !order.isPaying() && order.transition(OrderStatus.PENDING, OrderStatus.CANCELLED)) EXPIRED.increment();
+        }
+    }
+
+    // Cancels an order that has not been paid for; false once it is paid or finished.
+    // A charge still out for it is refunded to the FUELgo Wallet when it clears.
+    public boolean cancel(Order order) 
+    {
+        return order.transition(OrderStatus.PENDING, OrderStatus.CANCELLED);
+    }
+
+    // Applies to orders placed (or recovered) from now on
+    public void setPaymentDeadline(long millis) 
+    {
+        if (millis <= 0) throw new IllegalArgumentException("Payment deadline must be positive: " + millis);
+        this.paymentDeadlineMillis = millis;
+    }
+
+    public void shutdown() 
+    {
+        expiry.shutdownNow();
+    }
+
+    // createOrder under a client idempotency key: a retry with the same key returns
+    // the order the first request created. A null key always creates.
+    public Order createOrder(Customer cust, String fuelType, double liters, String bunkName, String address, GeoPoint location, String idempotencyKey) 
+    {
+        if (idempotencyKey == null) return createOrder(cust, fuelType, liters, bunkName, address, location);
+        String request = fuelType + '|' + liters + '|' + bunkName + '|' + address + '|' + location.getLat() + ',' + location.getLon();
+        try 
+        {
+            return createRequests.execute(cust.getPhone() + ':' + idempotencyKey, request,
+                    () -> CompletableFuture.completedFuture(createOrder(cust, fuelType, liters, bunkName, address, location))).join();
+        } 
+        catch (CompletionException e) 
+        {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    // Charges the order total; on approval the order becomes Paid. Never blocks the caller.
+    // Only one charge per order is out at a time. If the order was cancelled while its
+    // charge was out, the amount goes back to the customer's FUELgo Wallet.
+    public CompletionStage<PaymentResult> pay(Order order, Payment payment) 
+    {
+        String method = payment.getClass().getSimpleName();
+        if (!order.beginPayment()) return refused(order, method, "A payment for this order is already in progress");
+        // Checked after taking the guard: a payment that just finished has moved the order on
+        if (order.getStatus() != OrderStatus.PENDING) 
+        {
+            order.endPayment();
+            return refused(order, method, "Order is " + order.getStatus() + ", nothing to pay");
+        }
+        CompletionStage<PaymentResult> charge;
+        try 
+        {
+            charge = payment.pay(order.getTotal());
+        } 
+        catch (RuntimeException e) 
+        {
+            order.endPayment();
+            throw e;
+        }
+        return charge.thenApply(result -> result.isApproved() ? settle(order, method, result) : result)
+                     .whenComplete((result, error) -> order.endPayment());
+    }
+
+    private PaymentResult settle(Order order, String method, PaymentResult result) 
+    {
+        if (journal != null) journal.payment(order, method, order.getTotal());
+        if (order.transition(OrderStatus.PENDING, OrderStatus.PAID)) return result;
+        walletLedger.credit(order.getCustomer().getPhone(), order.getTotalPaise());
+        if (journal != null) journal.refund(order, method, order.getTotal());
+        System.out.println(Colors.YELLOW + "Order " + order.getOrderId() + " was " + order.getStatus() + " when payment " + result.getReference()
+                + " cleared; refunded to the FUELgo Wallet." + Colors.RESET);
+        return new PaymentResult(PaymentState.DECLINED, result.getProvider(), result.getReference(), result.getAmount(), result.getAttempts(),
+                "Order is " + order.getStatus() + ", payment refunded to FUELgo Wallet");
+    }
+
+    private static CompletionStage<PaymentResult> refused(Order order, String method, String reason) 
+    {
+        return CompletableFuture.completedFuture(new PaymentResult(PaymentState.DECLINED, method, order.getOrderId(), order.getTotal(), 0, reason));
+    }
+
+    public CompletionStage<PaymentResult> payAndDispatch(Order order, Payment payment) 
+    {
+        return pay(order, payment).thenCompose(result -> 
+        {
+            if (!result.isApproved()) return CompletableFuture.completedFuture(result);
+            // With batching on, the caller hears back once the order's window is matched
+            return deliveryManager.dispatch(order).thenApply(driver -> result);
+        });
+    }
+
+    // payAndDispatch by payment method name under a client idempotency key: a retry
+    // with the same key gets the first attempt's result, so the order is charged
+    // and dispatched once. A null key always pays.
+    public CompletionStage<PaymentResult> payAndDispatch(Order order, String method, String account, String ifsc, String idempotencyKey) 
+    {
+        Payment payment = paymentMethod(method, account, ifsc, order.getCustomer());
+        if (idempotencyKey == null) return payAndDispatch(order, payment);
+        return payRequests.execute(order.getOrderId() + ':' + idempotencyKey, method + '|' + account + '|' + ifsc, () -> payAndDispatch(order, payment));
+    }
+
+    // Blocks until the order's shard has assigned it. Null when the fleet is
+    // saturated; the order then waits for the next free driver
+    public DeliveryDriver dispatch(Order order) 
+    {
+        return deliveryManager.dispatch(order).toCompletableFuture().join();
+    }
+
+    // Orders already open (recovered) should be adopted after this, so they count
+    public void setAdmissionControl(AdmissionControl admission) 
+    {
+        this.admission = admission;
+    }
+
+    public DeliveryManager getDeliveryManager() 
+    { 
+	return deliveryManager; 
+    }
+
+    // Open orders only; a finished order is looked up with getHistory().find
+    public Order track(String orderId) 
+    {
+        return orders.get(orderId);
+    }
+
+    // Builds a payment method by name: phonepe, paytm, bank or wallet
+    public Payment paymentMethod(String method, String account, String ifsc, Customer cust) 
+    {
+        switch (method == null ? "" : method.toLowerCase()) 
+        {
+            case "phonepe": return new PhonePe(required(account, "account"), paymentPipeline);
+            case "paytm":   return new Paytm(required(account, "account"), paymentPipeline);
+            case "bank":    return new BankTransfer(required(account, "account"), required(ifsc, "ifsc"), paymentPipeline);
+            case "wallet":  return new FuelGoWallet(walletLedger, cust.getPhone());
+            default:        throw new IllegalArgumentException("Unknown payment method: " + method);
+        }
+    }
+
+    // Makes orders rebuilt from the journal trackable and keeps new ids above theirs
+    public void adopt(Collection<Order> recovered) 
+    {
+        for (Order o : recovered) 
+        {
+            // Open orders hold their fuel again (stock is not journalled, so a short tank just skips
+            // the hold) and keep their history record current; finished ones are only in the history.
+            // A pending one gets a full payment deadline from now.
+            if (!o.getStatus().isTerminal()) 
+            {
+                inventory.reserve(o);
+                history.follow(o);
+                etaEngine.track(o);
+                if (admission != null) admission.follow(o);
+                keepUntilFinished(o);
+            }
+            customers.putIfAbsent(o.getCustomer().getPhone(), o.getCustomer());
+            String id = o.getOrderId();
+            if (id.length() > 1 && id.charAt(0) == 'O') 
+            {
+                try 
+                {
+                    orderIds.advancePast(Long.parseLong(id.substring(1)));
+                } 
+                catch (NumberFormatException e) 
+                {
+                    // Not one of ours; leave the sequence alone
+                }
+            }
+        }
+    }
+
+    public Bunk getBunk(String name) 
+    { 
+	return bunks.get(name); 
+    }
+    public int getBunkCount() 
+    { 
+	return bunks.size(); 
+    }
+    public FuelCatalog getFuelCatalog() 
+    { 
+	return fuelCatalog; 
+    }
+    public EtaEngine getEtaEngine() 
+    { 
+	return etaEngine; 
+    }
+    // Null unless setAdmissionControl was called
+    public AdmissionControl getAdmissionControl() 
+    { 
+	return admission; 
+    }
+    public FuelInventory getInventory() 
+    { 
+	return inventory; 
+    }
+    public OrderHistory getHistory() 
+    { 
+	return history; 
+    }
+    // Open orders
+    public int getOrderCount() 
+    { 
+	return orders.size(); 
+    }
+    // Open orders still waiting to be paid
+    public int getUnpaidCount() 
+    { 
+	return unpaid.size(); 
+    }
+
+    private static String required(String value, String name) 
+    {
+        if (value == null || value.isEmpty()) throw new IllegalArgumentException("Missing parameter: " + name);
+        return value;
+    }
+}
+
+// Non-blocking HTTP front end for OrderService (JDK HttpServer).
+// Payment requests are answered from the payment pipeline's completion, so no
+// server thread waits on a gateway.
+//   POST /orders             name, phone, fuel, liters, address, optional lat/lon and bunk (default: nearest)
+//   GET  /orders/{id}        open orders live, finished ones from the history
+//   POST /orders/{id}/pay    method (phonepe|paytm|bank|wallet), account, ifsc
+//   POST /orders/{id}/cancel an order not paid for yet (unpaid orders are also cancelled at their payment deadline)
+// Both POSTs to /orders honour an Idempotency-Key header so client retries are answered, not repeated.
+// A new order shed by admission control gets 503 with a Retry-After header.
+//   POST /drivers/{phone}/location   lat, lon
+//   POST /prices             fuel, price, optional bunk (default: every bunk)
+//   GET  /stock?bunk=...     POST /stock  bunk, fuel, liters
+//   GET  /customers/{phone}/orders   limit, cursor (newest first)
+//   GET  /metrics            Prometheus text format; ?format=text for a readable snapshot
+class OrderHttpServer 
+{
+    private final OrderService service;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    public OrderHttpServer(OrderService service, int port, int threads) throws IOException 
+    {
+        this.service = service;
+        this.server = HttpServer.create(new InetSocketAddress(port), 4096);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, r -> new Thread(r, "fuelgo-http-" + threadCount.incrementAndGet()));
+        this.server.setExecutor(executor);
+        this.server.createContext("/orders", this::handle);
+        this.server.createContext("/drivers", this::handleDriver);
+        this.server.createContext("/prices", this::handlePrice);
+        this.server.createContext("/stock", this::handleStock);
+        this.server.createContext("/customers", this::handleHistory);
+        this.server.createContext("/metrics", this::handleMetrics);
+    }
+
+    public void start() 
+    {
+        server.start();
+    }
+
+    public void stop(int delaySeconds) 
+    {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    public int getPort() 
+    { 
+	return server.getAddress().getPort(); 
+    }
+
+    private void handle(HttpExchange exchange) throws IOException 
+    {
+        try 
+        {
+            String[] path = exchange.getRequestURI().getPath().split("/");
+            String method = exchange.getRequestMethod();
+            Map<String, String> params = params(exchange);
+            if (path.length == 2 && method.equals("POST")) 
+            {
+                Customer cust = service.customer(params.getOrDefault("name", "Customer"), phone(params));
+                GeoPoint location = location(params);
+                if (location != null) cust.setLocation(location);
+                else location = cust.getLocation() != null ? cust.getLocation() : ServiceArea.CENTRE;
+                Order order = service.createOrder(cust, params.get("fuel"), parseDouble(params.get("liters"), "liters"),
+                        params.get("bunk"), params.get("address"), location, idempotencyKey(exchange));
+                send(exchange, 201, orderJson(order));
+            } 
+            else if (path.length == 3 && method.equals("GET")) 
+            {
+                Order order = service.track(path[2]);
+                OrderRecord past = order == null ? service.getHistory().find(path[2]) : null;
+                if (order != null) send(exchange, 200, orderJson(order));
+                else if (past != null) send(exchange, 200, recordJson(new StringBuilder(192), past).toString());
+                else send(exchange, 404, error("No such order: " + path[2]));
+            } 
+            else if (path.length == 4 && path[3].equals("pay") && method.equals("POST")) 
+            {
+                Order order = service.track(path[2]);
+                if (order == null) 
+                {
+                    OrderRecord past = service.getHistory().find(path[2]);
+                    if (past == null) send(exchange, 404, error("No such order: " + path[2]));
+                    else send(exchange, 409, error("Order is " + past.getStatus() + ", nothing to pay"));
+                    return;
+                }
+                service.payAndDispatch(order, params.get("method"), params.get("account"), params.get("ifsc"), idempotencyKey(exchange)).whenComplete((result, e) -> 
+                {
+                    try 
+                    {
+                        if (e != null) send(exchange, 500, error(e.toString()));
+                        else send(exchange, result.isApproved() ? 200 : 402, paymentJson(result, order));
+                    } 
+                    catch (IOException io) 
+                    {
+                        exchange.close();
+                    }
+                });
+            } 
+            else if (path.length == 4 && path[3].equals("cancel") && method.equals("POST")) 
+            {
+                Order order = service.track(path[2]);
+                OrderRecord past = order == null ? service.getHistory().find(path[2]) : null;
+                if (order != null && service.cancel(order)) send(exchange, 200, orderJson(order));
+                else if (order != null) send(exchange, 409, error("Order is " + order.getStatus() + ", too late to cancel"));
+                else if (past != null) send(exchange, 409, error("Order is " + past.getStatus() + ", too late to cancel"));
+                else send(exchange, 404, error("No such order: " + path[2]));
+            } 
+            else 
+            {
+                send(exchange, 404, error("Unknown route: " + method + " " + exchange.getRequestURI().getPath()));
+            }
+        } 
+        catch (IllegalArgumentException e) 
+        {
+            send(exchange, 400, error(e.getMessage()));
+        } 
+        catch (OverloadedException e) 
+        {
+            exchange.getResponseHeaders().set("Retry-After", String.valueOf(e.getRetryAfterSeconds()));
+            send(exchange, 503, error(e.getMessage()));
+        } 
+        catch (IllegalStateException e) 
+        {
+            send(exchange, 409, error(e.getMessage()));
+        } 
+        catch (RuntimeException e) 
+        {
+            send(exchange, 500, error(e.toString()));
+        }
+    }
+
+    private void handleDriver(HttpExchange exchange) throws IOException 
+    {
+        try 
+        {
+            String[] path = exchange.getRequestURI().getPath().split("/");
+            if (path.length != 4 || !path[3].equals("location") || !exchange.getRequestMethod().equals("POST")) 
+            {
+                send(exchange, 404, error("Unknown route: " + exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath()));
+                return;
+            }
+            GeoPoint at = location(params(exchange));
+            if (at == null) throw new IllegalArgumentException("Missing parameter: lat");
+            DeliveryDriver driver = service.getDeliveryManager().updateDriverLocation(path[2], at);
+            if (driver == null) send(exchange, 404, error("No such driver: " + path[2]));
+            else send(exchange, 200, "{\"driverPhone\":\"" + driver.getPhone() + "\",\"lat\":" + at.getLat() + ",\"lon\":" + at.getLon() + "}");
+        } 
+        catch (IllegalArgumentException e) 
+        {
+            send(exchange, 400, error(e.getMessage()));
+        } 
+        catch (RuntimeException e) 
+        {
+            send(exchange, 500, error(e.toString()));
+        }
+    }
+
+    // POST /prices: bunk (default * for every bunk), fuel, price; new orders bill at it straight away
+    private void handlePrice(HttpExchange exchange) throws IOException 
+    {
+        try 
+        {
+            if (!exchange.getRequestURI().getPath().equals("/prices") || !exchange.getRequestMethod().equals("POST")) 
+            {
+                send(exchange, 404, error("Unknown route: " + exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath()));
+                return;
+            }
+            Map<String, String> params = params(exchange);
+            String bunk = params.getOrDefault("bunk", FuelCatalog.ANY_BUNK);
+            String fuel = params.get("fuel");
+            if (fuel == null) throw new IllegalArgumentException("Missing parameter: fuel");
+            double price = parseDouble(params.get("price"), "price");
+            long version = service.getFuelCatalog().setPrice(bunk, fuel, price);
+            StringBuilder sb = new StringBuilder("{\"bunk\":");
+            quote(sb, bunk);
+            sb.append(",\"fuel\":");
+            quote(sb, fuel);
+            send(exchange, 200, sb.append(",\"price\":").append(price).append(",\"version\":").append(version).append('}').toString());
+        } 
+        catch (IllegalArgumentException e) 
+        {
+            send(exchange, 400, error(e.getMessage()));
+        } 
+        catch (RuntimeException e) 
+        {
+            send(exchange, 500, error(e.toString()));
+        }
+    }
+
+    // GET /stock?bunk=...: the bunk's tanks. POST /stock: bunk, fuel, liters delivered to the bunk.
+    private void handleStock(HttpExchange exchange) throws IOException 
+    {
+        try 
+        {
+            String method = exchange.getRequestMethod();
+            if (!exchange.getRequestURI().getPath().equals("/stock") || !(method.equals("GET") || method.equals("POST"))) 
+            {
+                send(exchange, 404, error("Unknown route: " + method + " " + exchange.getRequestURI().getPath()));
+                return;
+            }
+            Map<String, String> params = params(exchange);
+            String bunk = params.get("bunk");
+            if (bunk == null) throw new IllegalArgumentException("Missing parameter: bunk");
+            if (service.getBunk(bunk) == null) 
+            {
+                send(exchange, 404, error("Unknown bunk: " + bunk));
+                return;
+            }
+            if (method.equals("POST")) 
+            {
+                String fuel = params.get("fuel");
+                if (fuel == null) throw new IllegalArgumentException("Missing parameter: fuel");
+                if (service.getFuelCatalog().price(bunk, fuel) == null) throw new IllegalArgumentException(bunk + " does not sell " + fuel);
+                service.getInventory().restock(bunk, fuel, parseDouble(params.get("liters"), "liters"));
+            }
+            StringBuilder sb = new StringBuilder("{\"bunk\":");
+            quote(sb, bunk);
+            sb.append(",\"tanks\":[");
+            for (FuelTank tank : service.getInventory().tanksAt(bunk)) 
+            {
+                if (sb.charAt(sb.length() - 1) != '[') sb.append(',');
+                sb.append("{\"fuel\":");
+                quote(sb, tank.getFuelType());
+                sb.append(",\"available\":").append(tank.getAvailableLiters()).append(",\"reserved\":").append(tank.getReservedLiters())
+                        .append(",\"sold\":").append(tank.getSoldLiters()).append('}');
+            }
+            send(exchange, 200, sb.append("]}").toString());
+        } 
+        catch (IllegalArgumentException e) 
+        {
+            send(exchange, 400, error(e.getMessage()));
+        } 
+        catch (RuntimeException e) 
+        {
+            send(exchange, 500, error(e.toString()));
+        }
+    }
+
+    // GET /customers/{phone}/orders?limit=20&cursor=...: newest first; pass back "next" for older orders
+    private void handleHistory(HttpExchange exchange) throws IOException 
     {
-        if (lastDeliveredOrder == null) 
-	{
-            System.out.println(Colors.YELLOW + "No previous orders delivered." + Colors.RESET);
+        try 
+        {
+            String[] path = exchange.getRequestURI().getPath().split("/");
+            if (path.length != 4 || !path[3].equals("orders") || !exchange.getRequestMethod().equals("GET")) 
+            {
+                send(exchange, 404, error("Unknown route: " + exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath()));
+                return;
+            }
+            Map<String, String> params = params(exchange);
+            String limit = params.getOrDefault("limit", "20");
+            if (!InputValidator.isInteger(limit) || limit.length() > 4) throw new IllegalArgumentException("Invalid limit: " + limit);
+            HistoryPage page = service.getHistory().customerPage(path[2], params.get("cursor"), Integer.parseInt(limit));
+            StringBuilder sb = new StringBuilder(64 + 192 * page.getRecords().size()).append("{\"orders\":[");
+            for (OrderRecord r : page.getRecords()) 
+            {
+                if (sb.charAt(sb.length() - 1) != '[') sb.append(',');
+                recordJson(sb, r);
+            }
+            sb.append(']');
+            if (page.getNextCursor() != null) 
+            {
+                sb.append(",\"next\":");
+                quote(sb, page.getNextCursor());
+            }
+            send(exchange, 200, sb.append('}').toString());
         } 
-	else 
-	{
-            System.out.println("Previous Order: " + lastDeliveredOrder.summary());
+        catch (IllegalArgumentException e) 
+        {
+            send(exchange, 400, error(e.getMessage()));
+        } 
+        catch (RuntimeException e) 
+        {
+            send(exchange, 500, error(e.toString()));
         }
     }
 
-    public boolean isAvailable() 
-    { 
-	return assignedOrders.isEmpty(); 
+    private void handleMetrics(HttpExchange exchange) throws IOException 
+    {
+        if (!exchange.getRequestMethod().equals("GET") || !exchange.getRequestURI().getPath().equals("/metrics")) 
+        {
+            send(exchange, 404, error("Unknown route: " + exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath()));
+            return;
+        }
+        if ("format=text".equals(exchange.getRequestURI().getQuery())) sendText(exchange, 200, "text/plain; charset=utf-8", Metrics.snapshot());
+        else sendText(exchange, 200, "text/plain; version=0.0.4; charset=utf-8", Metrics.prometheus());
     }
-}
 
-// Delivery Manager to handle multiple drivers
-class DeliveryManager 
-{
-    private List<DeliveryDriver> drivers;
-    private Random random;
-
-    public DeliveryManager() 
+    // Clients retrying a create or pay send the same Idempotency-Key header as the first attempt
+    private static String idempotencyKey(HttpExchange exchange) 
     {
-        this.drivers = new ArrayList<>();
-        this.random = new Random();
-        // Initialize three delivery drivers
-        drivers.add(new DeliveryDriver("Amit Sharma", "9876543210"));
-        drivers.add(new DeliveryDriver("Priya Singh", "8765432109"));
-        drivers.add(new DeliveryDriver("Rahul Verma", "7654321098"));
+        String key = exchange.getRequestHeaders().getFirst("Idempotency-Key");
+        if (key == null || key.isEmpty()) return null;
+        if (key.length() > 255) throw new IllegalArgumentException("Idempotency-Key is longer than 255 characters");
+        return key;
     }
 
-    public DeliveryDriver assignDriver(Order order) 
+    // Optional lat/lon pair; both or neither
+    private static GeoPoint location(Map<String, String> params) 
     {
-        if (drivers.isEmpty()) 
-	{
-            return null;
-        }
-        // Randomly select a driver (even if they have orders)
-        DeliveryDriver selectedDriver = drivers.get(random.nextInt(drivers.size()));
-        selectedDriver.acceptOrder(order);
-        new Thread(() -> selectedDriver.deliver(order)).start();
-        return selectedDriver;
+        String lat = params.get("lat");
+        String lon = params.get("lon");
+        if (lat == null && lon == null) return null;
+        return new GeoPoint(parseDouble(lat, "lat"), parseDouble(lon, "lon"));
     }
 
-    public void registerDriver(String name, String phone) 
+    private static String phone(Map<String, String> params) 
     {
-        drivers.add(new DeliveryDriver(name, phone));
+        String phone = params.get("phone");
+        if (!InputValidator.isPhone(phone)) throw new IllegalArgumentException("phone must be 10 digits");
+        return phone;
     }
 
-    public DeliveryDriver loginDriver(String phone, Scanner sc) 
+    private static double parseDouble(String value, String name) 
     {
-        for (DeliveryDriver driver : drivers) 
-	{
-            if (driver.getPhone().equals(phone) && OTPService.verifyOTP(phone, sc)) 
-	    {
-                return driver;
-            }
-        }
-        return null;
+        if (value == null) throw new IllegalArgumentException("Missing parameter: " + name);
+        double parsed = InputValidator.decimal(value);
+        if (Double.isNaN(parsed)) throw new IllegalArgumentException("Invalid " + name + ": " + value);
+        return parsed;
     }
 
-    public boolean isPhoneNumberRegistered(String phone) 
+    // Query string and form body parameters (body wins)
+    private static Map<String, String> params(HttpExchange exchange) throws IOException 
     {
-        for (DeliveryDriver driver : drivers) 
-	{
-            if (driver.getPhone().equals(phone)) 
-	    {
-                return true;
-            }
+        Map<String, String> params = new HashMap<>();
+        parseForm(exchange.getRequestURI().getRawQuery(), params);
+        try (InputStream in = exchange.getRequestBody()) 
+        {
+            parseForm(new String(in.readAllBytes(), StandardCharsets.UTF_8), params);
         }
-        return false;
+        return params;
     }
-}
-
-// Fuel classes
-abstract class Fuel 
-{
-    protected String type;
-    protected double pricePerLiter;
 
-    public Fuel(String t, double p) 
+    private static void parseForm(String form, Map<String, String> into) 
     {
-        this.type = t;
-        this.pricePerLiter = p;
-    }
-
-    public abstract double calculateCost(double l);
-    public String getType() 
-    { 
-	return type; 
+        if (form == null || form.isEmpty()) return;
+        for (String pair : form.split("&")) 
+        {
+            int eq = pair.indexOf('=');
+            if (eq <= 0) continue;
+            into.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8), URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
     }
-}
 
-class Petrol95 extends Fuel 
-{
-    public Petrol95(double p) 
-    { 
-	super("Petrol95", p); 
-    }
-    public double calculateCost(double l) 
-    { 
-	return l * pricePerLiter; 
+    private static void send(HttpExchange exchange, int code, String json) throws IOException 
+    {
+        sendText(exchange, code, "application/json; charset=utf-8", json);
     }
-}
 
-class Diesel extends Fuel 
-{
-    public Diesel(double p)  
-    { 
-	super("Diesel", p); 
-    }
-    public double calculateCost(double l) 
-    { 
-	return l * pricePerLiter; 
+    private static void sendText(HttpExchange exchange, int code, String contentType, String text) throws IOException 
+    {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(code, body.length);
+        try (OutputStream out = exchange.getResponseBody()) 
+        {
+            out.write(body);
+        }
     }
-}
-
-// Order class
-class Order 
-{
-    private static DecimalFormat df = new DecimalFormat("RS#,###.00");
-
-    private Customer customer;
-    private Fuel fuel;
-    private double liters, distance, fuelCost, deliveryCharge, gst, total;
-    private String bunkName, status, estTime, deliveryAddr;
-    private String orderId;
 
-    public Order(String id, Customer cust, Fuel fuel, double liters, String bunk, double dist, String daddr) 
+    private static StringBuilder recordJson(StringBuilder sb, OrderRecord r) 
     {
-        this.orderId = id;
-        this.customer = cust;
-        this.fuel = fuel;
-        this.liters = liters;
-        this.bunkName = bunk;
-        this.distance = dist;
-        this.deliveryAddr = daddr;
-
-        this.status = "Pending";
-        this.fuelCost = fuel.calculateCost(liters);
-        this.deliveryCharge = 30 + (dist * 2);
-        this.gst = 0.15 * (fuelCost + deliveryCharge);
-        this.total = fuelCost + deliveryCharge + gst;
-        this.estTime = (int) (dist * 2 + 10) + " mins";
+        sb.append("{\"id\":");
+        quote(sb, r.getOrderId());
+        sb.append(",\"status\":");
+        quote(sb, r.getStatus().toString());
+        sb.append(",\"fuel\":");
+        quote(sb, r.getFuelType());
+        sb.append(",\"liters\":").append(r.getLiters()).append(",\"bunk\":");
+        quote(sb, r.getBunk());
+        sb.append(",\"address\":");
+        quote(sb, r.getAddress());
+        return sb.append(",\"totalPaise\":").append(r.getTotalPaise()).append(",\"createdAt\":").append(r.getCreatedAt()).append('}');
     }
 
-    public double getTotal() 
-    { 
-	return total; 
-    }
-    public void updateStatus(String s) 
-    { 
-	this.status = s; 
+    static String orderJson(Order o) 
+    {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("{\"id\":");
+        quote(sb, o.getOrderId());
+        sb.append(",\"status\":");
+        quote(sb, o.getStatus().toString());
+        sb.append(",\"fuel\":");
+        quote(sb, o.getFuel().getType());
+        sb.append(",\"pricePerLiter\":").append(o.getFuel().getPricePerLiter());
+        if (o.getFuelPrice() != null) sb.append(",\"priceVersion\":").append(o.getFuelPrice().getVersion());
+        sb.append(",\"liters\":").append(o.getLiters()).append(",\"bunk\":");
+        quote(sb, o.getBunkName());
+        sb.append(",\"address\":");
+        quote(sb, o.getDeliveryAddr());
+        sb.append(",\"distanceKm\":").append(o.getDistance()).append(",\"eta\":");
+        Eta eta = o.getEta();
+        quote(sb, eta.toString());
+        sb.append(",\"etaMinutes\":").append(Math.round(eta.getMinutes() * 10) / 10.0)
+                .append(",\"etaRange\":[").append(Math.round(eta.getLowMinutes() * 10) / 10.0).append(',').append(Math.round(eta.getHighMinutes() * 10) / 10.0)
+                .append("],\"etaConfidence\":").append(Math.round(eta.getConfidence() * 100) / 100.0);
+        sb.append(",\"totalPaise\":").append(o.getTotalPaise()).append(",\"total\":");
+        quote(sb, Money.appendRupees(new StringBuilder(), o.getTotalPaise()).toString());
+        DeliveryDriver driver = o.getDriver();
+        if (driver != null) 
+        {
+            sb.append(",\"driver\":");
+            quote(sb, driver.getName());
+            sb.append(",\"driverPhone\":");
+            quote(sb, driver.getPhone());
+        }
+        return sb.append('}').toString();
     }
 
-    public void showBill() 
+    private static String paymentJson(PaymentResult r, Order o) 
     {
-        System.out.println(Colors.YELLOW + "\n========= BILL =========" + Colors.RESET);
-        System.out.println("Fuel Type     : " + fuel.getType());
-        System.out.println("Liters        : " + liters);
-        System.out.println("Bunk          : " + bunkName);
-        System.out.println("Delivery Addr : " + deliveryAddr);
-        System.out.println("Distance      : " + distance + " km");
-        System.out.println("Est. Delivery : " + estTime);
-        System.out.println("------------------------");
-        System.out.println("Fuel Cost     : " + df.format(fuelCost));
-        System.out.println("Delivery Fee  : " + df.format(deliveryCharge));
-        System.out.println("GST (15%)     : " + df.format(gst));
-        System.out.println("========================");
-        System.out.println(Colors.CYAN + "TOTAL         : " + df.format(total) + Colors.RESET);
-        System.out.println("Status        : " + status);
-        System.out.println("========================\n");
+        StringBuilder sb = new StringBuilder(384);
+        sb.append("{\"payment\":{\"state\":");
+        quote(sb, r.getState().toString());
+        sb.append(",\"reference\":");
+        quote(sb, r.getReference());
+        sb.append(",\"attempts\":").append(r.getAttempts()).append(",\"message\":");
+        quote(sb, r.getMessage());
+        return sb.append("},\"order\":").append(orderJson(o)).append('}').toString();
     }
 
-    public String summary() 
+    private static String error(String message) 
     {
-        return orderId + " | " + fuel.getType() + " | " + liters + "L | " + deliveryAddr + " | " + status + " | Total: " + df.format(total);
+        StringBuilder sb = new StringBuilder("{\"error\":");
+        quote(sb, message);
+        return sb.append('}').toString();
     }
-}
-
-// Payment
-interface Payment 
-{ 
-	void pay(double amount); 
-}
 
-class PhonePe implements Payment 
-{
-    private String upiId;
-    public PhonePe(String upi) 
-    { 
-	this.upiId = upi; 
-    }
-    public void pay(double amt) 
-    { 
-	System.out.println("Payment of " + amt + " done via PhonePe UPI: " + upiId); 
+    private static void quote(StringBuilder sb, String s) 
+    {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) 
+        {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') sb.append('\\').append(c);
+            else if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+            else sb.append(c);
+        }
+        sb.append('"');
     }
 }
 
-class Paytm implements Payment 
+// Main App
+class FUELgoApp 
 {
-    private String upiId;
-    public Paytm(String upi) 
-    { 
-	this.upiId = upi; 
-    }
-    public void pay(double amt) 
-    { 
-	System.out.println("Payment of " + amt + " done via Paytm UPI: " + upiId); 
-    }
-}
+    private DeliveryManager deliveryManager;
+    private WalletLedger walletLedger;
+    private OrderJournal journal;
+    private PaymentPipeline paymentPipeline;
+    private OrderService orderService;
 
-class BankTransfer implements Payment 
-{
-    private String accNo, ifsc;
-    public BankTransfer(String acc, String ifsc) 
-    { 
-	this.accNo = acc; this.ifsc = ifsc; 
-    }
-    public void pay(double amt) 
-    { 
-	System.out.println("Payment of " + amt + " done via Bank Transfer (A/C: " + accNo + ", IFSC: " + ifsc + ")"); 
+    public FUELgoApp() 
+    {
+        // -Dfuelgo.zoneShards splits dispatch into that many zone shards (default one per core)
+        this.deliveryManager = new DeliveryManager(Integer.getInteger("fuelgo.zoneShards", DeliveryManager.DEFAULT_SHARDS), DispatchEngine::new, new DeliveryScheduler(), null);
+        this.walletLedger = new WalletLedger();
+        this.paymentPipeline = PaymentPipeline.simulated(300, 0, 0);
+        Path journalPath = Paths.get(System.getProperty("fuelgo.journal", "fuelgo.journal"));
+        JournalRecovery recovery = openJournal(journalPath);
+        // -Dfuelgo.nodeId keeps order ids unique when several instances take orders
+        this.orderService = new OrderService(deliveryManager, paymentPipeline, walletLedger, journal, loadPrices(System.getProperty("fuelgo.prices")),
+                new IdGenerator(Integer.getInteger("fuelgo.nodeId", 0)));
+        // -Dfuelgo.admission=reject|defer|surge decides what happens to new orders while every driver is busy
+        orderService.setAdmissionControl(new AdmissionControl(deliveryManager, AdmissionPolicy.of(System.getProperty("fuelgo.admission", "defer")),
+                Integer.getInteger("fuelgo.maxBacklog", AdmissionControl.DEFAULT_MAX_BACKLOG), Integer.getInteger("fuelgo.maxOrdersPerBunk", AdmissionControl.UNLIMITED),
+                Double.parseDouble(System.getProperty("fuelgo.surgeMultiplier", String.valueOf(AdmissionControl.DEFAULT_SURGE_MULTIPLIER)))));
+        // -Dfuelgo.paymentDeadlineMillis=900000 cancels an order not paid for within that time
+        orderService.setPaymentDeadline(Long.getLong("fuelgo.paymentDeadlineMillis", OrderService.DEFAULT_PAYMENT_DEADLINE_MILLIS));
+        loadHistory(journalPath);
+        orderService.adopt(recovery.getOrders());
     }
-}
 
-class FuelGoWallet implements Payment 
-{
-    private double balance = 0;
-    public void addMoney(double amt) 
-    { 
-	balance += amt; System.out.println("Wallet balance updated: " + balance); 
-    }
-    public void pay(double amt) 
+    // Every past order, from the same journal, for the customers' order history
+    private void loadHistory(Path path) 
     {
-        if (balance >= amt) 
+        try 
         {
-		 balance -= amt; System.out.println("Payment of " + amt + " done using FUELgo Wallet. Remaining: " + balance); 
-    	}
-        else System.out.println(Colors.RED + "Insufficient wallet balance!" + Colors.RESET);
-    }
-    public double getBalance() 
-    { 
-	return balance; 
+            long start = System.nanoTime();
+            int count = orderService.getHistory().rebuild(path);
+            if (count > 0) 
+            {
+                System.out.println(Colors.CYAN + "Loaded " + count + " orders into order history in " + (System.nanoTime() - start) / 1000000 + " ms." + Colors.RESET);
+            }
+        } 
+        catch (IOException e) 
+        {
+            throw new UncheckedIOException("Cannot read order history from " + path, e);
+        }
     }
-}
 
-// OTP Service with retry and resend
-class OTPService 
-{
-    public static boolean verifyOTP(String phone, Scanner sc) 
+    // Standard prices, overridden by the rows of the -Dfuelgo.prices file if given
+    private static FuelCatalog loadPrices(String file) 
     {
-        Random rand = new Random();
-        int attempts = 0;
-        while (attempts < 3) 
-	{
-            int otp = 1000 + rand.nextInt(9000);
-            System.out.println("Sending OTP to " + phone + " : " + Colors.RED+ otp +Colors.RESET );
-            System.out.print("Enter OTP (or type 0 to Exit): ");
-            String otpInput = sc.nextLine();
-            if (otpInput.equals("0")) return false;
-            if (otpInput.matches("\\d{1,6}")) 
-	    {
-                int entered = Integer.parseInt(otpInput);
-                if (entered == otp) return true;
-            }
-            attempts++;
-            System.out.println(Colors.RED + "Incorrect OTP. Attempts left: " + (3 - attempts) + Colors.RESET);
-            if (attempts < 3) 
-	    {
-                System.out.println("1. Resend OTP\n2. Exit");
-                String choiceInput = sc.nextLine();
-                if (!choiceInput.matches("[1-2]")) 
-		{
-                    System.out.println(Colors.RED + "Invalid choice. Please enter 1 or 2." + Colors.RESET);
-                    continue;
-                }
-                if (choiceInput.equals("2")) return false;
-            }
+        FuelCatalog catalog = FuelCatalog.defaults();
+        if (file == null) return catalog;
+        try 
+        {
+            long start = System.nanoTime();
+            int rows = catalog.load(Paths.get(file));
+            System.out.println(Colors.CYAN + "Loaded " + rows + " fuel prices from " + file + " in " + (System.nanoTime() - start) / 1000000 + " ms." + Colors.RESET);
+        } 
+        catch (IOException | IllegalArgumentException e) 
+        {
+            System.out.println(Colors.RED + "Could not load fuel prices, using standard prices: " + e.getMessage() + Colors.RESET);
         }
-        System.out.println(Colors.RED + "Too many failed OTP attempts. Exiting..." + Colors.RESET);
-        return false;
+        return catalog;
     }
-}
 
-// Main App
-class FUELgoApp 
-{
-    private DeliveryManager deliveryManager;
-    private Order lastOrder;
-    private FuelGoWallet wallet;
-
-    public FUELgoApp() 
+    // Replays the journal left by the previous run, then keeps appending to it
+    private JournalRecovery openJournal(Path path) 
     {
-        this.deliveryManager = new DeliveryManager();
-        this.lastOrder = null;
-        this.wallet = new FuelGoWallet();
+        try 
+        {
+            long start = System.nanoTime();
+            JournalRecovery recovery = new JournalRecovery();
+            long validBytes = OrderJournal.replay(path, recovery);
+            journal = new OrderJournal(path, validBytes, 5);
+            recovery.restore(deliveryManager, journal);
+            if (recovery.getEventCount() > 0) 
+            {
+                System.out.println(Colors.CYAN + "Recovered " + recovery.getOrders().size() + " orders from " + recovery.getEventCount()
+                        + " journal events in " + (System.nanoTime() - start) / 1000000 + " ms." + Colors.RESET);
+            }
+            return recovery;
+        } 
+        catch (IOException e) 
+        {
+            throw new UncheckedIOException("Cannot open order journal " + path, e);
+        }
     }
 
     public void run() 
@@ -440,13 +7034,12 @@ class FUELgoApp
             System.out.println("1. Customer Login");
             System.out.println("2. Delivery Person Register/Login");
             System.out.println(Colors.BLINK + "3. Exit..." + Colors.RESET);
-            String choiceInput = sc.nextLine();
-            if (!choiceInput.matches("[1-3]")) 
+            int choice = InputValidator.choice(sc.nextLine(), 3);
+            if (choice == InputValidator.INVALID) 
 	    {
                 System.out.println(Colors.RED + "Invalid choice. Please enter 1, 2, or 3." + Colors.RESET);
                 continue;
             }
-            int choice = Integer.parseInt(choiceInput);
 
             switch (choice) 
 	    {
@@ -475,6 +7068,17 @@ class FUELgoApp
         System.out.println(Colors.GREEN + "\nThank you for using FUELgo.");
         System.out.println("Stay fueled, stay safe, and see you next time." + Colors.RESET);
         sc.close();
+        orderService.shutdown();
+        deliveryManager.shutdown(DeliveryScheduler.DEFAULT_DELIVERY_MILLIS, TimeUnit.MILLISECONDS);
+        paymentPipeline.shutdown();
+        try 
+        {
+            journal.close();
+        } 
+        catch (IOException e) 
+        {
+            System.out.println(Colors.RED + "Could not close order journal: " + e.getMessage() + Colors.RESET);
+        }
     }
 
     private Customer authenticateCustomer(Scanner sc) 
@@ -482,14 +7086,14 @@ class FUELgoApp
         System.out.print("\nEnter Name (or type exit): ");
         String name = sc.nextLine();
         if (name.equalsIgnoreCase("exit")) return null;
-        if (name.matches("-?\\d+")) 
+        if (InputValidator.isInteger(name)) 
         {
             System.out.println(Colors.RED + "Name cannot be an integer." + Colors.RESET);
             return null;
         }
         System.out.print("Enter Phone Number (10 digits): ");
         String phoneInput = sc.nextLine();
-        if (!phoneInput.matches("\\d{10}")) 
+        if (!InputValidator.isPhone(phoneInput)) 
         {
             System.out.println(Colors.RED + "Invalid phone number." + Colors.RESET);
             return null;
@@ -502,63 +7106,59 @@ class FUELgoApp
 
     private void handleCustomerMenu(Customer cust, Scanner sc) 
     {
-        int orderCount = 1;
         boolean running = true;
         while (running) 
 	{
             System.out.println("\n--- Customer Menu ---");
             System.out.println("1. Place Order");
-            System.out.println("2. View Previous Order");
+            System.out.println("2. View Previous Orders");
             System.out.println("3. Logout");
-            String chInput = sc.nextLine();
-            if (!chInput.matches("[1-3]")) 
+            int ch = InputValidator.choice(sc.nextLine(), 3);
+            if (ch == InputValidator.INVALID) 
 	    {
                 System.out.println(Colors.RED + "Invalid choice. Please enter 1, 2, or 3." + Colors.RESET);
                 continue;
             }
-            int ch = Integer.parseInt(chInput);
 
             switch (ch) 
 	    {
                 case 1:
-                    Order order = createOrder(cust, sc, orderCount++);
+                    Order order = createOrder(cust, sc);
                     if (order != null) 
 		    {
-                        	lastOrder = order;
-                       		lastOrder.showBill();
-                        if (processPayment(order, cust, sc)) 
+                       		order.showBill();
+                        if (!processPayment(order, cust, sc)) 
+			{
+                            if (orderService.cancel(order)) System.out.println(Colors.YELLOW + "Order " + order.getOrderId() + " cancelled." + Colors.RESET);
+                        } 
+			else 
 			{
-                            	DeliveryDriver driver = deliveryManager.assignDriver(order);
+                            	DeliveryDriver driver = orderService.dispatch(order);
                             if (driver != null) 
 			    {
                                 System.out.println("Driver Assigned: " + driver.getDetails() + " | Contact: " + driver.getPhone());
                                 order.showBill();
                                 try 
 				{
-                                    while (!order.summary().contains("Delivered")) 
-				    {
-                                        Thread.sleep(1000);
-                                    }
+                                    // Wakes up the moment the order is delivered (or cancelled)
+                                    order.whenTerminal().get();
                                     order.showBill();
                                 } 
-				catch (InterruptedException e) 
+				catch (InterruptedException | ExecutionException e) 
 				{
                                     System.out.println(Colors.RED + "Error waiting for delivery." + Colors.RESET);
                                 }
                             } 
 			    else 
 			    {
-                                System.out.println(Colors.YELLOW + "No available drivers at the moment. Order pending." + Colors.RESET);
+                                System.out.println(Colors.YELLOW + "All drivers are busy at the moment. Your order goes out with the next free driver." + Colors.RESET);
                             }
                         }
                     }
                     break;
 
                 case 2:
-                    if (lastOrder == null)
-                        System.out.println(Colors.YELLOW + "No previous orders." + Colors.RESET);
-                    else
-                        System.out.println(lastOrder.summary());
+                    showOrderHistory(cust, sc);
                     break;
 
                 case 3:
@@ -569,45 +7169,76 @@ class FUELgoApp
         }
     }
 
-    private Order createOrder(Customer cust, Scanner sc, int orderCount) 
+    // The customer's orders, five at a time, newest first
+    private void showOrderHistory(Customer cust, Scanner sc) 
+    {
+        String cursor = null;
+        do 
+        {
+            HistoryPage page = orderService.getHistory().customerPage(cust.getPhone(), cursor, 5);
+            if (page.getRecords().isEmpty()) 
+            {
+                System.out.println(Colors.YELLOW + "No previous orders." + Colors.RESET);
+                return;
+            }
+            for (OrderRecord r : page.getRecords()) System.out.println(r.summary());
+            cursor = page.getNextCursor();
+            if (cursor == null) return;
+            System.out.print("Enter m for more orders (or anything else for Previous Menu): ");
+        } 
+        while (sc.nextLine().trim().equalsIgnoreCase("m"));
+    }
+
+    private Order createOrder(Customer cust, Scanner sc) 
     {
+        GeoPoint here = cust.getLocation() != null ? cust.getLocation() : ServiceArea.CENTRE;
+        List<Bunk> nearby = orderService.nearestBunks(here, 5);
+        if (nearby.isEmpty()) 
+        {
+            System.out.println(Colors.RED + "No petrol bunk delivers to your area yet." + Colors.RESET);
+            return null;
+        }
         System.out.println("\nNearest Petrol Bunks:");
-        System.out.println("1. Bharat Petroleum (2.5 km)");
-        System.out.println("2. HP Petroleum     (4.2 km)");
-        System.out.println("3. Previous Menu");
-        String bunkChoiceInput = sc.nextLine();
-        if (!bunkChoiceInput.matches("[1-3]")) 
+        for (int i = 0; i < nearby.size(); i++) 
         {
-            System.out.println(Colors.RED + "Invalid choice. Please enter 1, 2, or 3." + Colors.RESET);
+            Bunk b = nearby.get(i);
+            System.out.printf("%d. %-16s (%.1f km)%n", i + 1, b.getName(), ServiceArea.roundKm(b.getLocation().distanceKm(here)));
+        }
+        int back = nearby.size() + 1;
+        System.out.println(back + ". Previous Menu");
+        int bunkChoice = InputValidator.choice(sc.nextLine(), back);
+        if (bunkChoice == InputValidator.INVALID) 
+        {
+            System.out.println(Colors.RED + "Invalid choice. Please enter 1 to " + back + "." + Colors.RESET);
             return null;
         }
-        int bunkChoice = Integer.parseInt(bunkChoiceInput);
-        if (bunkChoice == 3) return null;
-        String bunk = (bunkChoice == 1) ? "Bharat Petroleum" : "HP Petroleum";
-        double dist = (bunkChoice == 1) ? 2.5 : 4.2;
+        if (bunkChoice == back) return null;
+        String bunk = nearby.get(bunkChoice - 1).getName();
 
+        List<FuelPrice> fuels = orderService.getFuelCatalog().pricesAt(bunk);
         System.out.println("\nChoose Fuel:");
-        System.out.println("1. Petrol95 (110/l)");
-        System.out.println("2. Diesel   (95/l)");
-        System.out.println("3. Previous Menu");
-        String fuelChoiceInput = sc.nextLine();
-        if (!fuelChoiceInput.matches("[1-3]")) 
+        for (int i = 0; i < fuels.size(); i++) 
+        {
+            System.out.printf("%d. %-9s (%s/l)%n", i + 1, fuels.get(i).getFuelType(), Money.toString(Money.toPaise(fuels.get(i).getPricePerLiter())));
+        }
+        int fuelBack = fuels.size() + 1;
+        System.out.println(fuelBack + ". Previous Menu");
+        int fuelChoice = InputValidator.choice(sc.nextLine(), fuelBack);
+        if (fuelChoice == InputValidator.INVALID) 
 	{
-            System.out.println(Colors.RED + "Invalid choice. Please enter 1, 2, or 3." + Colors.RESET);
+            System.out.println(Colors.RED + "Invalid choice. Please enter 1 to " + fuelBack + "." + Colors.RESET);
             return null;
         }
-        int fuelChoice = Integer.parseInt(fuelChoiceInput);
-        if (fuelChoice == 3) return null;
-        Fuel fuel = (fuelChoice == 1) ? new Petrol95(110) : new Diesel(95);
+        if (fuelChoice == fuelBack) return null;
+        String fuelType = fuels.get(fuelChoice - 1).getFuelType();
 
         System.out.print("Enter Liters (or 0 for Previous Menu): ");
-        String litersInput = sc.nextLine();
-        if (!litersInput.matches("-?\\d*\\.?\\d+")) 
+        double liters = InputValidator.decimal(sc.nextLine());
+        if (Double.isNaN(liters)) 
 	{
             System.out.println(Colors.RED + "Invalid liters. Please enter a number." + Colors.RESET);
             return null;
         }
-        double liters = Double.parseDouble(litersInput);
         if (liters < 0 || liters > 1000) 
 	{
             System.out.println(Colors.RED + "Liters must be between 0 and 1000." + Colors.RESET);
@@ -620,7 +7251,15 @@ class FUELgoApp
         if (addr.equalsIgnoreCase("back")) return null;
         cust.setAddress(addr);
 
-        return new Order("O" + orderCount, cust, fuel, liters, bunk, dist, addr);
+        try 
+        {
+            return orderService.createOrder(cust, fuelType, liters, bunk, addr, here);
+        } 
+        catch (IllegalArgumentException | IllegalStateException e) 
+        {
+            System.out.println(Colors.RED + e.getMessage() + Colors.RESET);
+            return null;
+        }
     }
 
     private boolean processPayment(Order order, Customer cust, Scanner sc) 
@@ -635,14 +7274,14 @@ class FUELgoApp
             System.out.println("4. Bank Transfer");
             System.out.println("5. Add Money to Wallet");
             System.out.println("6. Previous Menu");
-            String payChoiceInput = sc.nextLine();
-            if (!payChoiceInput.matches("[1-6]")) 
+            int payChoice = InputValidator.choice(sc.nextLine(), 6);
+            if (payChoice == InputValidator.INVALID) 
 	    {
                 System.out.println(Colors.RED + "Invalid choice. Please enter 1 to 6." + Colors.RESET);
                 continue;
             }
-            int payChoice = Integer.parseInt(payChoiceInput);
 
+            FuelGoWallet wallet = new FuelGoWallet(walletLedger, cust.getPhone());
             Payment payment = null;
             switch (payChoice) 
 	    {
@@ -650,14 +7289,14 @@ class FUELgoApp
                     System.out.print("Enter PhonePe UPI ID: ");
                     String u1 = sc.nextLine();
                     if (!OTPService.verifyOTP(cust.getPhone(), sc)) break;
-                    payment = new PhonePe(u1);
+                    payment = new PhonePe(u1, paymentPipeline);
                     break;
 
                 case 2:
                     System.out.print("Enter Paytm UPI ID: ");
                     String u2 = sc.nextLine();
                     if (!OTPService.verifyOTP(cust.getPhone(), sc)) break;
-                    payment = new Paytm(u2);
+                    payment = new Paytm(u2, paymentPipeline);
                     break;
 
                 case 3:
@@ -668,33 +7307,31 @@ class FUELgoApp
                         System.out.println(Colors.RED + "Insufficient wallet balance! Current balance: " + wallet.getBalance() + Colors.RESET);
                         System.out.println("1. Add to Wallet");
                         System.out.println("2. Previous Menu");
-                        String walletChoiceInput = sc.nextLine();
-                        if (!walletChoiceInput.matches("[1-2]")) 
+                        int walletChoice = InputValidator.choice(sc.nextLine(), 2);
+                        if (walletChoice == InputValidator.INVALID) 
 			{
                             System.out.println(Colors.RED + "Invalid choice. Please enter 1 or 2." + Colors.RESET);
                             break;
                         }
-                        int walletChoice = Integer.parseInt(walletChoiceInput);
                         if (walletChoice == 1) 
 			{
                             System.out.println("\nSelect Payment Method to Add Money:");
                             System.out.println("1. " + Colors.PURPLE + "PhonePe" + Colors.RESET);
                             System.out.println("2. " + Colors.BLUE + "Pay" + Colors.RESET + "tm");
-                            String addMoneyChoiceInput = sc.nextLine();
-                            if (!addMoneyChoiceInput.matches("[1-2]")) 
+                            int addMoneyChoice = InputValidator.choice(sc.nextLine(), 2);
+                            if (addMoneyChoice == InputValidator.INVALID) 
 			    {
                                 System.out.println(Colors.RED + "Invalid choice. Please enter 1 or 2." + Colors.RESET);
                                 break;
                             }
-                            int addMoneyChoice = Integer.parseInt(addMoneyChoiceInput);
                             System.out.print("Enter Amount to Add: ");
-                            String addInput = sc.nextLine();
-                            if (!addInput.matches("-?\\d*\\.?\\d+")) 
+                            long addPaise = InputValidator.amountPaise(sc.nextLine());
+                            if (addPaise == InputValidator.INVALID_AMOUNT) 
 			    {
-                                System.out.println(Colors.RED + "Invalid amount. Please enter a number." + Colors.RESET);
+                                System.out.println(Colors.RED + "Invalid amount. Please enter a number with at most two decimals." + Colors.RESET);
                                 break;
                             }
-                            double add = Double.parseDouble(addInput);
+                            double add = Money.toRupees(addPaise);
                             if (add <= 0 || add > 100000) 
  		 	    {
                                 System.out.println(Colors.RED + "Amount must be between 0 and 100,000." + Colors.RESET);
@@ -706,16 +7343,15 @@ class FUELgoApp
 			    {
                                 System.out.print("Enter PhonePe UPI ID: ");
                                 String upiId = sc.nextLine();
-                                addPayment = new PhonePe(upiId);
+                                addPayment = new PhonePe(upiId, paymentPipeline);
                             } 
 			    else 
 			    {
                                 System.out.print("Enter Paytm UPI ID: ");
                                 String upiId = sc.nextLine();
-                                addPayment = new Paytm(upiId);
+                                addPayment = new Paytm(upiId, paymentPipeline);
                             }
-                            addPayment.pay(add);
-                            wallet.addMoney(add);
+                            if (!topUpWallet(wallet, addPayment, add)) break;
                             if (wallet.getBalance() >= order.getTotal()) 
 			    {
                                 payment = wallet;
@@ -739,28 +7375,27 @@ class FUELgoApp
                     System.out.print("Enter IFSC Code: ");
                     String ifsc = sc.nextLine();
                     if (!OTPService.verifyOTP(cust.getPhone(), sc)) break;
-                    payment = new BankTransfer(acc, ifsc);
+                    payment = new BankTransfer(acc, ifsc, paymentPipeline);
                     break;
 
                 case 5:
                     System.out.println("\nSelect Payment Method to Add Money:");
                     System.out.println("1. " + Colors.PURPLE + "PhonePe" + Colors.RESET);
                     System.out.println("2. " + Colors.BLUE + "Pay" + Colors.RESET + "tm");
-                    String addMoneyChoiceInput = sc.nextLine();
-                    if (!addMoneyChoiceInput.matches("[1-2]")) 
+                    int addMoneyChoice = InputValidator.choice(sc.nextLine(), 2);
+                    if (addMoneyChoice == InputValidator.INVALID) 
 		    {
                         System.out.println(Colors.RED + "Invalid choice. Please enter 1 or 2." + Colors.RESET);
                         break;
                     }
-                    int addMoneyChoice = Integer.parseInt(addMoneyChoiceInput);
                     System.out.print("Enter Amount to Add: ");
-                    String addInput = sc.nextLine();
-                    if (!addInput.matches("-?\\d*\\.?\\d+")) 
+                    long addPaise = InputValidator.amountPaise(sc.nextLine());
+                    if (addPaise == InputValidator.INVALID_AMOUNT) 
     	 	    {
-                        System.out.println(Colors.RED + "Invalid amount. Please enter a number." + Colors.RESET);
+                        System.out.println(Colors.RED + "Invalid amount. Please enter a number with at most two decimals." + Colors.RESET);
                         break;
                     }
-                    double add = Double.parseDouble(addInput);
+                    double add = Money.toRupees(addPaise);
                     if (add <= 0 || add > 100000) 
    		    {
                         System.out.println(Colors.RED + "Amount must be between 0 and 100,000." + Colors.RESET);
@@ -772,16 +7407,15 @@ class FUELgoApp
 	 	    {
                         System.out.print("Enter PhonePe UPI ID: ");
                         String upiId = sc.nextLine();
-                        addPayment = new PhonePe(upiId);
+                        addPayment = new PhonePe(upiId, paymentPipeline);
                     } 
 		    else 
 		    {
                         System.out.print("Enter Paytm UPI ID: ");
                         String upiId = sc.nextLine();
-                        addPayment = new Paytm(upiId);
+                        addPayment = new Paytm(upiId, paymentPipeline);
                     }
-                    addPayment.pay(add);
-                    wallet.addMoney(add);
+                    topUpWallet(wallet, addPayment, add);
                     break;
 
                 case 6:
@@ -791,10 +7425,13 @@ class FUELgoApp
 
             if (payment != null) 
 	    {
-                payment.pay(order.getTotal());
-                if (payment instanceof FuelGoWallet && wallet.getBalance() < order.getTotal()) 
+                PaymentResult result = orderService.pay(order, payment).toCompletableFuture().join();
+                if (!result.isApproved()) 
 		{
-                    break;
+                    System.out.println(Colors.RED + "Payment failed: " + result.getMessage() + Colors.RESET);
+                    // Cancelled meanwhile (the payment deadline passed): nothing left to pay for
+                    if (order.getStatus() != OrderStatus.PENDING) return false;
+                    continue;
                 }
                 System.out.println(Colors.GREEN + "Payment successfully done. Your order is on the way." + Colors.RESET);
                 payMenu = false;
@@ -804,32 +7441,44 @@ class FUELgoApp
         return false;
     }
 
+    // Charges the source and credits the wallet only if the charge went through
+    private boolean topUpWallet(FuelGoWallet wallet, Payment source, double amount) 
+    {
+        PaymentResult result = source.pay(amount).toCompletableFuture().join();
+        if (!result.isApproved()) 
+        {
+            System.out.println(Colors.RED + "Could not add money: " + result.getMessage() + Colors.RESET);
+            return false;
+        }
+        wallet.addMoney(amount);
+        return true;
+    }
+
     private DeliveryDriver handleDeliveryPersonMenu(Scanner sc) 
     {
         System.out.println("\n1. Register as Delivery Person");
         System.out.println("2. Login as Delivery Person");
         System.out.println("3. Previous Menu");
-        String choiceInput = sc.nextLine();
-        if (!choiceInput.matches("[1-3]")) 
+        int choice = InputValidator.choice(sc.nextLine(), 3);
+        if (choice == InputValidator.INVALID) 
 	{
             System.out.println(Colors.RED + "Invalid choice. Please enter 1, 2, or 3." + Colors.RESET);
             return null;
         }
-        int choice = Integer.parseInt(choiceInput);
 
         switch (choice) 
 	{
             case 1:
                 System.out.print("\nEnter Name: ");
                 String dName = sc.nextLine();
-                if (dName.matches("-?\\d+")) 
+                if (InputValidator.isInteger(dName)) 
 		{
                     System.out.println(Colors.RED + "Name cannot be an integer." + Colors.RESET);
                     return null;
                 }
                 System.out.print("Enter Phone Number (10 digits): ");
                 String dPhoneInput = sc.nextLine();
-                if (!dPhoneInput.matches("\\d{10}")) 
+                if (!InputValidator.isPhone(dPhoneInput)) 
 		{
                     System.out.println(Colors.RED + "Enter valid phone number." + Colors.RESET);
                     return null;
@@ -840,9 +7489,13 @@ class FUELgoApp
                     return null;
                 }
                 if (!OTPService.verifyOTP(dPhoneInput, sc)) return null;
-                deliveryManager.registerDriver(dName, dPhoneInput);
+                DeliveryDriver newDriver = deliveryManager.registerDriver(dName, dPhoneInput);
+                if (newDriver == null) 
+		{
+                    System.out.println(Colors.RED + "Phone number already registered. Please use a different number or login." + Colors.RESET);
+                    return null;
+                }
                 System.out.println(Colors.GREEN + "Driver registered successfully." + Colors.RESET);
-                DeliveryDriver newDriver = new DeliveryDriver(dName, dPhoneInput);
                 newDriver.login();
                 newDriver.viewAssignedOrder();
                 return newDriver;
@@ -850,7 +7503,7 @@ class FUELgoApp
             case 2:
                 System.out.print("\nEnter Phone Number (10 digits): ");
                 String phoneInput = sc.nextLine();
-                if (!phoneInput.matches("\\d{10}")) 
+                if (!InputValidator.isPhone(phoneInput)) 
 		{
                     System.out.println(Colors.RED + "Enter valid phone number." + Colors.RESET);
                     return null;
@@ -883,13 +7536,12 @@ class FUELgoApp
             System.out.println("1. View Assigned Orders");
             System.out.println("2. View Previous Order");
             System.out.println("3. Logout");
-            String choiceInput = sc.nextLine();
-            if (!choiceInput.matches("[1-3]")) 
+            int choice = InputValidator.choice(sc.nextLine(), 3);
+            if (choice == InputValidator.INVALID) 
 	    {
                 System.out.println(Colors.RED + "Invalid choice. Please enter 1, 2, or 3." + Colors.RESET);
                 continue;
             }
-            int choice = Integer.parseInt(choiceInput);
 
             switch (choice) 
 	    {
@@ -907,9 +7559,46 @@ class FUELgoApp
         }
     }
 
-    public static void main(String[] args) 
+    // Headless mode: serve the order API until the process is stopped
+    // -Dfuelgo.dispatchWindowMillis=2000 matches paid orders in batches instead of one at a time
+    // -Dfuelgo.tripLoadingMillis=30000 lets compatible orders share a driver's trip for that long
+    public void serveHttp(int port) throws IOException 
+    {
+        long dispatchWindow = Long.getLong("fuelgo.dispatchWindowMillis", 0);
+        if (dispatchWindow > 0) deliveryManager.enableBatching(dispatchWindow);
+        deliveryManager.enableRouteBatching(Long.getLong("fuelgo.tripLoadingMillis", 0));
+        OrderHttpServer server = new OrderHttpServer(orderService, port, Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
+        server.start();
+        System.out.println(Colors.GREEN + "FUELgo order API listening on port " + server.getPort() + Colors.RESET);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> 
+        {
+            server.stop(1);
+            orderService.shutdown();
+            deliveryManager.shutdown(DeliveryScheduler.DEFAULT_DELIVERY_MILLIS, TimeUnit.MILLISECONDS);
+            paymentPipeline.shutdown();
+            try 
+            {
+                journal.close();
+            } 
+            catch (IOException e) 
+            {
+                System.out.println(Colors.RED + "Could not close order journal: " + e.getMessage() + Colors.RESET);
+            }
+        }));
+    }
+
+    // java fuelgo.FUELgoApp             console menu
+    // java fuelgo.FUELgoApp --http 8080 headless order API
+    public static void main(String[] args) throws IOException 
     {
         FUELgoApp app = new FUELgoApp();
-        app.run();
+        if (args.length > 0 && args[0].equals("--http")) 
+        {
+            app.serveHttp(args.length > 1 ? Integer.parseInt(args[1]) : 8080);
+        } 
+        else 
+        {
+            app.run();
+        }
     }
 }
\ No newline at end of file